@@ -37,6 +37,12 @@ apply {
 
 val sourceSets = the<JavaPluginConvention>().sourceSets!!
 
+// benchmarks, run with "gradlew jmh", optionally with -PjmhInclude=<regex> to select benchmarks
+val jmhSourceSet = sourceSets.create("jmh") {
+    compileClasspath += sourceSets["main"].output
+    runtimeClasspath += sourceSets["main"].output
+}
+configurations["jmhCompile"].extendsFrom(configurations["compile"])
 
 configure<JavaPluginConvention> {
     setSourceCompatibility(JavaVersion.VERSION_1_8)
@@ -62,6 +68,24 @@ dependencies {
     compile("org.rocksdb:rocksdbjni:6.20.3")
     compile(project(":nbt"))
     testCompile("junit:junit:4.11")
+    "jmhCompile"("org.openjdk.jmh:jmh-core:1.21")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.21")
+}
+
+val jmh by tasks.creating(JavaExec::class) {
+    group = "verification"
+    description = "Runs the JMH benchmarks, reporting throughput and bytes allocated per operation"
+    dependsOn(tasks["jmhClasses"])
+    classpath = jmhSourceSet.runtimeClasspath
+    main = "org.openjdk.jmh.Main"
+    val resultsFile = file("$buildDir/reports/jmh/results.json")
+    args("-prof", "gc", "-rf", "json", "-rff", resultsFile)
+    if (project.hasProperty("jmhInclude")) {
+        args(project.property("jmhInclude"))
+    }
+    doFirst {
+        resultsFile.parentFile.mkdirs()
+    }
 }
 
 jar.apply {
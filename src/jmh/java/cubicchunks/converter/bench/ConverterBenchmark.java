@@ -0,0 +1,115 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.bench;
+
+import com.flowpowered.nbt.CompoundTag;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.anvil2cc.Anvil2CCDataConverter;
+import cubicchunks.converter.lib.convert.cc2anvil.CC2AnvilDataConverter;
+import cubicchunks.converter.lib.convert.cc2ccrelocating.CC2CCRelocatingDataConverter;
+import cubicchunks.converter.lib.convert.data.AnvilChunkData;
+import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
+import cubicchunks.converter.lib.convert.data.MultilayerAnvilChunkData;
+import cubicchunks.converter.lib.util.BoundingBox;
+import cubicchunks.converter.lib.util.Compression;
+import cubicchunks.converter.lib.util.EditTask;
+import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.converter.lib.util.Vector3i;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the chunk data converters and NBT decoding on their own, one chunk (column) per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+    @Param({"DEFAULT", "SPEED"})
+    public Compression.Level compressionLevel;
+
+    private AnvilChunkData anvilChunk;
+    private CubicChunksColumnData ccColumn;
+
+    private Anvil2CCDataConverter anvil2cc;
+    private CC2AnvilDataConverter cc2anvil;
+    private CC2CCRelocatingDataConverter relocating;
+
+    @Setup
+    public void setup() throws IOException {
+        anvilChunk = SyntheticWorld.anvilChunk(3, 5);
+        ccColumn = SyntheticWorld.cubicChunksColumn(3, 5);
+
+        ConverterConfig config = new ConverterConfig(new HashMap<>());
+        config.set(Compression.LEVEL_CONFIG, compressionLevel);
+        anvil2cc = new Anvil2CCDataConverter(config);
+        cc2anvil = new CC2AnvilDataConverter(config);
+
+        // moves every cube of the column up by one, so that all of them are decoded, relocated and encoded again
+        ConverterConfig relocatingConfig = new ConverterConfig(new HashMap<>());
+        relocatingConfig.set(Compression.LEVEL_CONFIG, compressionLevel);
+        relocatingConfig.set("relocations", Collections.singletonList(new EditTask(
+            new BoundingBox(-1000, -1000, -1000, 1000, 1000, 1000), new Vector3i(0, 1, 0), EditTask.Type.MOVE)));
+        relocating = new CC2CCRelocatingDataConverter(relocatingConfig);
+    }
+
+    @Benchmark
+    public CompoundTag anvilDecode() throws IOException {
+        return Utils.readCompressed(Utils.asInputStream(anvilChunk.getData()));
+    }
+
+    @Benchmark
+    public Set<CubicChunksColumnData> anvil2cc() {
+        return anvil2cc.convert(anvilChunk);
+    }
+
+    @Benchmark
+    public Set<MultilayerAnvilChunkData> cc2anvil() {
+        return cc2anvil.convert(ccColumn);
+    }
+
+    @Benchmark
+    public Set<CubicChunksColumnData> cc2ccRelocating() {
+        return relocating.convert(ccColumn);
+    }
+}
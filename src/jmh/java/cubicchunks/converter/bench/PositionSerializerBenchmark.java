@@ -0,0 +1,169 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.bench;
+
+import cubicchunks.converter.lib.util.Vector2i;
+import cubicchunks.converter.lib.util.Vector3i;
+import net.daporkchop.rocksmc.util.PositionSerializerUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding of RocksMC column and cube keys, compared to the bit by bit loops they used to be encoded with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PositionSerializerBenchmark {
+
+    private static final int COUNT = 1024;
+
+    @Param({"loop", "spread"})
+    public String codec;
+
+    private Vector2i[] columns;
+    private Vector3i[] cubes;
+    private byte[][] columnKeys;
+    private byte[][] cubeKeys;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        columns = new Vector2i[COUNT];
+        cubes = new Vector3i[COUNT];
+        columnKeys = new byte[COUNT][];
+        cubeKeys = new byte[COUNT][];
+        for (int i = 0; i < COUNT; i++) {
+            // keys of a world are mostly close to the origin
+            columns[i] = new Vector2i(random.nextInt(1 << 14) - (1 << 13), random.nextInt(1 << 14) - (1 << 13));
+            cubes[i] = new Vector3i(random.nextInt(1 << 14) - (1 << 13), random.nextInt(1 << 8) - (1 << 7), random.nextInt(1 << 14) - (1 << 13));
+            columnKeys[i] = PositionSerializerUtils.writeVec2i(columns[i]);
+            cubeKeys[i] = PositionSerializerUtils.writeVec3i(cubes[i]);
+        }
+    }
+
+    private int next() {
+        return index = (index + 1) & (COUNT - 1);
+    }
+
+    @Benchmark
+    public byte[] writeVec2i() {
+        Vector2i pos = columns[next()];
+        return codec.equals("loop") ? Loop.writeVec2i(pos) : PositionSerializerUtils.writeVec2i(pos);
+    }
+
+    @Benchmark
+    public Vector2i readVec2i() {
+        byte[] key = columnKeys[next()];
+        return codec.equals("loop") ? Loop.readVec2i(key) : PositionSerializerUtils.readVec2i(key);
+    }
+
+    @Benchmark
+    public byte[] writeVec3i() {
+        Vector3i pos = cubes[next()];
+        return codec.equals("loop") ? Loop.writeVec3i(pos) : PositionSerializerUtils.writeVec3i(pos);
+    }
+
+    @Benchmark
+    public Vector3i readVec3i() {
+        byte[] key = cubeKeys[next()];
+        return codec.equals("loop") ? Loop.readVec3i(key) : PositionSerializerUtils.readVec3i(key);
+    }
+
+    /**
+     * The original encoding, one bit at a time. Produces the same keys.
+     */
+    private static class Loop {
+        static Vector2i readVec2i(byte[] src) {
+            long l = ByteBuffer.wrap(src).getLong();
+            int x = 0;
+            int z = 0;
+            for (int i = 0; i < 32; i++) {
+                int bits = (int) (l >>> (i << 1)) & 0x3;
+                x |= (bits >> 1) << i;
+                z |= (bits & 1) << i;
+            }
+            return new Vector2i(x, z);
+        }
+
+        static byte[] writeVec2i(Vector2i pos) {
+            byte[] dst = new byte[8];
+            int x = pos.getX();
+            int z = pos.getY();
+            long l = 0L;
+            for (int i = 0; i < 32; i++) {
+                l |= (long) ((((x >>> i) & 1) << 1) | ((z >>> i) & 1)) << (i << 1);
+            }
+            ByteBuffer.wrap(dst).putLong(l);
+            return dst;
+        }
+
+        static Vector3i readVec3i(byte[] src) {
+            int startIndex = src.length - 1;
+            return new Vector3i(readBits(src, startIndex, 2), readBits(src, startIndex, 1), readBits(src, startIndex, 0));
+        }
+
+        static byte[] writeVec3i(Vector3i pos) {
+            byte[] dst = new byte[12];
+            int startIndex = dst.length - 1;
+            writeBits(dst, startIndex, 2, pos.getX());
+            writeBits(dst, startIndex, 1, pos.getY());
+            writeBits(dst, startIndex, 0, pos.getZ());
+            return dst;
+        }
+
+        private static int readBits(byte[] src, int startIndex, int bitOffset) {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift++) {
+                int targetBitIndex = bitOffset + shift * 3;
+                value |= ((src[startIndex - (targetBitIndex >>> 3)] >>> (targetBitIndex & 0x7)) & 1) << shift;
+            }
+            return value;
+        }
+
+        private static void writeBits(byte[] dst, int startIndex, int bitOffset, int value) {
+            for (int shift = 0; shift < 32; shift++) {
+                int targetBitIndex = bitOffset + shift * 3;
+                dst[startIndex - (targetBitIndex >>> 3)] |= ((value >>> shift) & 1) << (targetBitIndex & 0x7);
+            }
+        }
+    }
+}
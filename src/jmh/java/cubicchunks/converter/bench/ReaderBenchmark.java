@@ -0,0 +1,102 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.bench;
+
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.io.AnvilChunkReader;
+import cubicchunks.converter.lib.convert.io.BaseMinecraftReader;
+import cubicchunks.converter.lib.util.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading all chunks of an anvil world, with a cold region cache for every invocation.
+ * Scores are per chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReaderBenchmark {
+
+    private static final int SIZE = 64;
+    private static final int CHUNKS = SIZE * SIZE;
+
+    @Param({"true", "false"})
+    public boolean mapped;
+
+    private Path world;
+    private AnvilChunkReader reader;
+
+    @Setup(Level.Trial)
+    public void createWorld() throws Exception {
+        world = Files.createTempDirectory("ccconverter-bench");
+        SyntheticWorld.writeAnvilWorld(world, SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWorld() throws Exception {
+        Utils.rm(world);
+    }
+
+    @Setup(Level.Invocation)
+    public void openReader() throws Exception {
+        ConverterConfig config = new ConverterConfig(new HashMap<>());
+        config.set(BaseMinecraftReader.MAPPED_REGIONS, mapped);
+        reader = new AnvilChunkReader(world, config);
+        // loading reuses the chunk index built by counting
+        reader.countInputChunks(() -> {});
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeReader() throws Exception {
+        reader.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public void anvilRead(Blackhole blackhole) throws Exception {
+        reader.loadChunks(blackhole::consume, t -> false);
+    }
+}
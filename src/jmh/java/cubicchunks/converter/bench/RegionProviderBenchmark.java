@@ -0,0 +1,130 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.bench;
+
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
+import cubicchunks.converter.lib.convert.io.CubicChunkWriter;
+import cubicchunks.converter.lib.util.RWLockingCachedRegionProvider;
+import cubicchunks.converter.lib.util.ShardedCachedRegionProvider;
+import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.api.region.IRegionProvider;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures random column reads and writes through the region cache providers, from several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RegionProviderBenchmark {
+
+    private static final int SIZE = 64;
+
+    @Param({"rwlocking", "sharded"})
+    public String provider;
+
+    private Path world;
+    private ByteBuffer column;
+    private IRegionProvider<EntryLocation2D> regions;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        world = Files.createTempDirectory("ccconverter-bench");
+        column = SyntheticWorld.cubicChunksColumn(0, 0).getColumnData();
+        try (CubicChunkWriter writer = new CubicChunkWriter(world, new ConverterConfig(new HashMap<>()))) {
+            for (int x = 0; x < SIZE; x++) {
+                for (int z = 0; z < SIZE; z++) {
+                    writer.accept(new CubicChunksColumnData(SyntheticWorld.OVERWORLD, new EntryLocation2D(x, z), column.duplicate(),
+                        Collections.emptyMap()));
+                }
+            }
+        }
+
+        SimpleRegionProvider<EntryLocation2D> source =
+            SimpleRegionProvider.createDefault(new EntryLocation2D.Provider(), world.resolve("region2d"), 512);
+        switch (provider) {
+            case "rwlocking":
+                regions = new RWLockingCachedRegionProvider<>(source);
+                break;
+            case "sharded":
+                regions = new ShardedCachedRegionProvider<>(source);
+                break;
+            default:
+                throw new IllegalArgumentException(provider);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        regions.close();
+        Utils.rm(world);
+    }
+
+    @Benchmark
+    public Optional<Optional<ByteBuffer>> read() throws IOException {
+        EntryLocation2D key = randomKey();
+        return regions.fromExistingRegion(key, region -> region.readValue(key));
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        EntryLocation2D key = randomKey();
+        regions.forRegion(key, region -> region.writeValue(key, column.duplicate()));
+    }
+
+    private static EntryLocation2D randomKey() {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        return new EntryLocation2D(rand.nextInt(SIZE), rand.nextInt(SIZE));
+    }
+}
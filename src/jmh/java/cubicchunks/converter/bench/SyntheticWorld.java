@@ -0,0 +1,183 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.bench;
+
+import com.flowpowered.nbt.ByteArrayTag;
+import com.flowpowered.nbt.ByteTag;
+import com.flowpowered.nbt.CompoundMap;
+import com.flowpowered.nbt.CompoundTag;
+import com.flowpowered.nbt.DoubleTag;
+import com.flowpowered.nbt.IntArrayTag;
+import com.flowpowered.nbt.IntTag;
+import com.flowpowered.nbt.ListTag;
+import com.flowpowered.nbt.LongTag;
+import com.flowpowered.nbt.StringTag;
+import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.anvil2cc.Anvil2CCDataConverter;
+import cubicchunks.converter.lib.convert.data.AnvilChunkData;
+import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
+import cubicchunks.converter.lib.convert.io.SingleAnvilChunkWriter;
+import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.impl.MinecraftChunkLocation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates deterministic vanilla chunks shaped like a real 1.12 world: stone up to a noisy surface, some ores,
+ * skylight above the surface and a few entities and tile entities per chunk. Used so that benchmarks don't need
+ * a world to be shipped with the repository.
+ */
+public final class SyntheticWorld {
+
+    public static final Dimension OVERWORLD = new Dimension("Overworld", "");
+
+    private static final int DATA_VERSION = 1343;
+    private static final int SECTIONS = 8;
+
+    private SyntheticWorld() {
+        throw new AssertionError();
+    }
+
+    public static CompoundTag anvilChunkTag(int x, int z) {
+        Random rand = new Random(x * 341873128712L + z * 132897987541L);
+
+        int[] heightMap = new int[256];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = 64 + rand.nextInt(8);
+        }
+
+        List<CompoundTag> sections = new ArrayList<>();
+        for (int y = 0; y < SECTIONS; y++) {
+            sections.add(section(rand, y, heightMap));
+        }
+
+        List<CompoundTag> entities = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            entities.add(entity(rand, x, z));
+        }
+        List<CompoundTag> tileEntities = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            tileEntities.add(tileEntity(rand, x, z));
+        }
+
+        byte[] biomes = new byte[256];
+        Arrays.fill(biomes, (byte) 1);
+
+        CompoundMap level = new CompoundMap();
+        level.put(new IntTag("xPos", x));
+        level.put(new IntTag("zPos", z));
+        level.put(new LongTag("LastUpdate", 0L));
+        level.put(new ByteTag("TerrainPopulated", (byte) 1));
+        level.put(new ByteTag("LightPopulated", (byte) 1));
+        level.put(new LongTag("InhabitedTime", 0L));
+        level.put(new ByteArrayTag("Biomes", biomes));
+        level.put(new IntArrayTag("HeightMap", heightMap));
+        level.put(new ListTag<>("Sections", CompoundTag.class, sections));
+        level.put(new ListTag<>("Entities", CompoundTag.class, entities));
+        level.put(new ListTag<>("TileEntities", CompoundTag.class, tileEntities));
+
+        CompoundMap root = new CompoundMap();
+        root.put(new IntTag("DataVersion", DATA_VERSION));
+        root.put(new CompoundTag("Level", level));
+        return new CompoundTag("", root);
+    }
+
+    /**
+     * Returns the chunk as stored in an anvil region entry, zlib compressed with the compression type prefix.
+     */
+    public static AnvilChunkData anvilChunk(int x, int z) throws IOException {
+        ByteBuffer data = Utils.writeCompressedZlib(anvilChunkTag(x, z), true);
+        return new AnvilChunkData(OVERWORLD, new MinecraftChunkLocation(x, z, "mca"), data, 0);
+    }
+
+    public static CubicChunksColumnData cubicChunksColumn(int x, int z) throws IOException {
+        Set<CubicChunksColumnData> converted = new Anvil2CCDataConverter(new ConverterConfig(new HashMap<>())).convert(anvilChunk(x, z));
+        return converted.iterator().next();
+    }
+
+    /**
+     * Writes a square of {@code size * size} chunks starting at 0, 0 into the region directory of the overworld.
+     */
+    public static void writeAnvilWorld(Path worldDir, int size) throws Exception {
+        try (SingleAnvilChunkWriter writer = new SingleAnvilChunkWriter(worldDir)) {
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    writer.accept(anvilChunk(x, z));
+                }
+            }
+        }
+    }
+
+    private static CompoundTag section(Random rand, int sectionY, int[] heightMap) {
+        byte[] blocks = new byte[4096];
+        byte[] skyLight = new byte[2048];
+        for (int i = 0; i < blocks.length; i++) {
+            int y = (sectionY << 4) | (i >> 8);
+            if (y < heightMap[i & 0xFF]) {
+                // stone with the occasional ore
+                blocks[i] = (byte) (rand.nextInt(64) == 0 ? 14 + rand.nextInt(3) : 1);
+            } else {
+                skyLight[i >> 1] |= (byte) (0xF << ((i & 1) << 2));
+            }
+        }
+
+        CompoundMap map = new CompoundMap();
+        map.put(new ByteTag("Y", (byte) sectionY));
+        map.put(new ByteArrayTag("Blocks", blocks));
+        map.put(new ByteArrayTag("Data", new byte[2048]));
+        map.put(new ByteArrayTag("BlockLight", new byte[2048]));
+        map.put(new ByteArrayTag("SkyLight", skyLight));
+        return new CompoundTag("", map);
+    }
+
+    private static CompoundTag entity(Random rand, int chunkX, int chunkZ) {
+        List<DoubleTag> pos = Arrays.asList(
+            new DoubleTag("", (chunkX << 4) + rand.nextDouble() * 16),
+            new DoubleTag("", rand.nextDouble() * (SECTIONS << 4)),
+            new DoubleTag("", (chunkZ << 4) + rand.nextDouble() * 16)
+        );
+        CompoundMap map = new CompoundMap();
+        map.put(new StringTag("id", "minecraft:zombie"));
+        map.put(new ListTag<>("Pos", DoubleTag.class, pos));
+        return new CompoundTag("", map);
+    }
+
+    private static CompoundTag tileEntity(Random rand, int chunkX, int chunkZ) {
+        CompoundMap map = new CompoundMap();
+        map.put(new StringTag("id", "minecraft:chest"));
+        map.put(new IntTag("x", (chunkX << 4) + rand.nextInt(16)));
+        map.put(new IntTag("y", rand.nextInt(SECTIONS << 4)));
+        map.put(new IntTag("z", (chunkZ << 4) + rand.nextInt(16)));
+        return new CompoundTag("", map);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.bench;
+
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.ChunkDataWriter;
+import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
+import cubicchunks.converter.lib.convert.io.CubicChunkWriter;
+import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import net.daporkchop.rocksmc.converter.data.RocksLocalCubicData;
+import net.daporkchop.rocksmc.converter.dataconverter.CC2RocksLocalCubicDataConverter;
+import net.daporkchop.rocksmc.converter.io.RocksLocalWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing columns into a fresh world. Each invocation writes all columns and closes the writer, so
+ * that data still queued for asynchronous write back is included. Scores are per column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WriterBenchmark {
+
+    private static final int SIZE = 32;
+    private static final int COLUMNS = SIZE * SIZE;
+
+    private CubicChunksColumnData ccColumn;
+    private RocksLocalCubicData rocksColumn;
+
+    private Path world;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ccColumn = SyntheticWorld.cubicChunksColumn(0, 0);
+        rocksColumn = new CC2RocksLocalCubicDataConverter().convert(ccColumn).iterator().next();
+    }
+
+    @Setup(Level.Invocation)
+    public void createWorld() throws Exception {
+        world = Files.createTempDirectory("ccconverter-bench");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteWorld() throws Exception {
+        Utils.rm(world);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void cubicChunksWrite() throws Exception {
+        try (ChunkDataWriter<CubicChunksColumnData> writer = new CubicChunkWriter(world, new ConverterConfig(new HashMap<>()))) {
+            for (int x = 0; x < SIZE; x++) {
+                for (int z = 0; z < SIZE; z++) {
+                    writer.accept(new CubicChunksColumnData(ccColumn.getDimension(), new EntryLocation2D(x, z),
+                        ccColumn.getColumnData().duplicate(), duplicate(ccColumn.getCubeData())));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void rocksLocalWrite() throws Exception {
+        try (ChunkDataWriter<RocksLocalCubicData> writer = new RocksLocalWriter<>(world, new ConverterConfig(new HashMap<>()))) {
+            for (int x = 0; x < SIZE; x++) {
+                for (int z = 0; z < SIZE; z++) {
+                    writer.accept(new RocksLocalCubicData(rocksColumn.getDimension(), new EntryLocation2D(x, z),
+                        rocksColumn.getColumnData().duplicate(), duplicate(rocksColumn.getCubeData())));
+                }
+            }
+        }
+    }
+
+    // writers may consume the buffers they are given
+    private static Map<Integer, ByteBuffer> duplicate(Map<Integer, ByteBuffer> cubes) {
+        Map<Integer, ByteBuffer> copy = new HashMap<>();
+        cubes.forEach((y, data) -> copy.put(y, data.duplicate()));
+        return copy;
+    }
+}
@@ -170,14 +170,14 @@ public class ConverterWorker extends SwingWorker<Throwable, Void> {
         this.convertQueueFill.setMinimum(0);
         this.convertQueueFill.setMaximum(maxSize);
         this.convertQueueFill.setValue(size);
-        this.convertQueueFill.setString(String.format("Convert queue fill: %d/%d", size, maxSize));
+        this.convertQueueFill.setString(String.format("Convert queue fill: %d/%d (%d threads)", size, maxSize, this.converter.getConvertThreads()));
 
         maxSize = this.converter.getIOBufferMaxSize();
         size = this.converter.getIOBufferFill();
         this.ioQueueFill.setMinimum(0);
         this.ioQueueFill.setMaximum(maxSize);
         this.ioQueueFill.setValue(size);
-        this.ioQueueFill.setString(String.format("IO queue fill: %d/%d", size, maxSize));
+        this.ioQueueFill.setString(String.format("IO queue fill: %d/%d (%d threads)", size, maxSize, this.converter.getIOThreads()));
     }
 
     @Override
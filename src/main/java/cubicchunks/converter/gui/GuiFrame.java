@@ -26,7 +26,9 @@ package cubicchunks.converter.gui;
 import cubicchunks.converter.lib.Registry;
 import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.WorldConverter;
+import cubicchunks.converter.lib.util.Compression;
 import cubicchunks.converter.lib.util.Utils;
+import net.daporkchop.rocksmc.util.RocksProfile;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -62,6 +64,9 @@ public class GuiFrame extends JFrame {
     private String converterName = "Default";
 
     private JComboBox<ConverterDesc> selectConverter;
+    private JSpinner convertThreads, ioThreads;
+    private JComboBox<Compression.Level> compressionLevel;
+    private JComboBox<RocksProfile> rocksReadProfile, rocksWriteProfile;
 
     public void init() {
         try {
@@ -156,6 +161,45 @@ public class GuiFrame extends JFrame {
         gbc.fill = GridBagConstraints.NONE;
         mainPanel.add(formatSelect, gbc);
 
+        JPanel threadSelect = new JPanel(new FlowLayout());
+        {
+            // 0 = sized automatically from throughput and queue fill
+            convertThreads = new JSpinner(new SpinnerNumberModel(WorldConverter.AUTO_THREADS, WorldConverter.AUTO_THREADS, 1024, 1));
+            ioThreads = new JSpinner(new SpinnerNumberModel(WorldConverter.AUTO_THREADS, WorldConverter.AUTO_THREADS, 1024, 1));
+            threadSelect.add(new JLabel("Convert threads (0 = auto): "));
+            threadSelect.add(convertThreads);
+            threadSelect.add(new JLabel("IO threads (0 = auto): "));
+            threadSelect.add(ioThreads);
+            compressionLevel = new JComboBox<>(Compression.Level.values());
+            threadSelect.add(new JLabel("Compression: "));
+            threadSelect.add(compressionLevel);
+        }
+
+        gbc.gridx = 0;
+        gbc.gridy = 6;
+        gbc.gridwidth = 1;
+        gbc.weightx = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        mainPanel.add(threadSelect, gbc);
+
+        JPanel rocksSelect = new JPanel(new FlowLayout());
+        {
+            // only used when reading or writing RocksMC worlds
+            rocksReadProfile = new JComboBox<>(RocksProfile.values());
+            rocksWriteProfile = new JComboBox<>(RocksProfile.values());
+            rocksSelect.add(new JLabel("RocksDB read profile: "));
+            rocksSelect.add(rocksReadProfile);
+            rocksSelect.add(new JLabel("RocksDB write profile: "));
+            rocksSelect.add(rocksWriteProfile);
+        }
+
+        gbc.gridx = 0;
+        gbc.gridy = 7;
+        gbc.gridwidth = 1;
+        gbc.weightx = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        mainPanel.add(rocksSelect, gbc);
+
         root.add(mainPanel, BorderLayout.CENTER);
         root.setBorder(new EmptyBorder(10, 10, 10, 10));
 
@@ -354,11 +398,16 @@ public class GuiFrame extends JFrame {
                 return;
             }
         }
+        conf.set(Compression.LEVEL_CONFIG, compressionLevel.getSelectedItem());
+        conf.set(RocksProfile.READ_CONFIG, rocksReadProfile.getSelectedItem());
+        conf.set(RocksProfile.WRITE_CONFIG, rocksWriteProfile.getSelectedItem());
         WorldConverter<?, ?> converter = new WorldConverter<>(
             Registry.getLevelConverter(inFormat, outFormat, converterName).apply(srcPath, dstPath),
             Registry.getReader(inFormat).apply(srcPath, conf),
             Registry.getConverter(inFormat, outFormat, converterName).apply(conf),
-            Registry.getWriter(outFormat).apply(dstPath)
+            Registry.getWriter(outFormat).apply(dstPath, conf),
+            (Integer) convertThreads.getValue(),
+            (Integer) ioThreads.getValue()
         );
 
         ConverterWorker w = new ConverterWorker(converter, progressBar, convertFill, ioFill, updateProgress, () -> failed.set(true), this);
@@ -27,13 +27,20 @@ import cubicchunks.converter.headless.command.HeadlessCommandContext;
 import cubicchunks.converter.headless.command.HeadlessCommands;
 import cubicchunks.converter.lib.Registry;
 import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.ConversionJournal;
+import cubicchunks.converter.lib.convert.ConversionManifest;
 import cubicchunks.converter.lib.convert.WorldConverter;
+import cubicchunks.converter.lib.convert.io.BaseMinecraftReader;
+import cubicchunks.converter.lib.util.Compression;
+import cubicchunks.converter.lib.util.ShardedCachedRegionProvider;
+import net.daporkchop.rocksmc.util.RocksProfile;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -94,13 +101,55 @@ public class HeadlessConverter {
             }
         }
 
+        conf.set(BaseMinecraftReader.MAPPED_REGIONS, context.isMappedRegions());
+        conf.set(BaseMinecraftReader.SPATIAL_ORDER, context.isSpatialOrder());
+        conf.set(Compression.LEVEL_CONFIG, context.getCompressionLevel());
+        conf.set(RocksProfile.READ_CONFIG, context.getRocksReadProfile());
+        conf.set(RocksProfile.WRITE_CONFIG, context.getRocksWriteProfile());
+        if (context.getIndexBudgetMegabytes() > 0) {
+            conf.set(BaseMinecraftReader.INDEX_HEAP_BUDGET, context.getIndexBudgetMegabytes() * 1024L * 1024L);
+        }
+        if (context.getRegionCacheBudgetMegabytes() > 0) {
+            conf.set(ShardedCachedRegionProvider.HEAP_BUDGET, context.getRegionCacheBudgetMegabytes() * 1024L * 1024L);
+        }
+
         WorldConverter<?, ?> converter = new WorldConverter<>(
             Registry.getLevelConverterById(context.getInFormat(), context.getOutFormat(), context.getConverterName()).apply(context.getSrcWorld(), context.getDstWorld()),
             Registry.getReaderById(context.getInFormat()).apply(context.getSrcWorld(), conf),
             Registry.getConverterById(context.getInFormat(), context.getOutFormat(), context.getConverterName()).apply(conf),
-            Registry.getWriterById(context.getOutFormat()).apply(context.getDstWorld())
+            Registry.getWriterById(context.getOutFormat()).apply(context.getDstWorld(), conf),
+            context.getConvertThreads(),
+            context.getIoThreads()
         );
 
+        String conversion = context.getInFormat() + " -> " + context.getOutFormat() + " (" + context.getConverterName() + ") from "
+            + context.getSrcWorld().toAbsolutePath();
+        if (context.isJournal()) {
+            try {
+                ConversionJournal journal = ConversionJournal.open(ConversionJournal.defaultLocation(context.getDstWorld()), conversion);
+                converter.setJournal(journal);
+                converter.setJournalFlushInterval(TimeUnit.MINUTES.toMillis(context.getJournalFlushIntervalMinutes()));
+                if (journal.getCompletedCount() > 0) {
+                    System.out.println("Resuming conversion, skipping " + journal.getCompletedCount() + " completed regions");
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        if (context.isIncremental()) {
+            try {
+                ConversionManifest manifest = ConversionManifest.open(ConversionManifest.defaultLocation(context.getDstWorld()), conversion);
+                converter.setManifest(manifest);
+                if (manifest.getRegionCount() > 0) {
+                    System.out.println("Incremental conversion, " + manifest.getRegionCount() + " regions converted by earlier runs");
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
         HeadlessWorker w = new HeadlessWorker(converter, HeadlessConverter::done, () -> failed.set(true));
         try {
             w.convert();
@@ -110,11 +110,11 @@ public class HeadlessWorker {
 
         int maxSize = this.converter.getConvertBufferMaxSize();
         int size = this.converter.getConvertBufferFill();
-        String messageConvert = String.format("Convert queue fill: %d/%d", size, maxSize);
+        String messageConvert = String.format("Convert queue fill: %d/%d (%d threads)", size, maxSize, this.converter.getConvertThreads());
 
         maxSize = this.converter.getIOBufferMaxSize();
         size = this.converter.getIOBufferFill();
-        String messageWrite = String.format("IO queue fill: %d/%d", size, maxSize);
+        String messageWrite = String.format("IO queue fill: %d/%d (%d threads)", size, maxSize, this.converter.getIOThreads());
 
         System.out.println(messageRead + "\n" + messageConvert + "\n" + messageWrite);
     }
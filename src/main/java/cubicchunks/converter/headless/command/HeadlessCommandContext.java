@@ -23,7 +23,12 @@
  */
 package cubicchunks.converter.headless.command;
 
+import cubicchunks.converter.lib.convert.WorldConverter;
+import cubicchunks.converter.lib.util.Compression;
+import net.daporkchop.rocksmc.util.RocksProfile;
+
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 
 public class HeadlessCommandContext {
     private Path srcWorld;
@@ -33,6 +38,27 @@ public class HeadlessCommandContext {
     private String outFormat;
     private String converterName = "default";
 
+    private int convertThreads = WorldConverter.AUTO_THREADS;
+    private int ioThreads = WorldConverter.AUTO_THREADS;
+
+    private boolean mappedRegions = false;
+
+    private int regionCacheBudgetMegabytes = 0;
+
+    private Compression.Level compressionLevel = Compression.Level.DEFAULT;
+
+    private boolean journal = false;
+    private int journalFlushIntervalMinutes = (int) TimeUnit.MILLISECONDS.toMinutes(WorldConverter.DEFAULT_JOURNAL_FLUSH_INTERVAL_MILLIS);
+
+    private boolean incremental = false;
+
+    private int indexBudgetMegabytes = 0;
+
+    private boolean spatialOrder = false;
+
+    private RocksProfile rocksReadProfile = RocksProfile.DEFAULT;
+    private RocksProfile rocksWriteProfile = RocksProfile.DEFAULT;
+
     public Path getSrcWorld() {
         return srcWorld;
     }
@@ -73,6 +99,102 @@ public class HeadlessCommandContext {
         this.converterName = converterName;
     }
 
+    public int getConvertThreads() {
+        return convertThreads;
+    }
+
+    public void setConvertThreads(int convertThreads) {
+        this.convertThreads = convertThreads;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public boolean isMappedRegions() {
+        return mappedRegions;
+    }
+
+    public void setMappedRegions(boolean mappedRegions) {
+        this.mappedRegions = mappedRegions;
+    }
+
+    public int getRegionCacheBudgetMegabytes() {
+        return regionCacheBudgetMegabytes;
+    }
+
+    public void setRegionCacheBudgetMegabytes(int regionCacheBudgetMegabytes) {
+        this.regionCacheBudgetMegabytes = regionCacheBudgetMegabytes;
+    }
+
+    public Compression.Level getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(Compression.Level compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public boolean isJournal() {
+        return journal;
+    }
+
+    public void setJournal(boolean journal) {
+        this.journal = journal;
+    }
+
+    public int getJournalFlushIntervalMinutes() {
+        return journalFlushIntervalMinutes;
+    }
+
+    public void setJournalFlushIntervalMinutes(int journalFlushIntervalMinutes) {
+        this.journalFlushIntervalMinutes = journalFlushIntervalMinutes;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public int getIndexBudgetMegabytes() {
+        return indexBudgetMegabytes;
+    }
+
+    public void setIndexBudgetMegabytes(int indexBudgetMegabytes) {
+        this.indexBudgetMegabytes = indexBudgetMegabytes;
+    }
+
+    public boolean isSpatialOrder() {
+        return spatialOrder;
+    }
+
+    public void setSpatialOrder(boolean spatialOrder) {
+        this.spatialOrder = spatialOrder;
+    }
+
+    public RocksProfile getRocksReadProfile() {
+        return rocksReadProfile;
+    }
+
+    public void setRocksReadProfile(RocksProfile rocksReadProfile) {
+        this.rocksReadProfile = rocksReadProfile;
+    }
+
+    public RocksProfile getRocksWriteProfile() {
+        return rocksWriteProfile;
+    }
+
+    public void setRocksWriteProfile(RocksProfile rocksWriteProfile) {
+        this.rocksWriteProfile = rocksWriteProfile;
+    }
+
     @Override
     public String toString() {
         return "HeadlessCommandContext{" +
@@ -81,6 +203,18 @@ public class HeadlessCommandContext {
             ", inFormat='" + inFormat + '\'' +
             ", outFormat='" + outFormat + '\'' +
             ", converterName='" + converterName + '\'' +
+            ", convertThreads=" + convertThreads +
+            ", ioThreads=" + ioThreads +
+            ", mappedRegions=" + mappedRegions +
+            ", compressionLevel=" + compressionLevel +
+            ", journal=" + journal +
+            ", journalFlushIntervalMinutes=" + journalFlushIntervalMinutes +
+            ", incremental=" + incremental +
+            ", indexBudgetMegabytes=" + indexBudgetMegabytes +
+            ", regionCacheBudgetMegabytes=" + regionCacheBudgetMegabytes +
+            ", spatialOrder=" + spatialOrder +
+            ", rocksReadProfile=" + rocksReadProfile +
+            ", rocksWriteProfile=" + rocksWriteProfile +
             '}';
     }
 }
@@ -42,6 +42,15 @@ public class HeadlessCommands {
         InFormatCommand.register(dispatcher);
         OutFormatCommand.register(dispatcher);
         ConverterNameCommand.register(dispatcher);
+        ThreadsCommand.register(dispatcher);
+        ReadModeCommand.register(dispatcher);
+        CompressionCommand.register(dispatcher);
+        JournalCommand.register(dispatcher);
+        IncrementalCommand.register(dispatcher);
+        IndexBudgetCommand.register(dispatcher);
+        RegionCacheBudgetCommand.register(dispatcher);
+        RegionOrderCommand.register(dispatcher);
+        RocksProfileCommand.register(dispatcher);
     }
 
     public static int handleCommand(HeadlessCommandContext context, String command) {
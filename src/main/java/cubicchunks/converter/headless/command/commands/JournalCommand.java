@@ -0,0 +1,64 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.headless.command.commands;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import cubicchunks.converter.headless.command.HeadlessCommandContext;
+
+/**
+ * {@code journal <on|off>}, selects whether the conversion keeps a journal next to the destination world, so that it
+ * can be resumed by running it again after being interrupted.
+ *
+ * {@code journal flushInterval <minutes>}, how often the writer is flushed so that the journal can record progress, 0
+ * leaves writing back to the writer.
+ */
+public class JournalCommand {
+    public static void register(CommandDispatcher<HeadlessCommandContext> dispatcher) {
+        dispatcher.register(LiteralArgumentBuilder.<HeadlessCommandContext>literal("journal")
+            .then(LiteralArgumentBuilder.<HeadlessCommandContext>literal("on")
+                .executes((context) -> {
+                    context.getSource().setJournal(true);
+                    return 1;
+                })
+            )
+            .then(LiteralArgumentBuilder.<HeadlessCommandContext>literal("off")
+                .executes((context) -> {
+                    context.getSource().setJournal(false);
+                    return 1;
+                })
+            )
+            .then(LiteralArgumentBuilder.<HeadlessCommandContext>literal("flushInterval")
+                .then(RequiredArgumentBuilder.<HeadlessCommandContext, Integer>argument("minutes", IntegerArgumentType.integer(0))
+                    .executes((context) -> {
+                        context.getSource().setJournalFlushIntervalMinutes(context.getArgument("minutes", Integer.class));
+                        return 1;
+                    })
+                )
+            )
+        );
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.headless.command.commands;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import cubicchunks.converter.headless.command.HeadlessCommandContext;
+import net.daporkchop.rocksmc.util.RocksProfile;
+
+/**
+ * {@code rocksProfile <read|write> <default|bulk-import|random-read|low-memory>}, selects the RocksDB tuning profile
+ * used when reading or writing a RocksMC world.
+ */
+public class RocksProfileCommand {
+    public static void register(CommandDispatcher<HeadlessCommandContext> dispatcher) {
+        LiteralArgumentBuilder<HeadlessCommandContext> read = LiteralArgumentBuilder.literal("read");
+        LiteralArgumentBuilder<HeadlessCommandContext> write = LiteralArgumentBuilder.literal("write");
+        for (RocksProfile profile : RocksProfile.values()) {
+            read.then(LiteralArgumentBuilder.<HeadlessCommandContext>literal(profile.getName())
+                .executes((context) -> {
+                    context.getSource().setRocksReadProfile(profile);
+                    return 1;
+                })
+            );
+            write.then(LiteralArgumentBuilder.<HeadlessCommandContext>literal(profile.getName())
+                .executes((context) -> {
+                    context.getSource().setRocksWriteProfile(profile);
+                    return 1;
+                })
+            );
+        }
+        dispatcher.register(LiteralArgumentBuilder.<HeadlessCommandContext>literal("rocksProfile")
+            .then(read)
+            .then(write)
+        );
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.headless.command.commands;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import cubicchunks.converter.headless.command.HeadlessCommandContext;
+import cubicchunks.converter.lib.convert.WorldConverter;
+
+/**
+ * {@code threads <convert|io> <count>}, a count of 0 sizes the stage automatically.
+ */
+public class ThreadsCommand {
+    public static void register(CommandDispatcher<HeadlessCommandContext> dispatcher) {
+        dispatcher.register(LiteralArgumentBuilder.<HeadlessCommandContext>literal("threads")
+            .then(LiteralArgumentBuilder.<HeadlessCommandContext>literal("convert")
+                .then(RequiredArgumentBuilder.<HeadlessCommandContext, Integer>argument("count", IntegerArgumentType.integer(WorldConverter.AUTO_THREADS))
+                    .executes((context) -> {
+                        context.getSource().setConvertThreads(context.getArgument("count", Integer.class));
+                        return 1;
+                    })
+                )
+            )
+            .then(LiteralArgumentBuilder.<HeadlessCommandContext>literal("io")
+                .then(RequiredArgumentBuilder.<HeadlessCommandContext, Integer>argument("count", IntegerArgumentType.integer(WorldConverter.AUTO_THREADS))
+                    .executes((context) -> {
+                        context.getSource().setIoThreads(context.getArgument("count", Integer.class));
+                        return 1;
+                    })
+                )
+            )
+        );
+    }
+}
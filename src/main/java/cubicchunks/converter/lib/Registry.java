@@ -88,9 +88,9 @@ public class Registry {
     private static final BiMap<String, BiFunction<Path, ConverterConfig, ? extends ChunkDataReader<?>>> readersById = Maps.synchronizedBiMap(HashBiMap.create());
     private static final BiMap<Class<?>, BiFunction<Path, ConverterConfig, ? extends ChunkDataReader<?>>> readersByClass = Maps.synchronizedBiMap(HashBiMap.create());
 
-    private static final BiMap<String, Function<Path, ? extends ChunkDataWriter<?>>> writersByName = Maps.synchronizedBiMap(HashBiMap.create());
-    private static final BiMap<String, Function<Path, ? extends ChunkDataWriter<?>>> writersById = Maps.synchronizedBiMap(HashBiMap.create());
-    private static final BiMap<Class<?>, Function<Path, ? extends ChunkDataWriter<?>>> writersByClass = Maps.synchronizedBiMap(HashBiMap.create());
+    private static final BiMap<String, BiFunction<Path, ConverterConfig, ? extends ChunkDataWriter<?>>> writersByName = Maps.synchronizedBiMap(HashBiMap.create());
+    private static final BiMap<String, BiFunction<Path, ConverterConfig, ? extends ChunkDataWriter<?>>> writersById = Maps.synchronizedBiMap(HashBiMap.create());
+    private static final BiMap<Class<?>, BiFunction<Path, ConverterConfig, ? extends ChunkDataWriter<?>>> writersByClass = Maps.synchronizedBiMap(HashBiMap.create());
 
     private static final BiMap<StringTriple, Class<? extends ChunkDataConverter<?, ?>>> convertersByName = Maps.synchronizedBiMap(HashBiMap.create());
     private static final BiMap<StringTriple, Class<? extends ChunkDataConverter<?, ?>>> convertersById = Maps.synchronizedBiMap(HashBiMap.create());
@@ -141,6 +141,10 @@ public class Registry {
     }
 
     public static <T> void registerWriter(String name, String id, Function<Path, ChunkDataWriter<T>> writer, Class<T> clazz) {
+        registerWriter(name, id, (path, conf) -> writer.apply(path), clazz);
+    }
+
+    public static <T> void registerWriter(String name, String id, BiFunction<Path, ConverterConfig, ChunkDataWriter<T>> writer, Class<T> clazz) {
         Preconditions.checkArgument(id.matches(ID_PATTERN), "invalid id: %s", id);
 
         writersByName.put(name, writer);
@@ -151,11 +155,17 @@ public class Registry {
     public static <IN, OUT> void registerConverter(String name, String id, Supplier<ChunkDataConverter<IN, OUT>> converterFactory,
                                                    BiFunction<Path, Path, LevelInfoConverter<IN, OUT>> levelConv, Class<IN> in, Class<OUT> out,
                                                    Class<? extends ChunkDataConverter<IN, OUT>> converter) {
+        registerConverter(name, id, conf -> converterFactory.get(), levelConv, in, out, converter);
+    }
+
+    public static <IN, OUT> void registerConverter(String name, String id, Function<ConverterConfig, ChunkDataConverter<IN, OUT>> converterFactory,
+                                                   BiFunction<Path, Path, LevelInfoConverter<IN, OUT>> levelConv, Class<IN> in, Class<OUT> out,
+                                                   Class<? extends ChunkDataConverter<IN, OUT>> converter) {
         Preconditions.checkArgument(id.matches(ID_PATTERN), "invalid id: %s", id);
 
         convertersByName.put(new StringTriple(getReader(in), getWriter(out), name), converter);
         convertersById.put(new StringTriple(getReaderId(in), getWriterId(out), id), converter);
-        convertersByClass.put(new ClassTriple<>(in, out, converter), conf -> converterFactory.get());
+        convertersByClass.put(new ClassTriple<>(in, out, converter), converterFactory);
         levelConvertersByClass.put(new ClassTriple<>(in, out, converter), levelConv);
     }
 
@@ -196,13 +206,13 @@ public class Registry {
     }
 
     @SuppressWarnings("unchecked")
-    public static <T> Function<Path, ? extends ChunkDataWriter<T>> getWriter(String name) {
-        return (Function<Path, ? extends ChunkDataWriter<T>>) writersByName.get(name);
+    public static <T> BiFunction<Path, ConverterConfig, ? extends ChunkDataWriter<T>> getWriter(String name) {
+        return (BiFunction<Path, ConverterConfig, ? extends ChunkDataWriter<T>>) writersByName.get(name);
     }
 
     @SuppressWarnings("unchecked")
-    public static <T> Function<Path, ? extends ChunkDataWriter<T>> getWriterById(String id) {
-        return (Function<Path, ? extends ChunkDataWriter<T>>) writersById.get(id);
+    public static <T> BiFunction<Path, ConverterConfig, ? extends ChunkDataWriter<T>> getWriterById(String id) {
+        return (BiFunction<Path, ConverterConfig, ? extends ChunkDataWriter<T>>) writersById.get(id);
     }
 
     @SuppressWarnings("unchecked")
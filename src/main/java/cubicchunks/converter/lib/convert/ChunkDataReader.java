@@ -43,6 +43,7 @@ public interface ChunkDataReader<T> extends AutoCloseable {
     /**
      * Loads chunks into memory, and gives them to the provided consumer.
      * The provided consumer will block if data is provided too fast.
+     * Implementations may wait for {@link #countInputChunks(Runnable)} to finish, to load the chunks it found.
      *
      * @param accept the data consumer
      * @param errorHandler the error handler. Returns true if reading should continue, false otherwise.
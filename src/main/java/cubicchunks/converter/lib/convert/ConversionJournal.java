@@ -0,0 +1,299 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+import cubicchunks.converter.lib.Dimension;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records which source regions of a conversion have been completely read, converted and written, so that an
+ * interrupted conversion can be restarted without redoing them.
+ *
+ * A region is completed once the reader has passed all of its chunks on ({@link #regionRead(String)}) and every one
+ * of them has been written ({@link #chunkWritten(String)}). Completed regions are appended to the journal file by
+ * {@link #checkpoint(Flushable)}, after the writer has been flushed, so the journal never lists a region whose data
+ * could still be lost. Flushing a writer that caches its output writes all of it out at once, so writers that write
+ * their data back on their own can be tracked instead ({@link #setWriteBackTracking(WriteBackTracking)}), then
+ * {@link #checkpointWrittenBack()} records the regions whose data has already been written back without flushing.
+ * Chunks that fail to convert or write keep their region from completing, so it's redone next time.
+ *
+ * The journal is a text file with a header line identifying the conversion, followed by one region name per line.
+ */
+public class ConversionJournal implements Closeable {
+
+    private static final String HEADER_PREFIX = "# conversion ";
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Set<String> completed;
+
+    private final ConcurrentHashMap<String, RegionState> regions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> written = new ConcurrentLinkedQueue<>();
+    private volatile WriteBackTracking writeBackTracking;
+
+    private ConversionJournal(Path file, FileChannel channel, Set<String> completed) {
+        this.file = file;
+        this.channel = channel;
+        this.completed = completed;
+    }
+
+    /**
+     * Opens the journal of a conversion, creating it if it doesn't exist.
+     *
+     * @param file the journal file
+     * @param conversion identifies the conversion, resuming is refused if the journal was written by a different one
+     */
+    public static ConversionJournal open(Path file, String conversion) throws IOException {
+        String header = HEADER_PREFIX + conversion.replace('\n', ' ');
+        Set<String> completed = new HashSet<>();
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            List<String> lines = readCompleteLines(channel);
+            if (lines.isEmpty()) {
+                channel.truncate(0);
+                append(channel, Collections.singletonList(header));
+            } else if (!lines.get(0).equals(header)) {
+                throw new IOException("Journal " + file + " belongs to a different conversion: " + lines.get(0));
+            } else {
+                completed.addAll(lines.subList(1, lines.size()));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new ConversionJournal(file, channel, Collections.unmodifiableSet(completed));
+    }
+
+    /**
+     * Returns the journal file used for converting into the given world, it's kept next to the world directory.
+     */
+    public static Path defaultLocation(Path dstWorld) {
+        Path absolute = dstWorld.toAbsolutePath();
+        return absolute.resolveSibling(absolute.getFileName() + ".journal");
+    }
+
+    public static String regionName(Dimension dimension, RegionKey region) {
+        return dimension.getName() + "/" + region.getName();
+    }
+
+    /**
+     * Returns true if the region was completed by an earlier run of the conversion.
+     */
+    public boolean isCompleted(String region) {
+        return completed.contains(region);
+    }
+
+    public int getCompletedCount() {
+        return completed.size();
+    }
+
+    /**
+     * Called before a chunk of the region is passed on to be converted.
+     */
+    public void chunkRead(String region) {
+        state(region).pending.incrementAndGet();
+    }
+
+    /**
+     * Called once all output of a chunk read from the region has been written.
+     */
+    public void chunkWritten(String region) {
+        RegionState state = state(region);
+        if (state.pending.decrementAndGet() == 0 && state.read) {
+            markWritten(region, state);
+        }
+    }
+
+    /**
+     * Called by the reader after all chunks of the region have been passed on.
+     */
+    public void regionRead(String region) {
+        RegionState state = state(region);
+        state.read = true;
+        if (state.pending.get() == 0) {
+            markWritten(region, state);
+        }
+    }
+
+    /**
+     * Sets the writer whose write-backs {@link #checkpointWrittenBack()} waits for, must be called before any chunks
+     * are written.
+     */
+    public void setWriteBackTracking(WriteBackTracking writeBackTracking) {
+        this.writeBackTracking = writeBackTracking;
+    }
+
+    /**
+     * Flushes the writer and records all regions that were completed before the flush started.
+     *
+     * @param writer the writer to flush, or null if everything written has already been closed
+     */
+    public synchronized void checkpoint(Flushable writer) throws IOException {
+        List<String> regions = new ArrayList<>();
+        String region;
+        while ((region = written.poll()) != null) {
+            regions.add(region);
+        }
+        if (regions.isEmpty()) {
+            return;
+        }
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            written.addAll(regions);
+            throw e;
+        }
+        record(regions);
+    }
+
+    /**
+     * Records the completed regions whose data the tracked writer has already written back on its own, without
+     * flushing it. The other completed regions are kept for a later checkpoint.
+     *
+     * @throws IllegalStateException if no writer is tracked
+     */
+    public synchronized void checkpointWrittenBack() throws IOException {
+        if (writeBackTracking == null) {
+            throw new IllegalStateException("No writer is tracked");
+        }
+        List<String> completed = new ArrayList<>();
+        String region;
+        while ((region = written.poll()) != null) {
+            completed.add(region);
+        }
+        if (completed.isEmpty()) {
+            return;
+        }
+        // only asked after the regions have been taken, so it includes every write they could have data in
+        long oldestPending = writeBackTracking.getOldestPendingWrite();
+        List<String> regions = new ArrayList<>();
+        for (String name : completed) {
+            if (this.regions.get(name).writeStamp < oldestPending) {
+                regions.add(name);
+            } else {
+                written.add(name);
+            }
+        }
+        if (!regions.isEmpty()) {
+            record(regions);
+        }
+    }
+
+    private void record(List<String> regions) throws IOException {
+        append(channel, regions);
+        channel.force(false);
+        for (String name : regions) {
+            this.regions.remove(name);
+        }
+    }
+
+    /**
+     * Closes and deletes the journal, used when the converted data is discarded or the conversion has finished.
+     */
+    public synchronized void discard() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+
+    private RegionState state(String region) {
+        return regions.computeIfAbsent(region, r -> new RegionState());
+    }
+
+    private void markWritten(String region, RegionState state) {
+        if (state.completed.compareAndSet(false, true)) {
+            WriteBackTracking tracking = writeBackTracking;
+            // everything written for the region has returned, so it's all stamped no later than this
+            state.writeStamp = tracking == null ? 0 : tracking.getWriteStamp();
+            written.add(region);
+        }
+    }
+
+    // a line is only complete once its newline has been written, anything after the last one is from an interrupted write
+    private static List<String> readCompleteLines(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+        channel.position(0);
+        while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            // read everything
+        }
+        int end = buf.position();
+        while (end > 0 && buf.get(end - 1) != '\n') {
+            end--;
+        }
+        channel.truncate(end);
+        channel.position(end);
+
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(buf.array(), 0, end, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static void append(FileChannel channel, List<String> lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static class RegionState {
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicBoolean completed = new AtomicBoolean();
+        volatile boolean read;
+        volatile long writeStamp;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Remembers the state of the source regions as of the last run of a conversion, so that running it again only
+ * converts the chunks that changed since then and merges them into the existing output.
+ *
+ * For every region the manifest keeps the location and timestamp header entries of the chunks that have been written,
+ * together with the modification time and size of the region file. A region file whose modification time and size
+ * didn't change is skipped without reading it, otherwise its header is read and only chunks with a different location
+ * or timestamp are converted. Timestamps have a resolution of one second, so chunks saved within a second of the
+ * header being read are always converted again.
+ *
+ * Chunks are only recorded once their output has been written ({@link Region#chunkWritten(int)}), and the manifest
+ * must only be saved after the writer has been closed. Chunks that failed to convert keep their old entry and are
+ * retried by the next run. Chunks removed from the source are not removed from the output.
+ *
+ * A changed chunk replaces all of its output. Converters that split chunks into several outputs must write all of the
+ * outputs a chunk can have, even empty ones, so that the ones it no longer has don't keep their old data (Anvil to
+ * CubicChunks writes empty cubes for the missing sections of a chunk's 16 section range). Sections outside of that
+ * range, which vanilla chunks don't have, are not removed from the output once they disappear from the source.
+ */
+public class ConversionManifest {
+
+    private static final int MAGIC = 0x43434d46; // "CCMF"
+    private static final int VERSION = 1;
+
+    private static final int ENTRIES = 1024;
+    private static final int HEADER_BYTES = ENTRIES * 4 * 2;
+    // timestamps are in seconds and file modification times may be as coarse, so anything modified this close to
+    // reading the header may have been modified again within the same tick
+    private static final long TIMESTAMP_SLACK_MILLIS = 2000;
+
+    private final Path file;
+    private final String conversion;
+    private final Map<String, RegionEntry> previous;
+    private final ConcurrentHashMap<String, Region> regions = new ConcurrentHashMap<>();
+
+    private ConversionManifest(Path file, String conversion, Map<String, RegionEntry> previous) {
+        this.file = file;
+        this.conversion = conversion;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens the manifest of a conversion, starting from an empty one if it doesn't exist.
+     *
+     * @param file the manifest file
+     * @param conversion identifies the conversion, the manifest is refused if it was written by a different one
+     */
+    public static ConversionManifest open(Path file, String conversion) throws IOException {
+        Map<String, RegionEntry> previous = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported conversion manifest " + file);
+            }
+            String written = in.readUTF();
+            if (!written.equals(conversion)) {
+                throw new IOException("Manifest " + file + " belongs to a different conversion: " + written);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                previous.put(name, RegionEntry.read(in));
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        }
+        return new ConversionManifest(file, conversion, previous);
+    }
+
+    /**
+     * Returns the manifest file used for converting into the given world, it's kept next to the world directory.
+     */
+    public static Path defaultLocation(Path dstWorld) {
+        Path absolute = dstWorld.toAbsolutePath();
+        return absolute.resolveSibling(absolute.getFileName() + ".manifest");
+    }
+
+    /**
+     * Returns the number of regions recorded by earlier runs.
+     */
+    public int getRegionCount() {
+        return previous.size();
+    }
+
+    /**
+     * Returns the state of a source region, reading its header if the region file changed since the last run.
+     * The state is read once, both counting and loading chunks see the same one.
+     *
+     * @param name the name of the region, unique within the conversion
+     * @param regionFile the region file, with a Minecraft region header of locations followed by timestamps
+     */
+    public Region region(String name, Path regionFile) throws IOException {
+        try {
+            return regions.computeIfAbsent(name, n -> {
+                try {
+                    return scan(previous.get(n), regionFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the manifest, replacing the one of the last run. Must only be called once all written chunks are on disk.
+     */
+    public synchronized void save() throws IOException {
+        Map<String, RegionEntry> entries = new HashMap<>(previous);
+        for (Map.Entry<String, Region> region : regions.entrySet()) {
+            RegionEntry entry = region.getValue().toEntry();
+            if (entry != null) {
+                entries.put(region.getKey(), entry);
+            }
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(conversion);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, RegionEntry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the manifest, used when the converted data is discarded.
+     */
+    public synchronized void discard() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static Region scan(RegionEntry previous, Path regionFile) throws IOException {
+        long scanTime = System.currentTimeMillis();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(regionFile, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return new Region(previous, null);
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        if (previous != null && previous.modified == modified && previous.size == size) {
+            return new Region(previous, null);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(regionFile, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+        }
+        // a truncated header reads as missing chunks
+        header.clear();
+        RegionEntry current = new RegionEntry(modified, size, scanTime);
+        for (int i = 0; i < ENTRIES; i++) {
+            current.locations[i] = header.getInt(i * 4);
+            current.timestamps[i] = header.getInt((ENTRIES + i) * 4);
+        }
+        return new Region(previous, current);
+    }
+
+    /**
+     * The state of one source region during a run.
+     */
+    public static class Region {
+
+        private final RegionEntry previous;
+        // null if the region is unchanged
+        private final RegionEntry current;
+        // the entries that have been converted, starting from the previous run
+        private final RegionEntry converted;
+
+        private Region(RegionEntry previous, RegionEntry current) {
+            this.previous = previous;
+            this.current = current;
+            if (current == null) {
+                this.converted = null;
+                return;
+            }
+            this.converted = new RegionEntry(current.modified, current.size, current.scanTime);
+            for (int i = 0; i < ENTRIES; i++) {
+                // chunks that are gone have nothing to convert
+                if (current.locations[i] != 0 && previous != null) {
+                    converted.locations[i] = previous.locations[i];
+                    converted.timestamps[i] = previous.timestamps[i];
+                }
+            }
+        }
+
+        /**
+         * Returns true if no chunk of the region changed since the last run.
+         */
+        public boolean isUnchanged() {
+            return current == null;
+        }
+
+        /**
+         * Returns true if the chunk with the given index in the region changed since the last run.
+         */
+        public boolean isChanged(int index) {
+            if (current == null || current.locations[index] == 0) {
+                return false;
+            }
+            if (previous == null) {
+                return true;
+            }
+            return current.locations[index] != previous.locations[index]
+                || current.timestamps[index] != previous.timestamps[index]
+                || current.timestamps[index] * 1000L + TIMESTAMP_SLACK_MILLIS > previous.scanTime;
+        }
+
+        /**
+         * Called once the output of the chunk with the given index has been written.
+         */
+        public void chunkWritten(int index) {
+            if (current == null) {
+                return;
+            }
+            synchronized (converted) {
+                converted.locations[index] = current.locations[index];
+                converted.timestamps[index] = current.timestamps[index];
+            }
+        }
+
+        // the entry to save, or null to keep the previous one
+        private RegionEntry toEntry() {
+            if (current == null) {
+                return null;
+            }
+            RegionEntry entry = new RegionEntry(current.modified, current.size, current.scanTime);
+            boolean complete = current.modified + TIMESTAMP_SLACK_MILLIS <= current.scanTime;
+            synchronized (converted) {
+                for (int i = 0; i < ENTRIES; i++) {
+                    entry.locations[i] = converted.locations[i];
+                    // a missing chunk can still have a timestamp, there's nothing to convert so it's taken as it is
+                    entry.timestamps[i] = current.locations[i] == 0 ? current.timestamps[i] : converted.timestamps[i];
+                    complete &= entry.locations[i] == current.locations[i] && entry.timestamps[i] == current.timestamps[i];
+                }
+            }
+            if (!complete) {
+                // the region file must be read again next time
+                entry.modified = -1;
+            }
+            return entry;
+        }
+    }
+
+    private static class RegionEntry {
+        long modified;
+        final long size;
+        final long scanTime;
+        final int[] locations = new int[ENTRIES];
+        final int[] timestamps = new int[ENTRIES];
+
+        RegionEntry(long modified, long size, long scanTime) {
+            this.modified = modified;
+            this.size = size;
+            this.scanTime = scanTime;
+        }
+
+        static RegionEntry read(DataInputStream in) throws IOException {
+            RegionEntry entry = new RegionEntry(in.readLong(), in.readLong(), in.readLong());
+            for (int i = 0; i < ENTRIES; i++) {
+                entry.locations[i] = in.readInt();
+            }
+            for (int i = 0; i < ENTRIES; i++) {
+                entry.timestamps[i] = in.readInt();
+            }
+            return entry;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(modified);
+            out.writeLong(size);
+            out.writeLong(scanTime);
+            for (int location : locations) {
+                out.writeInt(location);
+            }
+            for (int timestamp : timestamps) {
+                out.writeInt(timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+/**
+ * A reader that can skip the regions an earlier, interrupted run of the same conversion has completed.
+ */
+public interface ResumableChunkReader<T> extends ChunkDataReader<T> {
+
+    /**
+     * Sets the journal of the conversion, must be called before counting or loading chunks.
+     * Regions the journal records as completed are neither counted nor loaded, and every other region is reported to
+     * {@link ConversionJournal#regionRead(String)} once all of its chunks have been given to the consumer.
+     * Regions with chunks that failed to load are not reported.
+     */
+    void setJournal(ConversionJournal journal);
+
+    /**
+     * Returns the journal name of the source region the chunk was loaded from.
+     */
+    String getRegionName(T chunk);
+}
@@ -0,0 +1,203 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded thread pool running a single stage of {@link WorldConverter}.
+ *
+ * The thread count is either fixed, or adjusted at runtime by {@link #tune()} from the observed throughput and queue fill:
+ * a stage with a full queue gets more threads for as long as that keeps increasing its throughput, and a stage with idle
+ * threads gives them back.
+ *
+ * Backpressure is credit based: every queue slot is a credit, and {@link #submit(Runnable)} has to take one before
+ * the task is queued. The credit is handed back as soon as a worker pulls the task, so the queue can never overflow
+ * and the amount of chunk data in flight is bounded by the stage capacity. Waiting for a credit is done as a
+ * {@link ForkJoinPool.ManagedBlocker}, so a producer running in a fork join pool doesn't starve that pool.
+ */
+class StageExecutor {
+
+    static final int AUTO = 0;
+
+    // fill fraction above which the stage is considered to be the bottleneck
+    private static final double GROW_FILL = 0.75;
+    // a growth step has to improve throughput at least this much to be kept
+    private static final double MIN_GAIN = 1.05;
+    // number of samples to wait after a reverted growth step before trying again
+    private static final int BACKOFF_SAMPLES = 10;
+    // how often a producer waiting for credits checks whether the stage has been shut down
+    private static final long CREDIT_POLL_MILLIS = 100L;
+
+    private final ArrayBlockingQueue<Runnable> queue;
+    private final Semaphore credits;
+    private final ThreadPoolExecutor executor;
+    private final boolean adaptive;
+    private final int maxThreads;
+
+    private long lastCompleted;
+    private long lastSampleNanos;
+    private double lastThroughput;
+    private boolean lastGrew;
+    private int backoff;
+
+    /**
+     * @param name thread name prefix
+     * @param threads fixed thread count, or {@link #AUTO} to size the stage adaptively
+     * @param initialThreads initial thread count for an adaptive stage
+     * @param maxThreads maximum thread count for an adaptive stage
+     * @param tasksPerThread queue capacity per (maximum) thread
+     */
+    StageExecutor(String name, int threads, int initialThreads, int maxThreads, int tasksPerThread) {
+        this.adaptive = threads <= AUTO;
+        this.maxThreads = adaptive ? maxThreads : threads;
+        int initial = adaptive ? Math.max(1, Math.min(initialThreads, maxThreads)) : threads;
+
+        this.queue = new ArrayBlockingQueue<>(tasksPerThread * this.maxThreads);
+        this.credits = new Semaphore(queue.remainingCapacity());
+        // submit() never queues more tasks than there is space for, so the default abort policy is never hit
+        this.executor = new ThreadPoolExecutor(initial, initial, 1000L, TimeUnit.MILLISECONDS, queue,
+            new ThreadFactoryBuilder().setNameFormat(name + " thread %d").build());
+        this.lastSampleNanos = System.nanoTime();
+    }
+
+    ThreadPoolExecutor executor() {
+        return executor;
+    }
+
+    /**
+     * Queues a task, waiting for a free credit if the stage is full.
+     *
+     * @return false if the stage has been shut down and the task was dropped
+     * @throws InterruptedException if interrupted while waiting for a credit
+     */
+    boolean submit(Runnable task) throws InterruptedException {
+        CreditBlocker blocker = new CreditBlocker();
+        ForkJoinPool.managedBlock(blocker);
+        if (!blocker.acquired) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                credits.release();
+                task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            // shut down after the credit was taken
+            credits.release();
+            return false;
+        }
+        return true;
+    }
+
+    int getQueueFill() {
+        return queue.size();
+    }
+
+    int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Takes a throughput sample and grows or shrinks the pool by one thread if needed.
+     * Must only be called from a single thread.
+     */
+    void tune() {
+        long now = System.nanoTime();
+        long completed = executor.getCompletedTaskCount();
+        double throughput = (completed - lastCompleted) / ((now - lastSampleNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+        lastCompleted = completed;
+        lastSampleNanos = now;
+
+        if (!adaptive || executor.isShutdown()) {
+            return;
+        }
+        int threads = getThreads();
+        double fill = queue.size() / (double) getQueueCapacity();
+
+        if (lastGrew && throughput < lastThroughput * MIN_GAIN && threads > 1) {
+            // the extra thread didn't help (most likely contention on the underlying storage), give it back
+            setThreads(threads - 1);
+            backoff = BACKOFF_SAMPLES;
+            lastGrew = false;
+        } else if (fill >= GROW_FILL && threads < maxThreads && backoff == 0) {
+            setThreads(threads + 1);
+            lastGrew = true;
+        } else {
+            if (fill == 0 && executor.getActiveCount() < threads - 1) {
+                // more than one thread is idle with nothing queued, upstream can't keep up
+                setThreads(threads - 1);
+            }
+            lastGrew = false;
+        }
+        if (backoff > 0) {
+            backoff--;
+        }
+        lastThroughput = throughput;
+    }
+
+    private void setThreads(int threads) {
+        // core size must never exceed maximum size, so the order depends on the direction
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    private class CreditBlocker implements ForkJoinPool.ManagedBlocker {
+        private boolean acquired;
+
+        @Override public boolean block() throws InterruptedException {
+            while (!acquired && !executor.isShutdown()) {
+                acquired = credits.tryAcquire(CREDIT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        @Override public boolean isReleasable() {
+            if (!acquired && !executor.isShutdown()) {
+                acquired = credits.tryAcquire();
+            }
+            return acquired || executor.isShutdown();
+        }
+    }
+}
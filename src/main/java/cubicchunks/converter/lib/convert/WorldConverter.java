@@ -23,18 +23,42 @@
  */
 package cubicchunks.converter.lib.convert;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import cubicchunks.converter.lib.IProgressListener;
+import cubicchunks.converter.lib.util.UncheckedInterruptedException;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Runs a conversion as a pipeline of bounded stages: the reader loads chunks on its own threads, the convert stage
+ * turns them into output chunks, and the IO stage hands them to the writer. Every stage pulls its work from a
+ * bounded queue and producers need a credit for each submitted chunk, so a slow stage throttles everything
+ * upstream of it instead of letting loaded chunks pile up in memory.
+ */
 public class WorldConverter<IN, OUT> {
 
+    /**
+     * Thread count to pass to the constructor to size a stage from observed throughput and queue fill.
+     */
+    public static final int AUTO_THREADS = StageExecutor.AUTO;
+
     private static final int THREADS = Runtime.getRuntime().availableProcessors()+1;
-    private static final int CONVERT_QUEUE_SIZE = 64 * THREADS * 2;
-    private static final int IO_QUEUE_SIZE = 32 * THREADS * 10;
+    private static final int CONVERT_TASKS_PER_THREAD = 64 * 2;
+    private static final int IO_TASKS_PER_THREAD = 32 * 10;
+    // adaptive IO starts small, many IO threads mostly fight over region locks
+    private static final int IO_INITIAL_THREADS = Math.max(2, THREADS / 4);
+    // adaptive convert starts at one thread per core and only takes the extra one if it helps
+    private static final int CONVERT_INITIAL_THREADS = Math.max(1, THREADS - 1);
+    private static final long TUNE_INTERVAL_MILLIS = 1000L;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60 * 1000L;
+    /**
+     * Default for {@link #setJournalFlushInterval(long)}.
+     */
+    public static final long DEFAULT_JOURNAL_FLUSH_INTERVAL_MILLIS = 10 * 60 * 1000L;
 
     private final LevelInfoConverter<IN, OUT> levelConverter;
     private final ChunkDataReader<IN> reader;
@@ -44,8 +68,8 @@ public class WorldConverter<IN, OUT> {
     private final AtomicInteger chunkCount;
     private volatile int copyChunks;
 
-    private final ArrayBlockingQueue<Runnable> convertQueueImpl;
-    private final ArrayBlockingQueue<Runnable> ioQueueImpl;
+    private final StageExecutor convertStage;
+    private final StageExecutor ioStage;
 
     private final ExecutorService convertQueue;
     private final ExecutorService ioQueue;
@@ -57,49 +81,124 @@ public class WorldConverter<IN, OUT> {
     private Thread countingThread;
     private IProgressListener.ErrorHandleResult errorResult;
 
+    private ConversionJournal journal;
+    private long journalFlushIntervalMillis = DEFAULT_JOURNAL_FLUSH_INTERVAL_MILLIS;
+    private ResumableChunkReader<IN> resumableReader;
+    private ConversionManifest manifest;
+    private IncrementalChunkReader<IN> incrementalReader;
+
     public WorldConverter(
         LevelInfoConverter<IN, OUT> levelConverter,
         ChunkDataReader<IN> reader,
         ChunkDataConverter<IN, OUT> converter,
         ChunkDataWriter<OUT> writer) {
+        this(levelConverter, reader, converter, writer, AUTO_THREADS, AUTO_THREADS);
+    }
+
+    /**
+     * @param convertThreads number of convert threads, or {@link #AUTO_THREADS}
+     * @param ioThreads number of IO threads, or {@link #AUTO_THREADS}
+     */
+    public WorldConverter(
+        LevelInfoConverter<IN, OUT> levelConverter,
+        ChunkDataReader<IN> reader,
+        ChunkDataConverter<IN, OUT> converter,
+        ChunkDataWriter<OUT> writer,
+        int convertThreads,
+        int ioThreads) {
 
         this.levelConverter = levelConverter;
         this.reader = reader;
         this.converter = converter;
         this.writer = writer;
 
-        RejectedExecutionHandler handler = ((r, executor) -> {
-            try {
-                if (!executor.isShutdown()) {
-                    executor.getQueue().put(r);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RejectedExecutionException("Executor was interrupted while the task was waiting to put on work queue", e);
-            }
-        });
-
         chunkCount = new AtomicInteger(0);
 
-        convertQueueImpl = new ArrayBlockingQueue<>(CONVERT_QUEUE_SIZE);
-        convertQueue = new ThreadPoolExecutor(THREADS, THREADS, 1000L, TimeUnit.MILLISECONDS, convertQueueImpl);
-        ((ThreadPoolExecutor)convertQueue).setRejectedExecutionHandler(handler);
+        convertStage = new StageExecutor("Convert", convertThreads, CONVERT_INITIAL_THREADS, THREADS, CONVERT_TASKS_PER_THREAD);
+        convertQueue = convertStage.executor();
 
-        ioQueueImpl = new ArrayBlockingQueue<>(IO_QUEUE_SIZE);
-        ioQueue = new ThreadPoolExecutor(THREADS, THREADS, 1000L, TimeUnit.MILLISECONDS, ioQueueImpl);
-        ((ThreadPoolExecutor)ioQueue).setRejectedExecutionHandler(handler);
+        ioStage = new StageExecutor("IO", ioThreads, IO_INITIAL_THREADS, THREADS, IO_TASKS_PER_THREAD);
+        ioQueue = ioStage.executor();
+    }
+
+    /**
+     * Makes the conversion resumable: regions the journal records as completed are skipped, and regions completed by
+     * this run are added to it. The journal is deleted once the conversion finishes without errors, or if the converted
+     * data is discarded, and kept for the next run if the conversion fails or is interrupted. Regions are only recorded
+     * once their data is on disk. A writer that does {@link WriteBackTracking} is checked every minute for regions it
+     * has written back on its own, any other writer has to be {@link Flushable} to record regions before it's closed at
+     * the end. Flushing is done every {@link #setJournalFlushInterval(long) journal flush interval}.
+     *
+     * @throws IllegalArgumentException if the reader can't resume conversions
+     */
+    @SuppressWarnings("unchecked")
+    public void setJournal(ConversionJournal journal) {
+        if (!(reader instanceof ResumableChunkReader)) {
+            throw new IllegalArgumentException("Reader " + reader.getClass().getSimpleName() + " can't resume conversions");
+        }
+        this.journal = journal;
+        this.resumableReader = (ResumableChunkReader<IN>) reader;
+        this.resumableReader.setJournal(journal);
+        if (writer instanceof WriteBackTracking) {
+            journal.setWriteBackTracking((WriteBackTracking) writer);
+        }
+    }
+
+    /**
+     * Sets how often a {@link Flushable} writer is flushed so that the journal can record the regions completed since.
+     * Flushing writes out every region the writer has open, so all of them are written again after the next flush.
+     * Writers that do {@link WriteBackTracking} don't need flushing for the journal to make progress, 0 only records
+     * what they have written back on their own. Defaults to {@value #DEFAULT_JOURNAL_FLUSH_INTERVAL_MILLIS} ms.
+     */
+    public void setJournalFlushInterval(long millis) {
+        this.journalFlushIntervalMillis = millis;
+    }
+
+    /**
+     * Makes the conversion incremental: only chunks that changed since the last run recorded in the manifest are
+     * converted, and written into the existing output. The manifest is saved once the writer has been closed, and
+     * deleted if the converted data is discarded.
+     *
+     * @throws IllegalArgumentException if the reader can't convert incrementally
+     */
+    @SuppressWarnings("unchecked")
+    public void setManifest(ConversionManifest manifest) {
+        if (!(reader instanceof IncrementalChunkReader)) {
+            throw new IllegalArgumentException("Reader " + reader.getClass().getSimpleName() + " can't convert incrementally");
+        }
+        this.manifest = manifest;
+        this.incrementalReader = (IncrementalChunkReader<IN>) reader;
+        this.incrementalReader.setManifest(manifest);
     }
 
     public void convert(IProgressListener progress) throws IOException {
         startCounting(progress);
+        ScheduledExecutorService tuner = startTuning();
+        ScheduledExecutorService checkpoints = startCheckpoints(progress);
 
         System.out.println("Starting conversion");
 
         long startTime = System.nanoTime();
         final Object object = new Object();
+        // set once every chunk has been read and passed on, without being interrupted
+        boolean allRead = false;
         try {
             reader.loadChunks(inData -> {
-                convertQueue.submit(new ChunkConvertTask<>(converter, writer, progress, this, ioQueue, inData));
+                Runnable onWritten = null;
+                if (journal != null) {
+                    String region = resumableReader.getRegionName(inData);
+                    journal.chunkRead(region);
+                    onWritten = () -> journal.chunkWritten(region);
+                }
+                if (manifest != null) {
+                    Runnable journalWritten = onWritten;
+                    Runnable manifestWritten = incrementalReader.chunkWrittenAction(inData);
+                    onWritten = journalWritten == null ? manifestWritten : () -> {
+                        manifestWritten.run();
+                        journalWritten.run();
+                    };
+                }
+                submit(convertStage, new ChunkConvertTask<>(converter, writer, progress, this, ioStage, inData, onWritten));
                 synchronized(object) {
                     copyChunks++;
                 }
@@ -107,6 +206,7 @@ public class WorldConverter<IN, OUT> {
                 handleError(ex, progress);
                 return errorResult == IProgressListener.ErrorHandleResult.IGNORE || errorResult == IProgressListener.ErrorHandleResult.IGNORE_ALL;
             });
+            allRead = true;
         } catch (InterruptedException e) {
             // just shutdown
         } finally {
@@ -115,6 +215,7 @@ public class WorldConverter<IN, OUT> {
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
+            tuner.shutdownNow();
             convertQueue.shutdown();
             boolean shutdownNow = false;
             try {
@@ -136,14 +237,26 @@ public class WorldConverter<IN, OUT> {
             } catch (InterruptedException e) {
                 e.printStackTrace();
                 ioQueue.shutdownNow();
+                shutdownNow = true;
+            }
+            if (checkpoints != null) {
+                // a checkpoint must not flush the writer while it's being closed
+                checkpoints.shutdownNow();
+                try {
+                    checkpoints.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
             }
             try {
                 reader.close();
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            boolean writerClosed = false;
             try {
                 writer.close();
+                writerClosed = true;
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -154,6 +267,13 @@ public class WorldConverter<IN, OUT> {
                     ex.printStackTrace();
                 }
             }
+            if (journal != null) {
+                // ignored errors still leave regions that weren't completed, and shutting down early drops queued chunks
+                closeJournal(writerClosed, allRead && !shutdownNow && errorResult == null);
+            }
+            if (manifest != null) {
+                closeManifest(writerClosed);
+            }
         }
         if (errorResult == IProgressListener.ErrorHandleResult.IGNORE || errorResult == IProgressListener.ErrorHandleResult.IGNORE_ALL) {
             errored = false;
@@ -174,19 +294,106 @@ public class WorldConverter<IN, OUT> {
     }
 
     public int getConvertBufferFill() {
-        return convertQueueImpl.size();
+        return convertStage.getQueueFill();
     }
 
     public int getConvertBufferMaxSize() {
-        return CONVERT_QUEUE_SIZE;
+        return convertStage.getQueueCapacity();
+    }
+
+    public int getConvertThreads() {
+        return convertStage.getThreads();
     }
 
     public int getIOBufferFill() {
-        return ioQueueImpl.size();
+        return ioStage.getQueueFill();
     }
 
     public int getIOBufferMaxSize() {
-        return IO_QUEUE_SIZE;
+        return ioStage.getQueueCapacity();
+    }
+
+    public int getIOThreads() {
+        return ioStage.getThreads();
+    }
+
+    private static void submit(StageExecutor stage, Runnable task) {
+        try {
+            stage.submit(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedInterruptedException();
+        }
+    }
+
+    private ScheduledExecutorService startTuning() {
+        ScheduledExecutorService tuner = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Thread pool tuner").setDaemon(true).build());
+        if (convertStage.isAdaptive() || ioStage.isAdaptive()) {
+            tuner.scheduleAtFixedRate(() -> {
+                convertStage.tune();
+                ioStage.tune();
+            }, TUNE_INTERVAL_MILLIS, TUNE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return tuner;
+    }
+
+    private ScheduledExecutorService startCheckpoints(IProgressListener progress) {
+        boolean tracked = writer instanceof WriteBackTracking;
+        boolean flushed = writer instanceof Flushable && journalFlushIntervalMillis > 0;
+        if (journal == null || (!tracked && !flushed)) {
+            return null;
+        }
+        ScheduledExecutorService checkpoints = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Conversion checkpoint thread").setDaemon(true).build());
+        if (tracked) {
+            checkpoints.scheduleWithFixedDelay(() -> {
+                try {
+                    journal.checkpointWrittenBack();
+                } catch (Throwable t) {
+                    handleError(t, progress);
+                }
+            }, CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (flushed) {
+            checkpoints.scheduleWithFixedDelay(() -> {
+                try {
+                    journal.checkpoint((Flushable) writer);
+                } catch (Throwable t) {
+                    handleError(t, progress);
+                }
+            }, journalFlushIntervalMillis, journalFlushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return checkpoints;
+    }
+
+    private void closeJournal(boolean writerClosed, boolean finished) {
+        try {
+            if (discardConverted || (finished && writerClosed)) {
+                journal.discard();
+                return;
+            }
+            // once the writer is closed everything written is on disk, unless closing it failed
+            if (writerClosed) {
+                journal.checkpoint(null);
+            }
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeManifest(boolean writerClosed) {
+        try {
+            if (discardConverted) {
+                manifest.discard();
+            } else if (writerClosed) {
+                // chunks that weren't written keep their old entries, so saving is fine even if the conversion stopped early
+                manifest.save();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private void startCounting(IProgressListener progress) {
@@ -229,66 +436,89 @@ public class WorldConverter<IN, OUT> {
         }
     }
 
-    private static class ChunkConvertTask<IN, OUT> implements Callable<Void> {
+    private static class ChunkConvertTask<IN, OUT> implements Runnable {
         private final ChunkDataConverter<IN, OUT> converter;
         private final ChunkDataWriter<OUT> writer;
         private final IProgressListener progress;
         private WorldConverter<IN, OUT> worldConv;
-        private final ExecutorService ioExecutor;
+        private final StageExecutor ioStage;
         private final IN toConvert;
+        // run once all converted output has been written, may be null
+        private final Runnable onWritten;
 
         ChunkConvertTask(
             ChunkDataConverter<IN, OUT> converter,
             ChunkDataWriter<OUT> writer,
             IProgressListener progress,
             WorldConverter<IN, OUT> worldConv,
-            ExecutorService ioExecutor,
-            IN toConvert) {
+            StageExecutor ioStage,
+            IN toConvert,
+            Runnable onWritten) {
 
             this.converter = converter;
             this.writer = writer;
             this.progress = progress;
             this.worldConv = worldConv;
-            this.ioExecutor = ioExecutor;
+            this.ioStage = ioStage;
             this.toConvert = toConvert;
+            this.onWritten = onWritten;
         }
 
-        @Override public Void call() {
+        @Override public void run() {
             try {
                 Set<OUT> converted_arr = converter.convert(toConvert);
+                Runnable written = null;
+                if (onWritten != null) {
+                    if (converted_arr.isEmpty()) {
+                        onWritten.run();
+                    }
+                    AtomicInteger remaining = new AtomicInteger(converted_arr.size());
+                    written = () -> {
+                        if (remaining.decrementAndGet() == 0) {
+                            onWritten.run();
+                        }
+                    };
+                }
                 for(OUT converted : converted_arr) {
-                    IOWriteTask<OUT> data = new IOWriteTask<>(converted, writer, worldConv, progress);
+                    IOWriteTask<OUT> data = new IOWriteTask<>(converted, writer, worldConv, progress, written);
                     progress.update();
-                    ioExecutor.submit(data);
+                    if (!ioStage.submit(data)) {
+                        return;
+                    }
                 }
+            } catch (InterruptedException e) {
+                // shutting down
             } catch (Throwable t) {
                 worldConv.handleError(t, progress);
             }
-            return null;
         }
     }
 
-    private static class IOWriteTask<OUT> implements Callable<Void> {
+    private static class IOWriteTask<OUT> implements Runnable {
 
         private final OUT toWrite;
         private final ChunkDataWriter<OUT> writer;
         private final WorldConverter worldConv;
         private final IProgressListener progress;
+        private final Runnable onWritten;
 
-        IOWriteTask(OUT toWrite, ChunkDataWriter<OUT> writer, WorldConverter worldConv, IProgressListener progress) {
+        IOWriteTask(OUT toWrite, ChunkDataWriter<OUT> writer, WorldConverter worldConv, IProgressListener progress, Runnable onWritten) {
             this.toWrite = toWrite;
             this.writer = writer;
             this.worldConv = worldConv;
             this.progress = progress;
+            this.onWritten = onWritten;
         }
 
-        @Override public Void call() {
+        @Override public void run() {
             try {
                 writer.accept(toWrite);
+                if (onWritten != null) {
+                    onWritten.run();
+                }
             } catch (Throwable t) {
                 worldConv.handleError(t, progress);
             }
-            return null;
         }
     }
 }
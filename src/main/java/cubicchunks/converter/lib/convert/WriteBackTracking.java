@@ -0,0 +1,45 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+/**
+ * A writer that writes its data back to disk on its own while converting, and keeps track of how far it has got.
+ * This lets a {@link ConversionJournal} record completed regions without flushing the writer.
+ *
+ * Writes are stamped with increasing numbers. Everything written before a call to {@link #getWriteStamp()} has a stamp
+ * no higher than the one returned.
+ */
+public interface WriteBackTracking {
+
+    /**
+     * Returns a stamp at least as high as the stamps of all writes that have returned so far.
+     */
+    long getWriteStamp();
+
+    /**
+     * Returns the stamp of the oldest write that hasn't been written back to disk yet, or {@link Long#MAX_VALUE} if
+     * everything written so far is on disk.
+     */
+    long getOldestPendingWrite();
+}
@@ -23,8 +23,14 @@
  */
 package cubicchunks.converter.lib.convert.anvil2cc;
 
+import static cubicchunks.converter.lib.util.NBTStreams.TAG_BYTE;
+import static cubicchunks.converter.lib.util.NBTStreams.TAG_BYTE_ARRAY;
+import static cubicchunks.converter.lib.util.NBTStreams.TAG_COMPOUND;
+import static cubicchunks.converter.lib.util.NBTStreams.TAG_END;
+import static cubicchunks.converter.lib.util.NBTStreams.TAG_INT;
+import static cubicchunks.converter.lib.util.NBTStreams.TAG_INT_ARRAY;
+import static cubicchunks.converter.lib.util.NBTStreams.TAG_LIST;
 import static java.util.Collections.emptyList;
-import static java.util.Collections.singletonList;
 
 import com.flowpowered.nbt.ByteArrayTag;
 import com.flowpowered.nbt.ByteTag;
@@ -34,25 +40,48 @@ import com.flowpowered.nbt.DoubleTag;
 import com.flowpowered.nbt.IntArrayTag;
 import com.flowpowered.nbt.IntTag;
 import com.flowpowered.nbt.ListTag;
+import com.flowpowered.nbt.Tag;
+import com.flowpowered.nbt.stream.NBTOutputStream;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.util.Compression;
+import cubicchunks.converter.lib.util.NBTStreams;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 
+/**
+ * Splits anvil chunks into cubes.
+ *
+ * The chunk is decompressed and read only once, as a stream. Section data is copied into the cubes without building
+ * tags for it, only the tags that have to be changed or filtered (entities, tile entities, tile ticks and a few small
+ * values) are read into flow-nbt tags.
+ */
 public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData, CubicChunksColumnData> {
 
+    private final Compression.Level compressionLevel;
+
+    public Anvil2CCDataConverter(ConverterConfig config) {
+        this.compressionLevel = Compression.Level.fromConfig(config);
+    }
+
     public Set<CubicChunksColumnData> convert(AnvilChunkData input) {
         try {
-            Map<Integer, ByteBuffer> cubes = extractCubeData(input.getData(), input.offsetSections);
-            ByteBuffer column = extractColumnData(input.getData());
+            AnvilChunk chunk;
+            try (DataInputStream in = new DataInputStream(Utils.openCompressed(Utils.asInputStream(input.getData())))) {
+                chunk = readChunk(in);
+            }
+            Map<Integer, ByteBuffer> cubes = extractCubeData(chunk, input.offsetSections);
+            ByteBuffer column = extractColumnData(chunk);
             EntryLocation2D location = new EntryLocation2D(input.getPosition().getEntryX(), input.getPosition().getEntryZ());
             return Collections.singleton(new CubicChunksColumnData(input.getDimension(), location, column, cubes));
         } catch (IOException impossible) {
@@ -60,43 +89,135 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
         }
     }
 
+    /*
+     *
+     * Vanilla Chunk NBT structure:
+     *
+     * ROOT
+     * |- DataVersion
+     * |- Level
+     *  |- v
+     *  |- xPos
+     *  |- zPos
+     *  |- LastUpdate
+     *  |- TerrainPopulated
+     *  |- LightPopulated
+     *  |- InhabitedTime
+     *  |- Biomes
+     *  |- HeightMap
+     *  |- Sections
+     *  ||* Section list:
+     *  | |- Y
+     *  | |- Blocks
+     *  | |- Data
+     *  | |- Add
+     *  | |- BlockLight
+     *  | |- SkyLight
+     *  |- Entities
+     *  |- TileEntities
+     *  |- TileTicks
+     */
+    private AnvilChunk readChunk(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != TAG_COMPOUND) {
+            throw new IOException("Root tag is not a compound");
+        }
+        in.readUTF();
+        AnvilChunk chunk = new AnvilChunk();
+        int type;
+        while ((type = in.readUnsignedByte()) != TAG_END) {
+            String name = in.readUTF();
+            if (name.equals("DataVersion")) {
+                chunk.dataVersion = NBTStreams.readTag(in, type, name);
+            } else if (name.equals("Level") && type == TAG_COMPOUND) {
+                readLevel(in, chunk);
+            } else {
+                NBTStreams.skipPayload(in, type);
+            }
+        }
+        return chunk;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readLevel(DataInputStream in, AnvilChunk chunk) throws IOException {
+        int type;
+        while ((type = in.readUnsignedByte()) != TAG_END) {
+            String name = in.readUTF();
+            switch (name) {
+                case "xPos":
+                    chunk.x = in.readInt();
+                    break;
+                case "zPos":
+                    chunk.z = in.readInt();
+                    break;
+                case "TerrainPopulated":
+                    chunk.populated = in.readByte();
+                    break;
+                case "LightPopulated":
+                    chunk.lightPopulated = in.readByte();
+                    break;
+                case "HeightMap":
+                    chunk.heightMap = NBTStreams.readIntArray(in);
+                    break;
+                case "InhabitedTime":
+                case "Biomes":
+                    chunk.columnTags.add(NBTStreams.readTag(in, type, name));
+                    break;
+                case "Entities":
+                    chunk.entities = (ListTag<CompoundTag>) NBTStreams.readTag(in, type, name);
+                    break;
+                case "TileEntities":
+                    chunk.tileEntities = (ListTag<?>) NBTStreams.readTag(in, type, name);
+                    break;
+                case "TileTicks":
+                    chunk.tileTicks = (ListTag<CompoundTag>) NBTStreams.readTag(in, type, name);
+                    break;
+                case "Sections":
+                    readSections(in, chunk, type);
+                    break;
+                default:
+                    NBTStreams.skipPayload(in, type);
+            }
+        }
+    }
 
-    private ByteBuffer extractColumnData(ByteBuffer vanillaData) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(vanillaData.array());
-        CompoundTag tag = Utils.readCompressed(in);
-        CompoundTag columnTag = extractColumnData(tag);
-        return Utils.writeCompressed(columnTag, false);
+    private void readSections(DataInputStream in, AnvilChunk chunk, int type) throws IOException {
+        if (type != TAG_LIST) {
+            NBTStreams.skipPayload(in, type);
+            return;
+        }
+        int elementType = in.readUnsignedByte();
+        int count = in.readInt();
+        if (elementType != TAG_COMPOUND) {
+            for (int i = 0; i < count; i++) {
+                NBTStreams.skipPayload(in, elementType);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            // the vanilla section has additional Y tag, it will be ignored by cubic chunks
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(10240);
+            DataOutputStream out = new DataOutputStream(bytes);
+            int y = 0;
+            int tagType;
+            while ((tagType = in.readUnsignedByte()) != TAG_END) {
+                String name = in.readUTF();
+                NBTStreams.writeTagHeader(out, tagType, name);
+                if (name.equals("Y") && tagType == TAG_BYTE) {
+                    y = in.readByte();
+                    out.writeByte(y);
+                } else if (name.equals("Blocks") && tagType == TAG_BYTE_ARRAY) {
+                    NBTStreams.writeByteArray(out, fixBlocks(NBTStreams.readByteArray(in)));
+                } else {
+                    NBTStreams.copyPayload(in, out, tagType);
+                }
+            }
+            out.writeByte(TAG_END);
+            chunk.sections.add(new Section(y, bytes.toByteArray()));
+        }
     }
 
-    private CompoundTag extractColumnData(CompoundTag tag) throws IOException {
+    private ByteBuffer extractColumnData(AnvilChunk chunk) throws IOException {
         /*
-         *
-         * Vanilla Chunk NBT structure:
-         *
-         * ROOT
-         * |- DataVersion
-         * |- Level
-         *  |- v
-         *  |- xPos
-         *  |- zPos
-         *  |- LastUpdate
-         *  |- TerrainPopulated
-         *  |- LightPopulated
-         *  |- InhabitedTime
-         *  |- Biomes
-         *  |- HeightMap
-         *  |- Sections
-         *  ||* Section list:
-         *  | |- Y
-         *  | |- Blocks
-         *  | |- Data
-         *  | |- Add
-         *  | |- BlockLight
-         *  | |- SkyLight
-         *  |- Entities
-         *  |- TileEntities
-         *  |- TileTicks
-         *
          * CubicChunks Column format:
          *
          * ROOT
@@ -110,24 +231,25 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
          *  |- OpacityIndex
          */
         CompoundMap levelMap = new CompoundMap();
-        CompoundMap srcLevel = (CompoundMap) tag.getValue().get("Level").getValue();
 
-        int[] srcHeightMap = fixHeightmap((int[]) srcLevel.get("HeightMap").getValue());
+        int[] srcHeightMap = fixHeightmap(chunk.heightMap.clone());
 
         levelMap.put(new IntTag("v", 1));
-        levelMap.put(new IntTag("x", (Integer) srcLevel.get("xPos").getValue()));
-        levelMap.put(new IntTag("z", (Integer) srcLevel.get("zPos").getValue()));
-        levelMap.put(srcLevel.getOrDefault("InhabitedTime", new IntTag("InhabitedTime", 0)));
-        levelMap.put(srcLevel.get("Biomes"));
+        levelMap.put(new IntTag("x", chunk.x));
+        levelMap.put(new IntTag("z", chunk.z));
+        levelMap.put(new IntTag("InhabitedTime", 0));
+        for (Tag<?> tag : chunk.columnTags) {
+            levelMap.put(tag);
+        }
         levelMap.put(new ByteArrayTag("OpacityIndex", makeDummyOpacityIndex(srcHeightMap)));
 
         CompoundMap rootMap = new CompoundMap();
         rootMap.put(new CompoundTag("Level", levelMap));
-        if (tag.getValue().containsKey("DataVersion")) {
-            rootMap.put(tag.getValue().get("DataVersion"));
+        if (chunk.dataVersion != null) {
+            rootMap.put(chunk.dataVersion);
         }
 
-        return new CompoundTag("", rootMap);
+        return Utils.writeCompressed(new CompoundTag("", rootMap), false, compressionLevel);
     }
 
     private int[] fixHeightmap(int[] heights) {
@@ -151,46 +273,8 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
         return buf.toByteArray();
     }
 
-    private Map<Integer, ByteBuffer> extractCubeData(ByteBuffer vanillaData, int offset) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(vanillaData.array());
-        Map<Integer, CompoundTag> tags = extractCubeData(Utils.readCompressed(in), offset);
-        Map<Integer, ByteBuffer> bytes = new HashMap<>();
-        for (Integer y : tags.keySet()) {
-            bytes.put(y, Utils.writeCompressed(tags.get(y), false));
-        }
-        return bytes;
-    }
-
-    @SuppressWarnings("unchecked")
-    private Map<Integer, CompoundTag> extractCubeData(CompoundTag srcRootTag, int offset) {
+    private Map<Integer, ByteBuffer> extractCubeData(AnvilChunk chunk, int offset) throws IOException {
         /*
-         *
-         * Vanilla Chunk NBT structure:
-         *
-         * ROOT
-         * |- DataVersion
-         * |- Level
-         *  |- v
-         *  |- xPos
-         *  |- zPos
-         *  |- LastUpdate
-         *  |- TerrainPopulated
-         *  |- LightPopulated
-         *  |- InhabitedTime
-         *  |- Biomes
-         *  |- HeightMap
-         *  |- Sections
-         *  ||* Section list:
-         *  | |- Y
-         *  | |- Blocks
-         *  | |- Data
-         *  | |- Add
-         *  | |- BlockLight
-         *  | |- SkyLight
-         *  |- Entities
-         *  |- TileEntities
-         *  |- TileTicks
-         *
          * CubicChunks Cube NBT structure:
          *
          * ROOT
@@ -217,57 +301,80 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
          *  |- LightingInfo
          *   |- LastHeightMap
          */
-        CompoundMap srcRoot = srcRootTag.getValue();
-        Map<Integer, CompoundTag> tags = new HashMap<>();
-        CompoundMap srcLevel = ((CompoundTag) srcRoot.get("Level")).getValue();
-        int x = (Integer) srcLevel.get("xPos").getValue();
-        int z = (Integer) srcLevel.get("zPos").getValue();
-        //noinspection unchecked
-        for (CompoundTag srcSection : ((ListTag<CompoundTag>) srcLevel.get("Sections")).getValue()) {
-            int y = ((ByteTag) srcSection.getValue().get("Y")).getValue();
-
-            CompoundMap root = new CompoundMap();
-            {
-                if (srcRoot.containsKey("DataVersion")) {
-                    root.put(srcRoot.get("DataVersion"));
-                }
-                CompoundMap level = new CompoundMap();
+        Map<Integer, ByteBuffer> bytes = new HashMap<>();
+        Map<Integer, List<CompoundTag>> entities = bucketEntities(chunk.entities, offset);
+        Map<Integer, List<CompoundTag>> tileEntities = bucketByBlockY(chunk.tileEntities, offset);
+        Map<Integer, List<CompoundTag>> tileTicks = chunk.tileTicks == null ? null : bucketByBlockY(chunk.tileTicks, offset);
+        for (Section section : chunk.sections) {
+            int y = section.y;
+
+            bytes.put(y + offset, Compression.compress(Compression.FORMAT_GZIP, compressionLevel, false, compressed -> {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(compressed));
+                NBTOutputStream nbtOut = new NBTOutputStream(out, false);
 
+                NBTStreams.writeTagHeader(out, TAG_COMPOUND, "");
                 {
-                    level.put(new ByteTag("v", (byte) 1));
-                    level.put(new IntTag("x", x));
-                    level.put(new IntTag("y", y + offset));
-                    level.put(new IntTag("z", z));
-
-                    ByteTag populated = (ByteTag) srcLevel.get("TerrainPopulated");
-                    level.put(new ByteTag("populated", populated == null ? 0 : populated.getValue()));
-                    level.put(new ByteTag("fullyPopulated", populated == null ? 0 : populated.getValue())); // TODO: handle this properly
-                    level.put(new ByteTag("isSurfaceTracked", (byte) 0)); // so that cubic chunks can re-make surface tracking data on it's own
-
-                    ByteTag lightPopulated = (ByteTag) srcLevel.get("LightPopulated");
-                    level.put(new ByteTag("initLightDone", lightPopulated == null ? 0 : lightPopulated.getValue()));
-
-                    // the vanilla section has additional Y tag, it will be ignored by cubic chunks
-                    level.put(new ListTag<>("Sections", CompoundTag.class, singletonList(fixSection(srcSection))));
-
-                    level.put(filterEntities((ListTag<CompoundTag>) srcLevel.get("Entities"), y, offset));
-                    level.put(filterTileEntities((ListTag<?>) srcLevel.get("TileEntities"), y, offset));
-                    if (srcLevel.containsKey("TileTicks")) {
-                        level.put(filterTileTicks((ListTag<CompoundTag>) srcLevel.get("TileTicks"), y, offset));
+                    if (chunk.dataVersion != null) {
+                        nbtOut.writeTag(chunk.dataVersion);
                     }
-                    level.put(makeLightingInfo(srcLevel));
+                    NBTStreams.writeTagHeader(out, TAG_COMPOUND, "Level");
+                    {
+                        writeByte(out, "v", (byte) 1);
+                        writeInt(out, "x", chunk.x);
+                        writeInt(out, "y", y + offset);
+                        writeInt(out, "z", chunk.z);
+
+                        writeByte(out, "populated", chunk.populated);
+                        writeByte(out, "fullyPopulated", chunk.populated); // TODO: handle this properly
+                        writeByte(out, "isSurfaceTracked", (byte) 0); // so that cubic chunks can re-make surface tracking data on it's own
+                        writeByte(out, "initLightDone", chunk.lightPopulated);
+
+                        NBTStreams.writeTagHeader(out, TAG_LIST, "Sections");
+                        out.writeByte(TAG_COMPOUND);
+                        out.writeInt(1);
+                        out.write(section.data);
+
+                        nbtOut.writeTag(new ListTag<>(chunk.entities.getName(), CompoundTag.class, entities.getOrDefault(y, emptyList())));
+                        nbtOut.writeTag(bucketTag(chunk.tileEntities, tileEntities, y));
+                        if (tileTicks != null) {
+                            nbtOut.writeTag(bucketTag(chunk.tileTicks, tileTicks, y));
+                        }
+
+                        NBTStreams.writeTagHeader(out, TAG_COMPOUND, "LightingInfo");
+                        NBTStreams.writeTagHeader(out, TAG_INT_ARRAY, "LastHeightMap");
+                        NBTStreams.writeIntArray(out, chunk.heightMap);
+                        out.writeByte(TAG_END);
+                    }
+                    out.writeByte(TAG_END);
                 }
-                root.put(new CompoundTag("Level", level));
-            }
-            tags.put(y + offset, new CompoundTag("", root));
+                out.writeByte(TAG_END);
+                out.flush();
+            }));
         }
         // make sure the 0-15 range is there because it's using vanilla generator which expects it to be the case
         for (int y = 0; y < 16; y++) {
-            if (!tags.containsKey(y)) {
-                tags.put(y, emptyCube(x, y, z));
+            if (!bytes.containsKey(y)) {
+                bytes.put(y, Utils.writeCompressed(emptyCube(chunk.x, y, chunk.z), false, compressionLevel));
             }
         }
-        return tags;
+        // every cube the chunk's sections can end up in is written, so that when an incremental conversion writes a
+        // chunk that lost a section, the cube converted from it before is replaced as well
+        for (int y = offset; y < offset + 16; y++) {
+            if (!bytes.containsKey(y)) {
+                bytes.put(y, Utils.writeCompressed(emptyCube(chunk.x, y, chunk.z), false, compressionLevel));
+            }
+        }
+        return bytes;
+    }
+
+    private static void writeByte(DataOutputStream out, String name, byte value) throws IOException {
+        NBTStreams.writeTagHeader(out, TAG_BYTE, name);
+        out.writeByte(value);
+    }
+
+    private static void writeInt(DataOutputStream out, String name, int value) throws IOException {
+        NBTStreams.writeTagHeader(out, TAG_INT, name);
+        out.writeInt(value);
     }
 
     private CompoundTag emptyCube(int x, int y, int z) {
@@ -306,83 +413,93 @@ public class Anvil2CCDataConverter implements ChunkDataConverter<AnvilChunkData,
         return new CompoundTag("LightingInfo", lightingInfoMap);
     }
 
-
-    private CompoundTag fixSection(CompoundTag srcSection) {
-        ByteArrayTag data = (ByteArrayTag) srcSection.getValue().get("Blocks");
-        byte[] ids = data.getValue();
+    private byte[] fixBlocks(byte[] ids) {
         // TODO: handle it the forge way
         for (int i = 0; i < ids.length; i++) {
             if (ids[i] == 7) { // bedrock
                 ids[i] = 1; // stone
             }
         }
-        return srcSection;
-    }
-
-    private CompoundTag makeLightingInfo(CompoundMap srcLevel) {
-        IntArrayTag heightmap = new IntArrayTag("LastHeightMap", (int[]) srcLevel.get("HeightMap").getValue());
-        CompoundMap lightingInfoMap = new CompoundMap();
-        lightingInfoMap.put(heightmap);
-        return new CompoundTag("LightingInfo", lightingInfoMap);
+        return ids;
     }
 
+    /**
+     * Splits the entities into lists by cube Y in a single pass, instead of scanning all of them for every cube.
+     */
     @SuppressWarnings("unchecked")
-    private ListTag<CompoundTag> filterEntities(ListTag<CompoundTag> entities, int cubeY, int offset) {
-        double yMin = cubeY * 16;
-        double yMax = yMin + 16;
-        List<CompoundTag> cubeEntities = new ArrayList<>();
+    private Map<Integer, List<CompoundTag>> bucketEntities(ListTag<CompoundTag> entities, int offset) {
+        Map<Integer, List<CompoundTag>> buckets = new HashMap<>();
         for (CompoundTag entityTag : entities.getValue()) {
             List<DoubleTag> pos = ((ListTag<DoubleTag>) entityTag.getValue().get("Pos")).getValue();
             double y = pos.get(1).getValue();
-            if (y >= yMin && y < yMax) {
-                if (offset != 0) {
-                    entityTag.getValue().put(new ListTag<>(
-                            "Pos",
-                            DoubleTag.class,
-                            Arrays.asList(pos.get(0), new DoubleTag("", y + (offset << 4)), pos.get(2))
-                    ));
-                }
-                cubeEntities.add(entityTag);
+            if (Double.isNaN(y)) {
+                continue;
+            }
+            int cubeY = (int) Math.floor(y / 16);
+            if (offset != 0) {
+                entityTag.getValue().put(new ListTag<>(
+                        "Pos",
+                        DoubleTag.class,
+                        Arrays.asList(pos.get(0), new DoubleTag("", y + (offset << 4)), pos.get(2))
+                ));
             }
+            buckets.computeIfAbsent(cubeY, k -> new ArrayList<>()).add(entityTag);
         }
-        return new ListTag<>(entities.getName(), CompoundTag.class, cubeEntities);
+        return buckets;
     }
 
+    /**
+     * Splits tile entities or tile ticks into lists by cube Y in a single pass, using their block y coordinate.
+     */
     @SuppressWarnings("unchecked")
-    private ListTag<?> filterTileEntities(ListTag<?> tileEntities, int cubeY, int offset) {
+    private Map<Integer, List<CompoundTag>> bucketByBlockY(ListTag<?> tags, int offset) {
+        Map<Integer, List<CompoundTag>> buckets = new HashMap<>();
         // empty list is list of EndTags
-        if (tileEntities.getValue().isEmpty()) {
-            return tileEntities;
+        if (tags.getValue().isEmpty()) {
+            return buckets;
         }
-        int yMin = cubeY * 16;
-        int yMax = yMin + 16;
-        List<CompoundTag> cubeTEs = new ArrayList<>();
-        for (CompoundTag teTag : ((ListTag<CompoundTag>) tileEntities).getValue()) {
-            int y = ((IntTag) teTag.getValue().get("y")).getValue();
-            if (y >= yMin && y < yMax) {
-                if (offset != 0) {
-                    teTag.getValue().put(new IntTag("y", y + (offset << 4)));
-                }
-                cubeTEs.add(teTag);
+        for (CompoundTag tag : ((ListTag<CompoundTag>) tags).getValue()) {
+            int y = ((IntTag) tag.getValue().get("y")).getValue();
+            if (offset != 0) {
+                tag.getValue().put(new IntTag("y", y + (offset << 4)));
             }
+            buckets.computeIfAbsent(y >> 4, k -> new ArrayList<>()).add(tag);
         }
-        return new ListTag<>(tileEntities.getName(), CompoundTag.class, cubeTEs);
+        return buckets;
     }
 
-    private ListTag<CompoundTag> filterTileTicks(ListTag<CompoundTag> tileTicks, int cubeY, int offset) {
-        int yMin = cubeY * 16;
-        int yMax = yMin + 16;
-        List<CompoundTag> cubeTicks = new ArrayList<>();
-        for (CompoundTag tileTick : tileTicks.getValue()) {
-            int y = ((IntTag) tileTick.getValue().get("y")).getValue();
-            if (y >= yMin && y < yMax) {
-                if (offset != 0) {
-                    tileTick.getValue().put(new IntTag("y", y + (offset << 4)));
-                }
-                cubeTicks.add(tileTick);
-            }
+    private static ListTag<?> bucketTag(ListTag<?> original, Map<Integer, List<CompoundTag>> buckets, int cubeY) {
+        // keep an empty list as it was in the source, with the same element type
+        if (original.getValue().isEmpty()) {
+            return original;
         }
-        return new ListTag<>(tileTicks.getName(), CompoundTag.class, cubeTicks);
+        return new ListTag<>(original.getName(), CompoundTag.class, buckets.getOrDefault(cubeY, emptyList()));
     }
 
+    /**
+     * The parts of an anvil chunk needed to build the column and cubes.
+     */
+    private static class AnvilChunk {
+        Tag<?> dataVersion;
+        int x, z;
+        byte populated, lightPopulated;
+        int[] heightMap;
+        // tags copied into the column as they are
+        List<Tag<?>> columnTags = new ArrayList<>();
+        List<Section> sections = new ArrayList<>();
+        ListTag<CompoundTag> entities = new ListTag<>("Entities", CompoundTag.class, emptyList());
+        ListTag<?> tileEntities = new ListTag<>("TileEntities", CompoundTag.class, emptyList());
+        ListTag<CompoundTag> tileTicks;
+    }
+
+    private static class Section {
+        final int y;
+        // serialized compound payload, including the terminating end tag
+        final byte[] data;
+
+        Section(int y, byte[] data) {
+            this.y = y;
+            this.data = data;
+        }
+    }
 }
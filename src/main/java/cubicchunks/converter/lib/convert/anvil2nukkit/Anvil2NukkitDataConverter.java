@@ -4,12 +4,13 @@ import cn.nukkit.block.BlockID;
 import com.flowpowered.nbt.ByteArrayTag;
 import com.flowpowered.nbt.CompoundTag;
 import com.flowpowered.nbt.ListTag;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
+import cubicchunks.converter.lib.util.Compression;
 import cubicchunks.converter.lib.util.NibbleArray;
 import cubicchunks.converter.lib.util.Utils;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Set;
@@ -21,6 +22,12 @@ import java.util.stream.IntStream;
 public class Anvil2NukkitDataConverter implements ChunkDataConverter<AnvilChunkData, AnvilChunkData> {
     private static final int[] FIXED_LOOKUP = IntStream.range(0, 1 << (8 + 4)).map(Anvil2NukkitDataConverter::fixId).toArray();
 
+    private final Compression.Level compressionLevel;
+
+    public Anvil2NukkitDataConverter(ConverterConfig config) {
+        this.compressionLevel = Compression.Level.fromConfig(config);
+    }
+
     private static int id(int block, int meta) {
         return (block << 4) | meta;
     }
@@ -185,11 +192,11 @@ public class Anvil2NukkitDataConverter implements ChunkDataConverter<AnvilChunkD
     @SuppressWarnings("unchecked")
     public Set<AnvilChunkData> convert(AnvilChunkData input) {
         try {
-            CompoundTag tag = Utils.readCompressed(new ByteArrayInputStream(input.getData().array()));
+            CompoundTag tag = Utils.readCompressed(Utils.asInputStream(input.getData()));
             boolean dirty = ((ListTag<CompoundTag>) ((CompoundTag) tag.getValue().get("Level")).getValue().get("Sections")).getValue().stream()
                                     .mapToInt(Anvil2NukkitDataConverter::fixSection)
                                     .max().orElse(0) != 0;
-            return Collections.singleton(new AnvilChunkData(input.getDimension(), input.getPosition(), dirty ? Utils.writeCompressedZlib(tag, true) : input.getData(), input.offsetSections));
+            return Collections.singleton(new AnvilChunkData(input.getDimension(), input.getPosition(), dirty ? Utils.writeCompressedZlib(tag, true, compressionLevel) : input.getData(), input.offsetSections));
         } catch (IOException e) {
             throw new AssertionError(e);
         }
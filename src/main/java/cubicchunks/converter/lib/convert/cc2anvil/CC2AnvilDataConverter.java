@@ -35,6 +35,7 @@ import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.data.MultilayerAnvilChunkData;
+import cubicchunks.converter.lib.util.Compression;
 import cubicchunks.regionlib.impl.MinecraftChunkLocation;
 
 import java.io.ByteArrayInputStream;
@@ -49,6 +50,12 @@ import static cubicchunks.converter.lib.util.Utils.*;
 
 public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColumnData, MultilayerAnvilChunkData> {
 
+    private final Compression.Level compressionLevel;
+
+    public CC2AnvilDataConverter(ConverterConfig config) {
+        this.compressionLevel = Compression.Level.fromConfig(config);
+    }
+
     @Override public Set<MultilayerAnvilChunkData> convert(CubicChunksColumnData input) {
         Map<Integer, AnvilChunkData> data = new HashMap<>();
         MinecraftChunkLocation chunkPos = new MinecraftChunkLocation(input.getPosition().getEntryX(), input.getPosition().getEntryZ(), "mca");
@@ -71,15 +78,15 @@ public class CC2AnvilDataConverter implements ChunkDataConverter<CubicChunksColu
             if (dropChunk(cubes, layerIdx)) {
                 return null;
             }
-            CompoundTag columnTag = columnData == null ? null : readCompressedCC(new ByteArrayInputStream(columnData.array()));
+            CompoundTag columnTag = columnData == null ? null : readCompressedCC(asInputStream(columnData));
             CompoundTag[] cubeTags = new CompoundTag[cubes.length];
             for (int i = 0; i < cubes.length; i++) {
                 if (cubes[i] != null) {
-                    cubeTags[i] = readCompressedCC(new ByteArrayInputStream(cubes[i].array()));
+                    cubeTags[i] = readCompressedCC(asInputStream(cubes[i]));
                 }
             }
             CompoundTag tag = convertWorldLayer(columnTag, cubeTags, layerIdx);
-            return writeCompressedZlib(tag, true);
+            return writeCompressedZlib(tag, true, compressionLevel);
         } catch (ZipException e) {
             e.printStackTrace();
             return null;
@@ -32,6 +32,7 @@ import cubicchunks.converter.lib.conf.command.EditTaskContext;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.util.BoundingBox;
+import cubicchunks.converter.lib.util.Compression;
 import cubicchunks.converter.lib.util.EditTask;
 import cubicchunks.converter.lib.util.Vector2i;
 import cubicchunks.converter.lib.util.Vector3i;
@@ -47,18 +48,21 @@ import java.util.*;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
+import static cubicchunks.converter.lib.util.Utils.asInputStream;
 import static cubicchunks.converter.lib.util.Utils.readCompressedCC;
 import static cubicchunks.converter.lib.util.Utils.writeCompressed;
 
 public class CC2CCRelocatingDataConverter implements ChunkDataConverter<CubicChunksColumnData, CubicChunksColumnData> {
 
     private final List<EditTask> relocateTasks;
+    private final Compression.Level compressionLevel;
 
     private static final Logger LOGGER = Logger.getLogger(CC2CCRelocatingDataConverter.class.getSimpleName());
 
     @SuppressWarnings("unchecked")
     public CC2CCRelocatingDataConverter(ConverterConfig config) {
         relocateTasks = (List<EditTask>) config.getValue("relocations");
+        compressionLevel = Compression.Level.fromConfig(config);
     }
 
     public static ConverterConfig loadConfig(Consumer<Throwable> throwableConsumer) {
@@ -125,7 +129,7 @@ public class CC2CCRelocatingDataConverter implements ChunkDataConverter<CubicChu
         cubes.forEach((key, value) ->
                 {
                     try {
-                        oldCubeTags.put(key, readCompressedCC(new ByteArrayInputStream(value.array())));
+                        oldCubeTags.put(key, readCompressedCC(asInputStream(value)));
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -162,7 +166,7 @@ public class CC2CCRelocatingDataConverter implements ChunkDataConverter<CubicChu
     Map<Integer, ByteBuffer> compressCubeData(Map<Integer, CompoundTag> cubeData) throws IOException {
         Map<Integer, ByteBuffer> compressedData = new HashMap<>();
         for(Map.Entry<Integer, CompoundTag> entry : cubeData.entrySet()) {
-            compressedData.put(entry.getKey(), writeCompressed(entry.getValue(), false));
+            compressedData.put(entry.getKey(), writeCompressed(entry.getValue(), false, compressionLevel));
         }
         return compressedData;
     }
@@ -23,15 +23,23 @@
  */
 package cubicchunks.converter.lib.convert.io;
 
-import static cubicchunks.converter.lib.util.Utils.interruptibleConsumer;
 import static cubicchunks.regionlib.impl.save.MinecraftSaveSection.MinecraftRegionType.MCA;
 import static java.nio.file.Files.exists;
 
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.cursors.IntCursor;
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.ConversionJournal;
+import cubicchunks.converter.lib.convert.ConversionManifest;
+import cubicchunks.converter.lib.convert.IncrementalChunkReader;
+import cubicchunks.converter.lib.convert.ResumableChunkReader;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.util.MemoryReadRegion;
 import cubicchunks.converter.lib.util.RWLockingCachedRegionProvider;
+import cubicchunks.converter.lib.util.RegionHeaders;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.MinecraftChunkLocation;
 import cubicchunks.regionlib.impl.header.TimestampHeaderEntryProvider;
 import cubicchunks.regionlib.impl.save.MinecraftSaveSection;
@@ -43,20 +51,30 @@ import java.nio.charset.StandardCharsets;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
-public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, MinecraftSaveSection> {
+public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, MinecraftSaveSection> implements ResumableChunkReader<AnvilChunkData>,
+        IncrementalChunkReader<AnvilChunkData> {
 
+    private static final MinecraftChunkLocation.Provider KEY_PROVIDER = new MinecraftChunkLocation.Provider(MCA.name().toLowerCase());
+
+    private final EnumerationQueue<RegionChunks> regions = new EnumerationQueue<>();
     private final Thread loadThread;
+    private final Comparator<RegionKey> regionOrder;
     private final int offset;
+    private ConversionJournal journal;
+    private ConversionManifest manifest;
 
-    public AnvilChunkReader(Path srcDir) {
-        super(srcDir, (dim, path) -> exists(getDimensionPath(dim, path)) ? createSave(dim, path) : null);
+    public AnvilChunkReader(Path srcDir, ConverterConfig config) {
+        super(srcDir, (dim, path) -> exists(getDimensionPath(dim, path)) ? createSave(dim, path, useMappedRegions(config)) : null);
         loadThread = Thread.currentThread();
+        regionOrder = regionOrder(config);
 
         try {
             Path offsetFile = srcDir.resolve("offset.txt");
@@ -66,17 +84,26 @@ public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, Minecr
         }
     }
 
-    private static MinecraftSaveSection createSave(Dimension dim, Path path) {
+    private static MinecraftSaveSection createSave(Dimension dim, Path path, boolean mapped) {
         Path directory = getDimensionPath(dim, path);
         return new MinecraftSaveSection(new RWLockingCachedRegionProvider<>(
-                new SimpleRegionProvider<>(new MinecraftChunkLocation.Provider(MCA.name().toLowerCase()), directory, (keyProvider, regionKey) ->
-                        MemoryReadRegion.<MinecraftChunkLocation>builder()
-                                .setDirectory(directory)
-                                .setSectorSize(4096)
-                                .setKeyProvider(keyProvider)
-                                .setRegionKey(regionKey)
-                                .addHeaderEntry(new TimestampHeaderEntryProvider<>(TimeUnit.MILLISECONDS))
-                                .build(),
+                new SimpleRegionProvider<>(KEY_PROVIDER, directory, (keyProvider, regionKey) ->
+                        mapped ?
+                                // the location table is the first header entry, the timestamps are only needed for writing
+                                new MemoryReadRegion.Builder<MinecraftChunkLocation>()
+                                        .setDirectory(directory)
+                                        .setSectorSize(4096)
+                                        .setKeyProvider(keyProvider)
+                                        .setRegionKey(regionKey)
+                                        .setMapped(true)
+                                        .build() :
+                                MemoryReadRegion.<MinecraftChunkLocation>builder()
+                                        .setDirectory(directory)
+                                        .setSectorSize(4096)
+                                        .setKeyProvider(keyProvider)
+                                        .setRegionKey(regionKey)
+                                        .addHeaderEntry(new TimestampHeaderEntryProvider<>(TimeUnit.MILLISECONDS))
+                                        .build(),
                         (file, key) -> Files.exists(file)
                 )
         ));
@@ -89,21 +116,82 @@ public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, Minecr
         return worldDir.resolve("region");
     }
 
+    @Override public void setJournal(ConversionJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override public String getRegionName(AnvilChunkData chunk) {
+        return ConversionJournal.regionName(chunk.getDimension(), chunk.getPosition().getRegionKey());
+    }
+
+    private boolean isCompleted(Dimension dim, RegionKey region) {
+        return journal != null && journal.isCompleted(ConversionJournal.regionName(dim, region));
+    }
+
+    @Override public void setManifest(ConversionManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    @Override public Runnable chunkWrittenAction(AnvilChunkData chunk) {
+        int index = chunk.getPosition().getId();
+        try {
+            ConversionManifest.Region region = manifestRegion(chunk.getDimension(), chunk.getPosition().getRegionKey());
+            return () -> region.chunkWritten(index);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ConversionManifest.Region manifestRegion(Dimension dim, RegionKey region) throws IOException {
+        return manifest.region(ConversionJournal.regionName(dim, region), getDimensionPath(dim, srcDir).resolve(region.getName()));
+    }
+
     @Override public void countInputChunks(Runnable increment) throws IOException {
         try {
             doCountChunks(increment);
+            regions.finish();
         } catch (UncheckedInterruptedException ex) {
-            // return
+            regions.finish();
+        } catch (IOException | RuntimeException e) {
+            regions.fail(e);
+            throw e;
         }
     }
 
+    // reads only the location tables, so that counting doesn't have to open any region, and publishes every region to
+    // the loading thread as soon as it's been read
     private void doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
-        for (MinecraftSaveSection save : saves.values()) {
-            save.forAllKeys(interruptibleConsumer(loc -> increment.run()));
+        for (Dimension dim : saves.keySet()) {
+            Path directory = getDimensionPath(dim, srcDir);
+            List<RegionKey> dimRegions = new ArrayList<>();
+            for (RegionKey region : RegionHeaders.listRegions(directory, KEY_PROVIDER, regionOrder)) {
+                if (!isCompleted(dim, region)) {
+                    dimRegions.add(region);
+                }
+            }
+            try {
+                forEachParallel(dimRegions, region -> {
+                    try {
+                        IntArrayList ids = RegionHeaders.readEntryIds(directory.resolve(region.getName()), KEY_PROVIDER.getKeyCount(region));
+                        if (manifest != null) {
+                            ConversionManifest.Region manifestRegion = manifestRegion(dim, region);
+                            ids.removeAll(id -> !manifestRegion.isChanged(id));
+                        }
+                        for (int i = 0; i < ids.size(); i++) {
+                            increment.run();
+                        }
+                        regions.publish(new RegionChunks(dim, region, ids));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
         }
     }
 
-    @Override public void loadChunks(Consumer<? super AnvilChunkData> consumer, Predicate<Throwable> errorHandler) throws IOException {
+    @Override public void loadChunks(Consumer<? super AnvilChunkData> consumer, Predicate<Throwable> errorHandler) throws IOException, InterruptedException {
         try {
             doLoadChunks(consumer, errorHandler);
         } catch (UncheckedInterruptedException ex) {
@@ -111,24 +199,32 @@ public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, Minecr
         }
     }
 
-    private void doLoadChunks(Consumer<? super AnvilChunkData> consumer, Predicate<Throwable> errorHandler) throws IOException, UncheckedInterruptedException {
-        for (Map.Entry<Dimension, MinecraftSaveSection> entry : saves.entrySet()) {
-            if (Thread.interrupted()) {
-                return;
-            }
-            MinecraftSaveSection vanillaSave = entry.getValue();
-            Dimension d = entry.getKey();
-            vanillaSave.forAllKeys(interruptibleConsumer(mcPos -> {
+    private void doLoadChunks(Consumer<? super AnvilChunkData> consumer, Predicate<Throwable> errorHandler)
+            throws IOException, InterruptedException, UncheckedInterruptedException {
+        // chunks are loaded one region at a time, so that the journal knows when a region has been read
+        RegionChunks region;
+        while ((region = regions.take()) != null) {
+            MinecraftSaveSection vanillaSave = saves.get(region.dim);
+            boolean failed = false;
+            for (IntCursor id : region.ids) {
+                if (Thread.interrupted()) {
+                    throw new UncheckedInterruptedException();
+                }
+                MinecraftChunkLocation mcPos = KEY_PROVIDER.fromRegionAndId(region.key, id.value);
                 try {
                     Optional<ByteBuffer> load = vanillaSave.load(mcPos, true);
-                    consumer.accept(new AnvilChunkData(d, mcPos, load.orElse(null), this.offset));
+                    consumer.accept(new AnvilChunkData(region.dim, mcPos, load.orElse(null), this.offset));
                 } catch (Exception e) {
                     e.printStackTrace();
+                    failed = true;
                     if (!errorHandler.test(e)) {
                         throw new UncheckedInterruptedException();
                     }
                 }
-            }));
+            }
+            if (journal != null && !failed) {
+                journal.regionRead(ConversionJournal.regionName(region.dim, region.key));
+            }
         }
     }
 
@@ -136,4 +232,17 @@ public class AnvilChunkReader extends BaseMinecraftReader<AnvilChunkData, Minecr
         loadThread.interrupt();
     }
 
+    // the chunks of a region that are to be loaded
+    private static class RegionChunks {
+
+        private final Dimension dim;
+        private final RegionKey key;
+        private final IntArrayList ids;
+
+        private RegionChunks(Dimension dim, RegionKey key, IntArrayList ids) {
+            this.dim = dim;
+            this.key = key;
+            this.ids = ids;
+        }
+    }
 }
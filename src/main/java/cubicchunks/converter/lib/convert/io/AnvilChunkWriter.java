@@ -28,12 +28,15 @@ import static cubicchunks.converter.lib.util.Utils.propagateExceptions;
 import static cubicchunks.regionlib.impl.save.MinecraftSaveSection.MinecraftRegionType.MCA;
 
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataWriter;
+import cubicchunks.converter.lib.convert.WriteBackTracking;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
 import cubicchunks.converter.lib.convert.data.MultilayerAnvilChunkData;
 import cubicchunks.converter.lib.util.MemoryWriteRegion;
-import cubicchunks.converter.lib.util.RWLockingCachedRegionProvider;
+import cubicchunks.converter.lib.util.ShardedCachedRegionProvider;
 import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.api.region.key.IKey;
 import cubicchunks.regionlib.impl.MinecraftChunkLocation;
 import cubicchunks.regionlib.impl.header.TimestampHeaderEntryProvider;
 import cubicchunks.regionlib.impl.save.MinecraftSaveSection;
@@ -45,6 +48,7 @@ import java.io.Closeable;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.Flushable;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -53,16 +57,22 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 
-public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkData> {
+public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkData>, Flushable, WriteBackTracking {
 
     private Path dstPath;
     private Map<Integer, Map<Dimension, MinecraftSaveSection>> saves = new ConcurrentHashMap<>();
+    // shared by all region caches of all dimensions
+    private final ShardedCachedRegionProvider.Budget regionCacheBudget;
+    private final Queue<ShardedCachedRegionProvider<?>> regionCaches = new ConcurrentLinkedQueue<>();
 
-    public AnvilChunkWriter(Path dstPath) {
+    public AnvilChunkWriter(Path dstPath, ConverterConfig config) {
         this.dstPath = dstPath;
+        this.regionCacheBudget = ShardedCachedRegionProvider.Budget.fromConfig(config);
     }
 
     @Override public void accept(MultilayerAnvilChunkData data) throws IOException {
@@ -84,7 +94,7 @@ public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkDat
                     throw new RuntimeException(e);
                 }
 
-                return new MinecraftSaveSection(new RWLockingCachedRegionProvider<>(
+                return new MinecraftSaveSection(track(new ShardedCachedRegionProvider<>(
                         new SimpleRegionProvider<>(new MinecraftChunkLocation.Provider(MCA.name().toLowerCase()), regionDir, (keyProvider, regionKey) ->
                                 MemoryWriteRegion.<MinecraftChunkLocation>builder()
                                         .setDirectory(regionDir)
@@ -94,8 +104,9 @@ public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkDat
                                         .addHeaderEntry(new TimestampHeaderEntryProvider<>(TimeUnit.MILLISECONDS))
                                         .build(),
                                 (file, key) -> Files.exists(file)
-                        )
-                ));
+                        ),
+                        regionCacheBudget
+                )));
             }));
             save.save(chunk.getPosition(), chunk.getData());
         }
@@ -117,6 +128,25 @@ public class AnvilChunkWriter implements ChunkDataWriter<MultilayerAnvilChunkDat
         Utils.rm(dstPath);
     }
 
+    @Override public void flush() throws IOException {
+        for (ShardedCachedRegionProvider<?> cache : regionCaches) {
+            cache.flush();
+        }
+    }
+
+    @Override public long getWriteStamp() {
+        return regionCacheBudget.getWriteStamp();
+    }
+
+    @Override public long getOldestPendingWrite() {
+        return regionCacheBudget.getOldestPendingWrite();
+    }
+
+    private <K extends IKey<K>> ShardedCachedRegionProvider<K> track(ShardedCachedRegionProvider<K> cache) {
+        regionCaches.add(cache);
+        return cache;
+    }
+
     @Override public void close() throws Exception {
         boolean exception = false;
         for (Map<?, ? extends Closeable> saves : this.saves.values()) {
@@ -23,18 +23,59 @@
  */
 package cubicchunks.converter.lib.convert.io;
 
+import com.google.common.base.Throwables;
 import cubicchunks.converter.lib.Dimension;
 import cubicchunks.converter.lib.Dimensions;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataReader;
+import cubicchunks.converter.lib.util.RegionHeaders;
+import cubicchunks.converter.lib.util.SpatialOrder;
+import cubicchunks.converter.lib.util.UncheckedInterruptedException;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 public abstract class BaseMinecraftReader<DATA, SAVE extends Closeable> implements ChunkDataReader<DATA> {
+    /**
+     * Config option selecting whether region files are memory mapped or read into heap buffers (the default). A mapping
+     * is only released once the region and all chunks read from it have been garbage collected, so until then mapped
+     * regions take address space and file handles the heap budget doesn't account for.
+     */
+    public static final String MAPPED_REGIONS = "mappedRegions";
+    /**
+     * Config option with the heap budget in bytes for the chunk index built while counting, the rest of it is written
+     * to a temporary file until loading gets to it. Defaults to an eighth of the maximum heap size.
+     */
+    public static final String INDEX_HEAP_BUDGET = "indexHeapBudget";
+    /**
+     * Config option selecting whether regions are read in spatial (Z-order) order instead of by name, so that nearby
+     * output regions are filled, and written out, close together in time and on disk. Off by default.
+     */
+    public static final String SPATIAL_ORDER = "spatialOrder";
+
+    protected static final int LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ForkJoinWorkerThreadFactory LOAD_THREAD_FACTORY = pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Chunk loading thread " + thread.getPoolIndex());
+        return thread;
+    };
+
     protected final Path srcDir;
     protected final Map<Dimension, SAVE> saves;
 
@@ -49,6 +90,92 @@ public abstract class BaseMinecraftReader<DATA, SAVE extends Closeable> implemen
         }
     }
 
+    protected static boolean useMappedRegions(ConverterConfig config) {
+        return config.hasValue(MAPPED_REGIONS) && config.getBool(MAPPED_REGIONS);
+    }
+
+    protected static Comparator<RegionKey> regionOrder(ConverterConfig config) {
+        return config.hasValue(SPATIAL_ORDER) && config.getBool(SPATIAL_ORDER) ? SpatialOrder.REGIONS : RegionHeaders.BY_NAME;
+    }
+
+    protected static long indexHeapBudget(ConverterConfig config) {
+        return config.hasValue(INDEX_HEAP_BUDGET) ? config.getLong(INDEX_HEAP_BUDGET) : Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * Returns the dimension with the given name, used when reading back spilled chunk indexes.
+     */
+    protected Dimension getDimension(String name) throws IOException {
+        for (Dimension dim : saves.keySet()) {
+            if (dim.getName().equals(name)) {
+                return dim;
+            }
+        }
+        throw new IOException("Unknown dimension " + name);
+    }
+
+    /**
+     * Runs the action for all entries in parallel on a dedicated pool instead of the common fork join pool, so that
+     * loading threads blocked by a full pipeline can't starve anything else running on the common pool.
+     * Interrupting the calling thread interrupts all loading threads.
+     */
+    protected static <T> void forEachParallel(Collection<T> entries, Consumer<? super T> action) {
+        ForkJoinPool pool = new ForkJoinPool(LOAD_THREADS, LOAD_THREAD_FACTORY, null, false);
+        try {
+            pool.submit(() -> entries.parallelStream().forEach(action)).get();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            throw new UncheckedInterruptedException();
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the action for every batch taken from the queue, in parallel on the loading threads, until all batches have
+     * been taken. Interrupting the calling thread interrupts all loading threads.
+     */
+    protected static <T> void forEachParallel(EnumerationQueue<T> batches, Consumer<? super T> action) {
+        ForkJoinPool pool = new ForkJoinPool(LOAD_THREADS, LOAD_THREAD_FACTORY, null, false);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < LOAD_THREADS; i++) {
+                workers.add(pool.submit(() -> {
+                    try {
+                        T batch;
+                        while ((batch = batches.take()) != null) {
+                            action.accept(batch);
+                        }
+                    } catch (InterruptedException e) {
+                        batches.abort(e);
+                        throw new UncheckedInterruptedException();
+                    } catch (IOException e) {
+                        batches.abort(e);
+                        throw new UncheckedIOException(e);
+                    } catch (Throwable t) {
+                        // the other workers stop instead of loading everything that's left
+                        batches.abort(t);
+                        throw t;
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            throw new UncheckedInterruptedException();
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // the other workers may be waiting for batches
+            pool.shutdownNow();
+        }
+    }
+
     @Override public void close() throws Exception {
         boolean exception = false;
         for (SAVE save : saves.values()) {
@@ -25,19 +25,20 @@ package cubicchunks.converter.lib.convert.io;
 
 import static cubicchunks.converter.lib.util.Utils.interruptibleConsumer;
 
-import com.carrotsearch.hppc.IntArrayList;
-import com.carrotsearch.hppc.cursors.IntCursor;
 import cubicchunks.converter.lib.Dimension;
 import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.ConversionJournal;
+import cubicchunks.converter.lib.convert.ResumableChunkReader;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.util.BoundingBox;
 import cubicchunks.converter.lib.util.EditTask;
 import cubicchunks.converter.lib.util.MemoryReadRegion;
+import cubicchunks.converter.lib.util.PackedColumns;
 import cubicchunks.converter.lib.util.RWLockingCachedRegionProvider;
+import cubicchunks.converter.lib.util.RegionHeaders;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.converter.lib.util.Vector3i;
-import cubicchunks.regionlib.api.region.IRegionProvider;
 import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
@@ -46,40 +47,52 @@ import cubicchunks.regionlib.impl.save.SaveSection2D;
 import cubicchunks.regionlib.impl.save.SaveSection3D;
 import cubicchunks.regionlib.lib.ExtRegion;
 import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
-import cubicchunks.regionlib.util.CheckedConsumer;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.WeakHashMap;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
-public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData, SaveCubeColumns> {
+public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData, SaveCubeColumns> implements ResumableChunkReader<CubicChunksColumnData> {
 
-    private final CompletableFuture<ChunkList> chunkList = new CompletableFuture<>();
+    private final EnumerationQueue<Tile> tiles;
     private final Thread loadThread;
-    private static final Map<SaveCubeColumns, List<IRegionProvider<EntryLocation2D>>> providers2d = new WeakHashMap<>();
-    private static final Map<SaveCubeColumns, List<IRegionProvider<EntryLocation3D>>> providers3d = new WeakHashMap<>();
+    private final Comparator<RegionKey> regionOrder;
+    private static final Map<SaveCubeColumns, List<RWLockingCachedRegionProvider<EntryLocation2D>>> providers2d = new WeakHashMap<>();
+    private static final Map<SaveCubeColumns, List<RWLockingCachedRegionProvider<EntryLocation3D>>> providers3d = new WeakHashMap<>();
+
+    // each loading thread works on one region2d tile and the region3d files under it, which are released when it's done,
+    // so the caches only hold the regions of one tile per thread. The region3d caches are resized once the tiles of
+    // their dimension have been counted
+    private static final int REGION_CACHE_SIZE = LOAD_THREADS;
+    private static final EntryLocation3D.Provider KEY_PROVIDER_3D = new EntryLocation3D.Provider();
 
     private final List<BoundingBox> regionBoundingBoxes;
+    private ConversionJournal journal;
 
     public CubicChunkReader(Path srcDir, ConverterConfig config) {
-        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path)) : null);
+        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path), useMappedRegions(config)) : null);
         loadThread = Thread.currentThread();
+        regionOrder = regionOrder(config);
+        tiles = new EnumerationQueue<>(new TileCodec(), indexHeapBudget(config));
         if(config.hasValue("relocations")) {
             this.regionBoundingBoxes = new ArrayList<>();
             @SuppressWarnings("unchecked") List<EditTask> tasks = (List<EditTask>) config.getValue("relocations");
@@ -100,159 +113,215 @@ public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData,
         return worldDir;
     }
 
+    @Override public void setJournal(ConversionJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override public String getRegionName(CubicChunksColumnData chunk) {
+        return ConversionJournal.regionName(chunk.getDimension(), chunk.getPosition().getRegionKey());
+    }
+
+    private boolean isCompleted(Dimension dim, RegionKey region2d) {
+        return journal != null && journal.isCompleted(ConversionJournal.regionName(dim, region2d));
+    }
+
     @Override public void countInputChunks(Runnable increment) throws IOException {
         try {
-            Map<Dimension, List<Map.Entry<EntryLocation2D, IntArrayList>>> dimensions = doCountChunks(increment);
-            chunkList.complete(new ChunkList(dimensions));
+            doCountChunks(increment);
+            tiles.finish();
         } catch (UncheckedInterruptedException ex) {
-            chunkList.complete(null);
+            tiles.finish();
+        } catch (IOException | RuntimeException e) {
+            tiles.fail(e);
+            throw e;
         }
     }
 
-    private Map<Dimension, List<Map.Entry<EntryLocation2D, IntArrayList>>> doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
-        Map<Dimension, List<Map.Entry<EntryLocation2D, IntArrayList>>> dimensions = new HashMap<>();
+    // reads only the location tables of region3d files, in parallel, and publishes the columns of each region2d tile
+    // as soon as all region3d files under it have been read
+    private void doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
         for (Map.Entry<Dimension, SaveCubeColumns> entry : saves.entrySet()) {
             SaveCubeColumns save = entry.getValue();
             Dimension dim = entry.getKey();
-            List<Map.Entry<EntryLocation2D, IntArrayList>> chunks = dimensions.computeIfAbsent(dim, p -> new ArrayList<>());
-            Map<EntryLocation2D, IntArrayList> chunksMap = new ConcurrentHashMap<>();
-
-            List<IRegionProvider<EntryLocation3D>> regionProviders = providers3d.get(save);
-
-            CheckedConsumer<EntryLocation3D, IOException> cons = interruptibleConsumer(loc -> {
-                EntryLocation2D loc2d = new EntryLocation2D(loc.getEntryX(), loc.getEntryZ());
-                chunksMap.computeIfAbsent(loc2d, l -> {
-                    increment.run();
-                    IntArrayList arr = new IntArrayList();
-                    chunks.add(new AbstractMap.SimpleEntry<>(loc2d, arr));
-                    return arr;
-                }).add(loc.getEntryY());
-            });
-
-            for (int i = 0; i < regionProviders.size(); i++) {
-                IRegionProvider<EntryLocation3D> p = regionProviders.get(i);
-                if (i == 0) {
-
-                    p.forAllRegions((key, reg) -> {
-                        Vector3i regionPos = toRegionPos(key);
-                        boolean filtered = true;
-                        try {
-                            if(regionBoundingBoxes != null) {
-                                for (BoundingBox regionBox: regionBoundingBoxes) {
-                                    if (regionBox.intersects(regionPos.getX(), regionPos.getY(), regionPos.getZ())) {
-                                        filtered = false;
-                                    }
-                                }
-                            } else {
-                                filtered = false;
-                            }
-                            if(!filtered) {
-                                reg.forEachKey(cons);
-                                reg.close();
+            Path part3d = getDimensionPath(dim, srcDir).resolve("region3d");
+
+            // entries too big for a region3d are in ext regions, there are few enough of them to list them up front.
+            // They are kept as a bitmap of entry ids per region3d, so that merging them with the region3d files, which
+            // may also contain them, is a single BitSet.or per region instead of a lookup per key
+            Map<RegionKey, BitSet> extEntries = new HashMap<>();
+            List<RWLockingCachedRegionProvider<EntryLocation3D>> regionProviders = providers3d.get(save);
+            for (int i = 1; i < regionProviders.size(); i++) {
+                regionProviders.get(i).forAllRegions((regionKey, reg) -> {
+                    if (isIncluded(regionKey) && !isCompleted(dim, getRegion2d(regionKey))) {
+                        BitSet present = extEntries.computeIfAbsent(regionKey, k -> new BitSet(KEY_PROVIDER_3D.getKeyCount(k)));
+                        reg.forEachKey(interruptibleConsumer(key -> present.set(key.getId())));
+                    }
+                    reg.close();
+                });
+            }
+
+            // columns are journaled by region2d, a region3d is always inside a single region2d
+            Set<RegionKey> regionFiles = new HashSet<>();
+            Map<RegionKey, Set<RegionKey>> regionsByTile = new TreeMap<>(regionOrder);
+            for (RegionKey region : RegionHeaders.listRegions(part3d, KEY_PROVIDER_3D, regionOrder)) {
+                if (isIncluded(region) && !isCompleted(dim, getRegion2d(region))) {
+                    regionFiles.add(region);
+                    regionsByTile.computeIfAbsent(getRegion2d(region), k -> new LinkedHashSet<>()).add(region);
+                }
+            }
+            for (RegionKey region : extEntries.keySet()) {
+                regionsByTile.computeIfAbsent(getRegion2d(region), k -> new LinkedHashSet<>()).add(region);
+            }
+
+            // none of the tiles have been published yet, so nothing is being loaded from these caches
+            int maxRegionsPerTile = 1;
+            for (Set<RegionKey> tileRegions : regionsByTile.values()) {
+                maxRegionsPerTile = Math.max(maxRegionsPerTile, tileRegions.size());
+            }
+            for (RWLockingCachedRegionProvider<EntryLocation3D> provider : regionProviders) {
+                provider.setMaxCacheSize(LOAD_THREADS * maxRegionsPerTile);
+            }
+
+            try {
+                forEachParallel(regionsByTile.entrySet(), tile -> {
+                    try {
+                        PackedColumns.Builder columns = new PackedColumns.Builder();
+                        for (RegionKey region : tile.getValue()) {
+                            int keyCount = KEY_PROVIDER_3D.getKeyCount(region);
+                            BitSet present = regionFiles.contains(region)
+                                    ? RegionHeaders.readPresence(part3d.resolve(region.getName()), keyCount)
+                                    : new BitSet(keyCount);
+                            BitSet ext = extEntries.get(region);
+                            if (ext != null) {
+                                present.or(ext);
                             }
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
-                    });
-                } else {
-                    int max = i;
-                    p.forAllRegions((regionKey, reg) -> {
-                        Vector3i regionPos = toRegionPos(regionKey);
-                        boolean filtered = true;
-
-                        if(regionBoundingBoxes != null) {
-                            for (BoundingBox regionBox: regionBoundingBoxes) {
-                                if (regionBox.intersects(regionPos.getX(), regionPos.getY(), regionPos.getZ())) {
-                                    filtered = false;
-                                }
+                            for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+                                EntryLocation3D loc = KEY_PROVIDER_3D.fromRegionAndId(region, id);
+                                columns.add(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ());
                             }
-                        } else {
-                            filtered = false;
                         }
-                        if(filtered) {
-                            return;
+                        for (int i = 0; i < columns.getColumnCount(); i++) {
+                            increment.run();
                         }
+                        tiles.publish(new Tile(dim, tile.getKey(), columns.build()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
 
-                        reg.forEachKey(key -> {
-                            // cancel if any of the providers before contain this key
-                            for (int j = 0; j < max; j++) {
-                                EntryLocation3D superKey = regionProviders.get(j)
-                                        .getExistingRegion(key)
-                                        .flatMap(r -> r.hasValue(key) ? Optional.of(key) : Optional.empty())
-                                        .orElse(null);
-                                if (superKey != null) {
-                                    return;
-                                }
-                            }
-                            cons.accept(key);
-                        });
-                        reg.close();
-                    });
-                }
+    private static RegionKey getRegion2d(RegionKey region3d) {
+        EntryLocation3D loc = KEY_PROVIDER_3D.fromRegionAndId(region3d, 0);
+        return new EntryLocation2D(loc.getEntryX(), loc.getEntryZ()).getRegionKey();
+    }
+
+    private boolean isIncluded(RegionKey region3d) {
+        if (regionBoundingBoxes == null) {
+            return true;
+        }
+        Vector3i regionPos = toRegionPos(region3d);
+        for (BoundingBox regionBox : regionBoundingBoxes) {
+            if (regionBox.intersects(regionPos.getX(), regionPos.getY(), regionPos.getZ())) {
+                return true;
             }
         }
-        return dimensions;
+        return false;
     }
 
     @Override public void loadChunks(Consumer<? super CubicChunksColumnData> consumer, Predicate<Throwable> errorHandler) throws IOException, InterruptedException {
         try {
-            ChunkList list = chunkList.get();
-            if (list == null) {
-                return; // counting interrupted
-            }
-            doLoadChunks(consumer, list, errorHandler);
+            doLoadChunks(consumer, errorHandler);
         } catch (UncheckedInterruptedException ex) {
             // interrupted, do nothing
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
-    private void doLoadChunks(Consumer<? super CubicChunksColumnData> consumer, ChunkList list, Predicate<Throwable> errorHandler) {
-        for (Map.Entry<Dimension, List<Map.Entry<EntryLocation2D, IntArrayList>>> dimEntry : list.getChunks().entrySet()) {
-            if (Thread.interrupted()) {
-                return;
-            }
-            Dimension dim = dimEntry.getKey();
-            SaveCubeColumns save = saves.get(dim);
-            dimEntry.getValue().parallelStream().forEach(chunksEntry -> {
-                if (Thread.interrupted()) {
-                    return;
-                }
-                EntryLocation2D pos2d = chunksEntry.getKey();
-                IntArrayList yCoords = chunksEntry.getValue();
-                ByteBuffer column = null;
-                try {
-                    column = save.load(pos2d, true).orElse(null);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    if (!errorHandler.test(e)) {
-                        return;
-                    }
-                }
-                Map<Integer, ByteBuffer> cubes = new HashMap<>();
-                for (IntCursor yCursor : yCoords) {
+    private void doLoadChunks(Consumer<? super CubicChunksColumnData> consumer, Predicate<Throwable> errorHandler) {
+        // a region2d tile covers whole region3d columns, so a tile and the region3d files under it are only ever
+        // needed by one task and can be released as soon as that task is done
+        forEachParallel(tiles, tile -> {
+            SaveCubeColumns save = saves.get(tile.dim);
+            Set<RegionKey> regions3d = new HashSet<>();
+            try {
+                boolean complete = true;
+                for (int i = 0; i < tile.columns.size(); i++) {
                     if (Thread.interrupted()) {
-                        return;
-                    }
-                    int y = yCursor.value;
-                    ByteBuffer cube;
-                    try {
-                        cube = save.load(new EntryLocation3D(pos2d.getEntryX(), y, pos2d.getEntryZ()), true).orElseThrow(
-                                () -> new IllegalStateException("Expected cube at " + pos2d + " at y=" + y + " in dimension " + dim));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        if (!errorHandler.test(e)) {
-                            throw new UncheckedInterruptedException();
-                        }
-                        continue;
+                        throw new UncheckedInterruptedException();
                     }
-                    cubes.put(y, cube);
+                    complete &= loadColumn(consumer, tile.dim, save, tile.columns, i, regions3d, errorHandler);
+                }
+                if (journal != null && complete) {
+                    journal.regionRead(ConversionJournal.regionName(tile.dim, tile.region2d));
+                }
+            } finally {
+                releaseRegions(save, tile.region2d, regions3d, errorHandler);
+            }
+        });
+    }
+
+    /**
+     * Returns false if any part of the column failed to load.
+     */
+    private boolean loadColumn(Consumer<? super CubicChunksColumnData> consumer, Dimension dim, SaveCubeColumns save,
+            PackedColumns columns, int index, Set<RegionKey> regions3d, Predicate<Throwable> errorHandler) {
+        EntryLocation2D pos2d = new EntryLocation2D(columns.getX(index), columns.getZ(index));
+        ByteBuffer column = null;
+        boolean complete = true;
+        try {
+            column = save.load(pos2d, true).orElse(null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (!errorHandler.test(e)) {
+                return false;
+            }
+            complete = false;
+        }
+        Map<Integer, ByteBuffer> cubes = new HashMap<>();
+        for (int i = 0; i < columns.getCubeCount(index); i++) {
+            if (Thread.interrupted()) {
+                throw new UncheckedInterruptedException();
+            }
+            int y = columns.getY(index, i);
+            EntryLocation3D pos3d = new EntryLocation3D(pos2d.getEntryX(), y, pos2d.getEntryZ());
+            regions3d.add(pos3d.getRegionKey());
+            ByteBuffer cube;
+            try {
+                cube = save.load(pos3d, true).orElseThrow(
+                        () -> new IllegalStateException("Expected cube at " + pos2d + " at y=" + y + " in dimension " + dim));
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (!errorHandler.test(e)) {
+                    throw new UncheckedInterruptedException();
                 }
-                CubicChunksColumnData data = new CubicChunksColumnData(dim, pos2d, column, cubes);
-                consumer.accept(data);
+                complete = false;
+                continue;
+            }
+            cubes.put(y, cube);
+        }
+        CubicChunksColumnData data = new CubicChunksColumnData(dim, pos2d, column, cubes);
+        consumer.accept(data);
+        return complete;
+    }
 
-            });
+    private static void releaseRegions(SaveCubeColumns save, RegionKey region2d, Set<RegionKey> regions3d, Predicate<Throwable> errorHandler) {
+        try {
+            for (RWLockingCachedRegionProvider<EntryLocation2D> provider : providers2d.get(save)) {
+                provider.releaseRegion(region2d);
+            }
+            for (RWLockingCachedRegionProvider<EntryLocation3D> provider : providers3d.get(save)) {
+                for (RegionKey region3d : regions3d) {
+                    provider.releaseRegion(region3d);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            errorHandler.test(e);
         }
     }
 
@@ -260,7 +329,7 @@ public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData,
         loadThread.interrupt();
     }
 
-    private static SaveCubeColumns createSave(Path path) {
+    private static SaveCubeColumns createSave(Path path, boolean mapped) {
         try {
             Utils.createDirectories(path);
 
@@ -273,8 +342,8 @@ public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData,
             EntryLocation2D.Provider keyProv2d = new EntryLocation2D.Provider();
             EntryLocation3D.Provider keyProv3d = new EntryLocation3D.Provider();
 
-            IRegionProvider<EntryLocation2D> prov2d1, prov2d2;
-            IRegionProvider<EntryLocation3D> prov3d1, prov3d2;
+            RWLockingCachedRegionProvider<EntryLocation2D> prov2d1, prov2d2;
+            RWLockingCachedRegionProvider<EntryLocation3D> prov3d1, prov3d2;
             SaveSection2D section2d = new SaveSection2D(
                     prov2d1 = new RWLockingCachedRegionProvider<>(
                             new SimpleRegionProvider<>(keyProv2d, part2d, (keyProv, r) ->
@@ -283,15 +352,16 @@ public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData,
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv2d)
                                             .setSectorSize(512)
+                                            .setMapped(mapped)
                                             .build(),
                                     (file, key) -> Files.exists(file)
-                            )
+                            ), REGION_CACHE_SIZE
                     ),
                     prov2d2 = new RWLockingCachedRegionProvider<>(
                             new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d,
                                     (keyProvider, regionKey) -> new ExtRegion<>(part2d, Collections.emptyList(), keyProvider, regionKey),
                                     (file, key) -> Files.exists(file.resolveSibling(key.getRegionKey().getName() + ".ext"))
-                            )
+                            ), REGION_CACHE_SIZE
                     ));
             SaveSection3D section3d = new SaveSection3D(
                     prov3d1 = new RWLockingCachedRegionProvider<>(
@@ -301,15 +371,16 @@ public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData,
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv3d)
                                             .setSectorSize(512)
+                                            .setMapped(mapped)
                                             .build(),
                                     (file, key) -> Files.exists(file)
-                            )
+                            ), REGION_CACHE_SIZE
                     ),
                     prov3d2 = new RWLockingCachedRegionProvider<>(
                             new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d,
                                     (keyProvider, regionKey) -> new ExtRegion<>(part3d, Collections.emptyList(), keyProvider, regionKey),
                                     (dir, key) -> Files.exists(dir.resolveSibling(key.getRegionKey().getName() + ".ext"))
-                            )
+                            ), REGION_CACHE_SIZE
                     ));
 
             SaveCubeColumns saveCubeColumns = new SaveCubeColumns(section2d, section3d);
@@ -330,16 +401,34 @@ public class CubicChunkReader extends BaseMinecraftReader<CubicChunksColumnData,
         );
     }
 
-    private static class ChunkList {
+    // the columns of a region2d tile, with the y coordinates of their cubes
+    private static class Tile {
+
+        private final Dimension dim;
+        private final RegionKey region2d;
+        private final PackedColumns columns;
+
+        private Tile(Dimension dim, RegionKey region2d, PackedColumns columns) {
+            this.dim = dim;
+            this.region2d = region2d;
+            this.columns = columns;
+        }
+    }
+
+    private class TileCodec implements EnumerationQueue.Codec<Tile> {
 
-        private final Map<Dimension, List<Map.Entry<EntryLocation2D, IntArrayList>>> chunks;
+        @Override public long sizeOf(Tile tile) {
+            return tile.columns.getSizeInBytes();
+        }
 
-        private ChunkList(Map<Dimension, List<Map.Entry<EntryLocation2D, IntArrayList>>> chunks) {
-            this.chunks = chunks;
+        @Override public void write(DataOutputStream out, Tile tile) throws IOException {
+            out.writeUTF(tile.dim.getName());
+            out.writeUTF(tile.region2d.getName());
+            tile.columns.write(out);
         }
 
-        Map<Dimension, List<Map.Entry<EntryLocation2D, IntArrayList>>> getChunks() {
-            return chunks;
+        @Override public Tile read(DataInputStream in) throws IOException {
+            return new Tile(getDimension(in.readUTF()), new RegionKey(in.readUTF()), PackedColumns.read(in));
         }
     }
 }
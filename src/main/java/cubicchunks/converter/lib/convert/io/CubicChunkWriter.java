@@ -24,36 +24,45 @@
 package cubicchunks.converter.lib.convert.io;
 
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.ChunkDataWriter;
-import cubicchunks.converter.lib.util.ConcurrentCachedRegionProvider;
+import cubicchunks.converter.lib.convert.WriteBackTracking;
+import cubicchunks.converter.lib.util.ExtRegionEntries;
 import cubicchunks.converter.lib.util.MemoryWriteRegion;
-import cubicchunks.converter.lib.util.RWLockingCachedRegionProvider;
+import cubicchunks.converter.lib.util.ShardedCachedRegionProvider;
 import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.regionlib.api.region.key.IKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
 import cubicchunks.regionlib.impl.save.SaveSection2D;
 import cubicchunks.regionlib.impl.save.SaveSection3D;
-import cubicchunks.regionlib.lib.ExtRegion;
-import cubicchunks.regionlib.lib.Region;
 import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-public class CubicChunkWriter implements ChunkDataWriter<CubicChunksColumnData> {
+public class CubicChunkWriter implements ChunkDataWriter<CubicChunksColumnData>, Flushable, WriteBackTracking {
 
     private final Path dstPath;
     private final Map<Dimension, SaveCubeColumns> saves = new ConcurrentHashMap<>();
+    private final Map<Dimension, ExtRegionEntries<EntryLocation2D>> columnExts = new ConcurrentHashMap<>();
+    private final Map<Dimension, ExtRegionEntries<EntryLocation3D>> cubeExts = new ConcurrentHashMap<>();
+    // shared by all region caches of all dimensions
+    private final ShardedCachedRegionProvider.Budget regionCacheBudget;
+    private final Queue<ShardedCachedRegionProvider<?>> regionCaches = new ConcurrentLinkedQueue<>();
 
-    public CubicChunkWriter(Path dstPath) {
+    public CubicChunkWriter(Path dstPath, ConverterConfig config) {
         this.dstPath = dstPath;
+        this.regionCacheBudget = ShardedCachedRegionProvider.Budget.fromConfig(config);
     }
 
     @Override public void accept(CubicChunksColumnData data) throws IOException {
@@ -69,38 +78,57 @@ public class CubicChunkWriter implements ChunkDataWriter<CubicChunksColumnData>
                 Path part3d = path.resolve("region3d");
                 Utils.createDirectories(part3d);
 
+                // entries too big for the region files go to the ext regions
+                ExtRegionEntries<EntryLocation2D> columnExt = new ExtRegionEntries<>(new EntryLocation2D.Provider(), part2d, regionCacheBudget);
+                ExtRegionEntries<EntryLocation3D> cubeExt = new ExtRegionEntries<>(new EntryLocation3D.Provider(), part3d, regionCacheBudget);
+                columnExts.put(dim, columnExt);
+                cubeExts.put(dim, cubeExt);
+
                 SaveSection2D section2d = new SaveSection2D(
-                        new ConcurrentCachedRegionProvider<>(
-                                SimpleRegionProvider.createDefault(new EntryLocation2D.Provider(), part2d, 512)
-                        ),
-                        new ConcurrentCachedRegionProvider<>(
-                                new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d,
-                                        (keyProvider, regionKey) -> new ExtRegion<>(part2d, Collections.emptyList(), keyProvider, regionKey),
-                                        (dir, key) -> Files.exists(dir.resolveSibling(key.getRegionKey().getName() + ".ext"))
-                                )
-                        ));
+                        track(new ShardedCachedRegionProvider<>(
+                                new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d, (keyProv, r) ->
+                                        new MemoryWriteRegion.Builder<EntryLocation2D>()
+                                                .setDirectory(part2d)
+                                                .setRegionKey(r)
+                                                .setKeyProvider(keyProv)
+                                                .setSectorSize(512)
+                                                .build(),
+                                        (file, key) -> Files.exists(file)
+                                ),
+                                regionCacheBudget
+                        )),
+                        track(columnExt.getProvider()));
                 SaveSection3D section3d = new SaveSection3D(
-                        new ConcurrentCachedRegionProvider<>(
-                                SimpleRegionProvider.createDefault(new EntryLocation3D.Provider(), part3d, 512)
-                        ),
-                        new ConcurrentCachedRegionProvider<>(
-                                new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d,
-                                        (keyProvider, regionKey) -> new ExtRegion<>(part3d, Collections.emptyList(), keyProvider, regionKey),
-                                        (dir, key) -> Files.exists(dir.resolveSibling(key.getRegionKey().getName() + ".ext"))
-                                )
-                        ));
+                        track(new ShardedCachedRegionProvider<>(
+                                new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d, (keyProv, r) ->
+                                        new MemoryWriteRegion.Builder<EntryLocation3D>()
+                                                .setDirectory(part3d)
+                                                .setRegionKey(r)
+                                                .setKeyProvider(keyProv)
+                                                .setSectorSize(512)
+                                                .build(),
+                                        (file, key) -> Files.exists(file)
+                                ),
+                                regionCacheBudget
+                        )),
+                        track(cubeExt.getProvider()));
 
                 return new SaveCubeColumns(section2d, section3d);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         });
+        ExtRegionEntries<EntryLocation2D> columnExt = columnExts.get(data.getDimension());
+        ExtRegionEntries<EntryLocation3D> cubeExt = cubeExts.get(data.getDimension());
         EntryLocation2D pos = data.getPosition();
         if (data.getColumnData() != null) {
+            columnExt.remove(pos);
             save.save2d(pos, data.getColumnData());
         }
         for (Map.Entry<Integer, ByteBuffer> entry : data.getCubeData().entrySet()) {
-            save.save3d(new EntryLocation3D(pos.getEntryX(), entry.getKey(), pos.getEntryZ()), entry.getValue());
+            EntryLocation3D cubePos = new EntryLocation3D(pos.getEntryX(), entry.getKey(), pos.getEntryZ());
+            cubeExt.remove(cubePos);
+            save.save3d(cubePos, entry.getValue());
         }
     }
 
@@ -108,6 +136,25 @@ public class CubicChunkWriter implements ChunkDataWriter<CubicChunksColumnData>
         Utils.rm(dstPath);
     }
 
+    @Override public void flush() throws IOException {
+        for (ShardedCachedRegionProvider<?> cache : regionCaches) {
+            cache.flush();
+        }
+    }
+
+    @Override public long getWriteStamp() {
+        return regionCacheBudget.getWriteStamp();
+    }
+
+    @Override public long getOldestPendingWrite() {
+        return regionCacheBudget.getOldestPendingWrite();
+    }
+
+    private <K extends IKey<K>> ShardedCachedRegionProvider<K> track(ShardedCachedRegionProvider<K> cache) {
+        regionCaches.add(cache);
+        return cache;
+    }
+
     @Override public void close() throws Exception {
         boolean exception = false;
         for (SaveCubeColumns save : saves.values()) {
@@ -25,14 +25,18 @@ package cubicchunks.converter.lib.convert.io;
 
 import static cubicchunks.converter.lib.util.Utils.interruptibleConsumer;
 
+import com.carrotsearch.hppc.cursors.IntCursor;
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.data.CubicChunksBigCube112Data;
 import cubicchunks.converter.lib.util.BigCubeCoords;
 import cubicchunks.converter.lib.util.MemoryReadRegion;
 import cubicchunks.converter.lib.util.RWLockingCachedRegionProvider;
+import cubicchunks.converter.lib.util.RegionHeaders;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.regionlib.api.region.IRegionProvider;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
@@ -40,107 +44,138 @@ import cubicchunks.regionlib.impl.save.SaveSection2D;
 import cubicchunks.regionlib.impl.save.SaveSection3D;
 import cubicchunks.regionlib.lib.ExtRegion;
 import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
-import cubicchunks.regionlib.util.CheckedConsumer;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public class CubicChunksBigCube112Reader extends BaseMinecraftReader<CubicChunksBigCube112Data, SaveCubeColumns> {
 
-    private final CompletableFuture<ChunkList> chunkList = new CompletableFuture<>();
+    private static final EntryLocation3D.Provider KEY_PROVIDER_3D = new EntryLocation3D.Provider();
+    private static final Map<SaveCubeColumns, IRegionProvider<EntryLocation3D>> extProviders3d = new WeakHashMap<>();
+
+    private final EnumerationQueue<BigCubes> bigCubes;
     private final Thread loadThread;
+    private final Comparator<RegionKey> regionOrder;
 
 
-    public CubicChunksBigCube112Reader(Path srcDir) {
-        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path)) : null);
+    public CubicChunksBigCube112Reader(Path srcDir, ConverterConfig config) {
+        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path), useMappedRegions(config)) : null);
         loadThread = Thread.currentThread();
+        regionOrder = regionOrder(config);
+        bigCubes = new EnumerationQueue<>(new BigCubesCodec(), indexHeapBudget(config));
     }
 
     @Override public void countInputChunks(Runnable increment) throws IOException, InterruptedException {
         try {
-            Map<Dimension, List<Map.Entry<EntryLocation3D, Integer>>> dimensions = doCountChunks(increment);
-            chunkList.complete(new ChunkList(dimensions));
+            doCountChunks(increment);
+            bigCubes.finish();
         } catch (UncheckedInterruptedException ex) {
-            chunkList.complete(null);
+            bigCubes.finish();
+        } catch (IOException | RuntimeException e) {
+            bigCubes.fail(e);
+            throw e;
         }
     }
 
-    private Map<Dimension, List<Map.Entry<EntryLocation3D, Integer>>> doCountChunks(Runnable increment) {
-        Map<Dimension, List<Map.Entry<EntryLocation3D, Integer>>> dimensions = new HashMap<>();
+    // a big cube is always inside a single region3d, so the big cubes of a region3d are published to the loading
+    // threads as soon as its location table has been read
+    private void doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
         for (Map.Entry<Dimension, SaveCubeColumns> entry : saves.entrySet()) {
             SaveCubeColumns save = entry.getValue();
             Dimension dim = entry.getKey();
-            Map<EntryLocation3D, Integer> chunksMap = new ConcurrentHashMap<>();
-
-            CheckedConsumer<EntryLocation3D, IOException> addPos = interruptibleConsumer(loc -> {
-                int index = BigCubeCoords.sectionToIndex32(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ());
-                chunksMap.merge(new EntryLocation3D(
-                                BigCubeCoords.sectionToCube(loc.getEntryX()),
-                                BigCubeCoords.sectionToCube(loc.getEntryY()),
-                                BigCubeCoords.sectionToCube(loc.getEntryZ())),
-                        1 << index, (a, b) -> a | b);
+            Path part3d = getDimensionPath(dim, srcDir).resolve("region3d");
+
+            // entries too big for a region3d are in ext regions, there are few enough of them to list them up front
+            Map<RegionKey, List<EntryLocation3D>> extEntries = new HashMap<>();
+            extProviders3d.get(save).forAllRegions((regionKey, reg) -> {
+                reg.forEachKey(interruptibleConsumer(key -> extEntries.computeIfAbsent(regionKey, k -> new ArrayList<>()).add(key)));
+                reg.close();
             });
+
+            Set<RegionKey> regions = new TreeSet<>(regionOrder);
+            regions.addAll(RegionHeaders.listRegions(part3d, KEY_PROVIDER_3D));
+            regions.addAll(extEntries.keySet());
             try {
-                save.getSaveSection3D().forAllKeys(addPos);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+                forEachParallel(regions, region -> {
+                    BigCubes batch = new BigCubes(dim, region);
+                    Consumer<EntryLocation3D> addPos = batch::addSection;
+                    Path file = part3d.resolve(region.getName());
+                    if (Files.exists(file)) {
+                        try {
+                            for (IntCursor id : RegionHeaders.readEntryIds(file, KEY_PROVIDER_3D.getKeyCount(region))) {
+                                addPos.accept(KEY_PROVIDER_3D.fromRegionAndId(region, id.value));
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    extEntries.getOrDefault(region, Collections.emptyList()).forEach(addPos);
+                    for (byte sections : batch.sections) {
+                        // incomplete ones are skipped when loading
+                        if ((sections & 0xFF) == 0xFF) {
+                            increment.run();
+                        }
+                    }
+                    try {
+                        bigCubes.publish(batch);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
-            List<Map.Entry<EntryLocation3D, Integer>> chunks = dimensions.computeIfAbsent(dim, p -> new ArrayList<>());
-            chunksMap.forEach((k, v) -> chunks.add(new AbstractMap.SimpleEntry<>(k, v)));
         }
-        return dimensions;
     }
 
     @Override public void loadChunks(Consumer<? super CubicChunksBigCube112Data> accept, Predicate<Throwable> errorHandler)
-            throws InterruptedException {
+            throws IOException, InterruptedException {
         try {
-            ChunkList list = chunkList.get();
-            if (list == null) {
-                return; // counting interrupted
-            }
-            doLoadChunks(accept, list, errorHandler);
+            doLoadChunks(accept, errorHandler);
         } catch (UncheckedInterruptedException ex) {
             // interrupted, do nothing
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
-    private void doLoadChunks(Consumer<? super CubicChunksBigCube112Data> consumer, ChunkList list, Predicate<Throwable> errorHandler) {
-        for (Map.Entry<Dimension, List<Map.Entry<EntryLocation3D, Integer>>> dimEntry : list.getChunks().entrySet()) {
-            if (Thread.interrupted()) {
-                return;
-            }
-            Dimension dim = dimEntry.getKey();
+    private void doLoadChunks(Consumer<? super CubicChunksBigCube112Data> consumer, Predicate<Throwable> errorHandler) {
+        forEachParallel(bigCubes, batch -> {
+            Dimension dim = batch.dim;
             SaveCubeColumns save = saves.get(dim);
-            dimEntry.getValue().parallelStream().forEach(chunksEntry -> {
+            for (int index = 0; index < BigCubes.CUBE_COUNT; index++) {
                 if (Thread.interrupted()) {
-                    return;
+                    throw new UncheckedInterruptedException();
                 }
-                EntryLocation3D pos = chunksEntry.getKey();
-                int presentSections = chunksEntry.getValue();
+                int presentSections = batch.sections[index] & 0xFF;
+                if (presentSections == 0) {
+                    continue;
+                }
+                EntryLocation3D pos = batch.getCubePos(index);
                 if (presentSections != 0xFF) {
                     System.out.println("Skipping incomplete cube at " + pos + " sections = " + Integer.toBinaryString(presentSections));
-                    return;
+                    continue;
                 }
                 ByteBuffer[] cubes = new ByteBuffer[8];
                 for (int i = 0; i < 8; i++) {
                     if (Thread.interrupted()) {
-                        return;
+                        throw new UncheckedInterruptedException();
                     }
                     if ((presentSections & (1 << i)) == 0) {
                         continue;
@@ -168,8 +203,8 @@ public class CubicChunksBigCube112Reader extends BaseMinecraftReader<CubicChunks
                 }
                 CubicChunksBigCube112Data data = new CubicChunksBigCube112Data(dim, pos, null, cubes);
                 consumer.accept(data);
-            });
-        }
+            }
+        });
     }
 
     @Override public void stop() {
@@ -184,7 +219,7 @@ public class CubicChunksBigCube112Reader extends BaseMinecraftReader<CubicChunks
         return worldDir;
     }
 
-    private static SaveCubeColumns createSave(Path path) {
+    private static SaveCubeColumns createSave(Path path, boolean mapped) {
         try {
             Utils.createDirectories(path);
 
@@ -207,6 +242,7 @@ public class CubicChunksBigCube112Reader extends BaseMinecraftReader<CubicChunks
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv2d)
                                             .setSectorSize(512)
+                                            .setMapped(mapped)
                                             .build(),
                                     (file, key) -> Files.exists(file)
                             )
@@ -225,6 +261,7 @@ public class CubicChunksBigCube112Reader extends BaseMinecraftReader<CubicChunks
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv3d)
                                             .setSectorSize(512)
+                                            .setMapped(mapped)
                                             .build(),
                                     (file, key) -> Files.exists(file)
                             )
@@ -236,22 +273,76 @@ public class CubicChunksBigCube112Reader extends BaseMinecraftReader<CubicChunks
                             )
                     ));
 
-            return new SaveCubeColumns(section2d, section3d);
+            SaveCubeColumns saveCubeColumns = new SaveCubeColumns(section2d, section3d);
+            extProviders3d.put(saveCubeColumns, prov3d2);
+            return saveCubeColumns;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static class ChunkList {
+    // the big cubes of a region3d, with a bit set for each of their sections that exists. A region3d is 16^3 sections,
+    // so it always holds exactly 8^3 big cubes, and a byte per big cube is all the index needs
+    private static class BigCubes {
 
-        private final Map<Dimension, List<Map.Entry<EntryLocation3D, Integer>>> chunks;
+        private static final int CUBE_COUNT = 8 * 8 * 8;
+
+        private final Dimension dim;
+        // coordinates of the big cube at index 0
+        private final int minX, minY, minZ;
+        private final byte[] sections;
+
+        private BigCubes(Dimension dim, RegionKey region) {
+            this(dim, KEY_PROVIDER_3D.fromRegionAndId(region, 0), new byte[CUBE_COUNT]);
+        }
+
+        private BigCubes(Dimension dim, EntryLocation3D minSection, byte[] sections) {
+            this(dim, BigCubeCoords.sectionToCube(minSection.getEntryX()) & ~7, BigCubeCoords.sectionToCube(minSection.getEntryY()) & ~7,
+                    BigCubeCoords.sectionToCube(minSection.getEntryZ()) & ~7, sections);
+        }
+
+        private BigCubes(Dimension dim, int minX, int minY, int minZ, byte[] sections) {
+            this.dim = dim;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.sections = sections;
+        }
+
+        private void addSection(EntryLocation3D loc) {
+            int index = ((BigCubeCoords.sectionToCube(loc.getEntryX()) & 7) << 6)
+                    | ((BigCubeCoords.sectionToCube(loc.getEntryY()) & 7) << 3)
+                    | (BigCubeCoords.sectionToCube(loc.getEntryZ()) & 7);
+            sections[index] |= 1 << BigCubeCoords.sectionToIndex32(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ());
+        }
+
+        private EntryLocation3D getCubePos(int index) {
+            return new EntryLocation3D(minX + (index >>> 6), minY + ((index >>> 3) & 7), minZ + (index & 7));
+        }
+    }
+
+    private class BigCubesCodec implements EnumerationQueue.Codec<BigCubes> {
+
+        @Override public long sizeOf(BigCubes batch) {
+            return BigCubes.CUBE_COUNT + 64;
+        }
 
-        private ChunkList(Map<Dimension, List<Map.Entry<EntryLocation3D, Integer>>> chunks) {
-            this.chunks = chunks;
+        @Override public void write(DataOutputStream out, BigCubes batch) throws IOException {
+            out.writeUTF(batch.dim.getName());
+            out.writeInt(batch.minX);
+            out.writeInt(batch.minY);
+            out.writeInt(batch.minZ);
+            out.write(batch.sections);
         }
 
-        Map<Dimension, List<Map.Entry<EntryLocation3D, Integer>>> getChunks() {
-            return chunks;
+        @Override public BigCubes read(DataInputStream in) throws IOException {
+            Dimension dim = getDimension(in.readUTF());
+            int minX = in.readInt();
+            int minY = in.readInt();
+            int minZ = in.readInt();
+            byte[] sections = new byte[BigCubes.CUBE_COUNT];
+            in.readFully(sections);
+            return new BigCubes(dim, minX, minY, minZ, sections);
         }
     }
 
@@ -24,23 +24,23 @@
 package cubicchunks.converter.lib.convert.io;
 
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataWriter;
 import cubicchunks.converter.lib.convert.data.CubicChunksProtoBigCubeData;
-import cubicchunks.converter.lib.util.MemoryWriteRegion;
-import cubicchunks.converter.lib.util.RWLockingCachedRegionProvider;
+import cubicchunks.converter.lib.util.ExtRegionEntries;
+import cubicchunks.converter.lib.util.FragmentedMemoryWriteRegion;
+import cubicchunks.converter.lib.util.ShardedCachedRegionProvider;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
 import cubicchunks.regionlib.impl.save.SaveSection2D;
 import cubicchunks.regionlib.impl.save.SaveSection3D;
-import cubicchunks.regionlib.lib.ExtRegion;
 import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -48,9 +48,14 @@ public class CubicChunksProtoBigCubeWriter  implements ChunkDataWriter<CubicChun
 
     private final Path dstPath;
     private final Map<Dimension, SaveCubeColumns> saves = new ConcurrentHashMap<>();
+    private final Map<Dimension, ExtRegionEntries<EntryLocation2D>> columnExts = new ConcurrentHashMap<>();
+    private final Map<Dimension, ExtRegionEntries<EntryLocation3D>> cubeExts = new ConcurrentHashMap<>();
+    // shared by all region caches of all dimensions
+    private final ShardedCachedRegionProvider.Budget regionCacheBudget;
 
-    public CubicChunksProtoBigCubeWriter(Path dstPath) {
+    public CubicChunksProtoBigCubeWriter(Path dstPath, ConverterConfig config) {
         this.dstPath = dstPath;
+        this.regionCacheBudget = ShardedCachedRegionProvider.Budget.fromConfig(config);
     }
 
     @Override public void accept(CubicChunksProtoBigCubeData data) throws IOException {
@@ -58,9 +63,12 @@ public class CubicChunksProtoBigCubeWriter  implements ChunkDataWriter<CubicChun
 
         EntryLocation3D pos = data.getPosition();
         if (data.getColumnData() != null) {
-            save.save2d(new EntryLocation2D(pos.getEntryX(), pos.getEntryZ()), data.getColumnData());
+            EntryLocation2D columnPos = new EntryLocation2D(pos.getEntryX(), pos.getEntryZ());
+            columnExts.get(data.getDimension()).remove(columnPos);
+            save.save2d(columnPos, data.getColumnData());
         }
         if (data.getCubeData() != null) {
+            cubeExts.get(data.getDimension()).remove(pos);
             save.save3d(pos, data.getCubeData());
         }
     }
@@ -77,42 +85,40 @@ public class CubicChunksProtoBigCubeWriter  implements ChunkDataWriter<CubicChun
             Path part3d = path.resolve("region3d");
             Utils.createDirectories(part3d);
 
+            // entries too big for the region files go to the ext regions
+            ExtRegionEntries<EntryLocation2D> columnExt = new ExtRegionEntries<>(new EntryLocation2D.Provider(), part2d, regionCacheBudget);
+            ExtRegionEntries<EntryLocation3D> cubeExt = new ExtRegionEntries<>(new EntryLocation3D.Provider(), part3d, regionCacheBudget);
+            columnExts.put(dim, columnExt);
+            cubeExts.put(dim, cubeExt);
+
             SaveSection2D section2d = new SaveSection2D(
-                    new RWLockingCachedRegionProvider<>(
+                    new ShardedCachedRegionProvider<>(
                             new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d, (keyProv, r) ->
-                                    new MemoryWriteRegion.Builder<EntryLocation2D>()
+                                    new FragmentedMemoryWriteRegion.Builder<EntryLocation2D>()
                                             .setDirectory(part2d)
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv)
                                             .setSectorSize(512)
                                             .build(),
                                     (file, key) -> Files.exists(file)
-                            )
+                            ),
+                            regionCacheBudget
                     ),
-                    new RWLockingCachedRegionProvider<>(
-                            new SimpleRegionProvider<>(new EntryLocation2D.Provider(), part2d,
-                                    (keyProvider, regionKey) -> new ExtRegion<>(part2d, Collections.emptyList(), keyProvider, regionKey),
-                                    (dir, key) -> Files.exists(dir.resolveSibling(key.getRegionKey().getName() + ".ext"))
-                            )
-                    ));
+                    columnExt.getProvider());
             SaveSection3D section3d = new SaveSection3D(
-                    new RWLockingCachedRegionProvider<>(
+                    new ShardedCachedRegionProvider<>(
                             new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d, (keyProv, r) ->
-                                    new MemoryWriteRegion.Builder<EntryLocation3D>()
+                                    new FragmentedMemoryWriteRegion.Builder<EntryLocation3D>()
                                             .setDirectory(part3d)
                                             .setRegionKey(r)
                                             .setKeyProvider(keyProv)
                                             .setSectorSize(512)
                                             .build(),
                                     (file, key) -> Files.exists(file)
-                            )
+                            ),
+                            regionCacheBudget
                     ),
-                    new RWLockingCachedRegionProvider<>(
-                            new SimpleRegionProvider<>(new EntryLocation3D.Provider(), part3d,
-                                    (keyProvider, regionKey) -> new ExtRegion<>(part3d, Collections.emptyList(), keyProvider, regionKey),
-                                    (dir, key) -> Files.exists(dir.resolveSibling(key.getRegionKey().getName() + ".ext"))
-                            )
-                    ));
+                    cubeExt.getProvider());
 
             return new SaveCubeColumns(section2d, section3d);
         } catch (IOException e) {
@@ -0,0 +1,278 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import com.google.common.base.Throwables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Passes the chunks found by the counting thread to the loading threads one batch at a time, as soon as a batch has
+ * been enumerated, so that loading starts with the first scanned region instead of waiting for the whole world to be
+ * counted. A batch is usually everything read from one region.
+ *
+ * Counting is usually much faster than loading, so most of the index of the world can end up waiting in the queue.
+ * With a {@link Codec}, batches that don't fit into the heap budget are written to a temporary file instead, and read
+ * back once the batches in memory have been taken. Batches are always taken in the order they were published: once a
+ * batch has been written to the file, all later ones are too, until the file has been read back.
+ *
+ * The spill file is written and read without holding the queue's lock, only the space for each batch is reserved
+ * under it, so loading threads can take batches from memory while another one is reading. Once every spilled batch has
+ * been read back, the file is emptied and reused from the start.
+ */
+class EnumerationQueue<T> {
+
+    private final Codec<T> codec;
+    private final long heapBudget;
+
+    private final ArrayDeque<T> batches = new ArrayDeque<>();
+    private long heapBytes;
+
+    private Path spillFile;
+    private FileChannel spill;
+    private long spillWritePos;
+    // batches in the file in the order they were published, each is taken once it has been written
+    private final ArrayDeque<Spilled> spilled = new ArrayDeque<>();
+    // reads and writes of the file in progress, it's only emptied or closed once there are none
+    private int spillIO;
+
+    private boolean finished;
+    private boolean aborted;
+    private Throwable failure;
+
+    /**
+     * Creates a queue that keeps all batches in memory.
+     */
+    EnumerationQueue() {
+        this(null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a queue that writes batches to disk once the ones in memory take more than the heap budget.
+     */
+    EnumerationQueue(Codec<T> codec, long heapBudget) {
+        this.codec = codec;
+        this.heapBudget = heapBudget;
+    }
+
+    void publish(T batch) throws IOException {
+        Spilled slot;
+        synchronized (this) {
+            if (aborted) {
+                return;
+            }
+            long size = codec == null ? 0 : codec.sizeOf(batch);
+            // older batches are still in the file, a batch kept in memory would be taken before them
+            if (codec == null || (spilled.isEmpty() && heapBytes + size <= heapBudget)) {
+                batches.add(batch);
+                heapBytes += size;
+                notifyAll();
+                return;
+            }
+            slot = new Spilled();
+            spilled.add(slot);
+            spillIO++;
+        }
+        try {
+            ByteBuffer data = encode(batch);
+            FileChannel channel;
+            synchronized (this) {
+                if (aborted) {
+                    spillIO--;
+                    trimSpill();
+                    return;
+                }
+                if (spill == null) {
+                    // the file is only created once, it's emptied instead of closed until the queue is done
+                    spillFile = Files.createTempFile("ccconverter-index", ".bin");
+                    spillFile.toFile().deleteOnExit();
+                    spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                channel = spill;
+                slot.position = spillWritePos;
+                slot.length = data.remaining();
+                spillWritePos += data.remaining();
+            }
+            long position = slot.position;
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                spilled.remove(slot);
+                spillIO--;
+                notifyAll();
+                if (aborted) {
+                    // the batch isn't wanted anymore anyway
+                    trimSpill();
+                    return;
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            slot.written = true;
+            spillIO--;
+            trimSpill();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Called by the counting thread once it's done, including when it's been interrupted.
+     */
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Called by the counting thread if it failed, loading threads rethrow the failure once they run out of batches.
+     */
+    synchronized void fail(Throwable t) {
+        failure = t;
+        finish();
+    }
+
+    /**
+     * Called by a loading thread that failed. The batches that haven't been taken yet are dropped, so that the other
+     * loading threads stop, and later batches are ignored.
+     */
+    synchronized void abort(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+        aborted = true;
+        batches.clear();
+        heapBytes = 0;
+        spilled.clear();
+        finish();
+    }
+
+    /**
+     * Returns the next batch, waiting until it's enumerated, or null once all batches have been taken or loading was
+     * aborted.
+     */
+    T take() throws IOException, InterruptedException {
+        Spilled slot;
+        FileChannel channel;
+        synchronized (this) {
+            while (!aborted && batches.isEmpty() && (spilled.isEmpty() ? !finished : !spilled.peek().written)) {
+                wait();
+            }
+            if (aborted) {
+                trimSpill();
+                return null;
+            }
+            if (!batches.isEmpty()) {
+                T batch = batches.poll();
+                if (codec != null) {
+                    heapBytes -= codec.sizeOf(batch);
+                }
+                return batch;
+            }
+            if (spilled.isEmpty()) {
+                trimSpill();
+                Throwable t = failure;
+                if (t != null) {
+                    Throwables.throwIfInstanceOf(t, IOException.class);
+                    Throwables.throwIfUnchecked(t);
+                    throw new RuntimeException(t);
+                }
+                return null;
+            }
+            slot = spilled.poll();
+            channel = spill;
+            spillIO++;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.allocate(slot.length);
+            while (data.hasRemaining()) {
+                if (channel.read(data, slot.position + data.position()) < 0) {
+                    throw new IOException("Unexpected end of " + spillFile);
+                }
+            }
+            return codec.read(new DataInputStream(new ByteArrayInputStream(data.array())));
+        } finally {
+            synchronized (this) {
+                spillIO--;
+                trimSpill();
+            }
+        }
+    }
+
+    private ByteBuffer encode(T batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        codec.write(out, batch);
+        out.flush();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    // called with the lock held, empties the file once everything in it has been read back, or closes it once it can't be used anymore
+    private void trimSpill() throws IOException {
+        if (spill == null || spillIO > 0 || !spilled.isEmpty()) {
+            return;
+        }
+        if (finished) {
+            spill.close();
+            Files.deleteIfExists(spillFile);
+            spill = null;
+        } else if (spillWritePos > 0) {
+            spill.truncate(0);
+            spillWritePos = 0;
+        }
+    }
+
+    private static class Spilled {
+        long position;
+        int length;
+        boolean written;
+    }
+
+    /**
+     * Writes batches to the spill file and reads them back.
+     */
+    interface Codec<T> {
+
+        /**
+         * Returns roughly how much heap the batch takes.
+         */
+        long sizeOf(T batch);
+
+        void write(DataOutputStream out, T batch) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+}
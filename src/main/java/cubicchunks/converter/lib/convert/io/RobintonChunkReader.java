@@ -23,40 +23,52 @@
  */
 package cubicchunks.converter.lib.convert.io;
 
-import static cubicchunks.converter.lib.util.Utils.interruptibleConsumer;
-
 import com.carrotsearch.hppc.IntArrayList;
 import com.carrotsearch.hppc.cursors.IntCursor;
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.data.RobintonColumnData;
 import cubicchunks.converter.lib.convert.robinton2cc.RobintonEntryLocation3D;
 import cubicchunks.converter.lib.convert.robinton2cc.RobintonSaveSection;
+import cubicchunks.converter.lib.util.PackedColumns;
+import cubicchunks.converter.lib.util.RegionHeaders;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.api.storage.SaveSection;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public class RobintonChunkReader extends BaseMinecraftReader<RobintonColumnData, RobintonSaveSection> {
 
-    private final CompletableFuture<RobintonChunkReader.ChunkList> chunkList = new CompletableFuture<>();
+    private static final RobintonEntryLocation3D.Provider KEY_PROVIDER = new RobintonEntryLocation3D.Provider();
+
+    private final EnumerationQueue<ColumnStack> columns;
     private final Thread loadThread;
+    private final Comparator<RegionKey> regionOrder;
 
-    public RobintonChunkReader(Path srcDir) {
+    public RobintonChunkReader(Path srcDir, ConverterConfig config) {
         super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path)) ? createSave(getDimensionPath(dim, path)) : null);
         loadThread = Thread.currentThread();
+        regionOrder = regionOrder(config);
+        columns = new EnumerationQueue<>(new ColumnStackCodec(), indexHeapBudget(config));
     }
 
     private static Path getDimensionPath(Dimension d, Path worldDir) {
@@ -68,63 +80,76 @@ public class RobintonChunkReader extends BaseMinecraftReader<RobintonColumnData,
 
     @Override public void countInputChunks(Runnable increment) throws IOException {
         try {
-            Map<Dimension, Map<EntryLocation2D, IntArrayList>> dimensions = doCountChunks(increment);
-            chunkList.complete(new RobintonChunkReader.ChunkList(dimensions));
+            doCountChunks(increment);
+            columns.finish();
         } catch (UncheckedInterruptedException ex) {
-            chunkList.complete(null);
+            columns.finish();
+        } catch (IOException | RuntimeException e) {
+            columns.fail(e);
+            throw e;
         }
     }
 
-    private Map<Dimension, Map<EntryLocation2D, IntArrayList>> doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
-        Map<Dimension, Map<EntryLocation2D, IntArrayList>> dimensions = new ConcurrentHashMap<>();
-        for (Map.Entry<Dimension, RobintonSaveSection> entry : saves.entrySet()) {
-            RobintonSaveSection save = entry.getValue();
-            Dimension dim = entry.getKey();
-            Map<EntryLocation2D, IntArrayList> chunks = dimensions.computeIfAbsent(dim, p -> new ConcurrentHashMap<>());
-            save.forAllKeys(interruptibleConsumer(loc -> {
-                EntryLocation2D loc2d = new EntryLocation2D(loc.getEntryX(), loc.getEntryZ());
-                chunks.computeIfAbsent(loc2d, l -> {
-                    increment.run();
-                    return new IntArrayList();
-                }).add(loc.getEntryY());
-            }));
+    // regions are one cube high, so the columns of a region are only complete once every region above and below it
+    // has been read, they're published to the loading thread one stack of regions at a time
+    private void doCountChunks(Runnable increment) throws IOException, UncheckedInterruptedException {
+        for (Dimension dim : saves.keySet()) {
+            Path directory = getDimensionPath(dim, srcDir).resolve("region");
+            Map<String, List<RegionKey>> stacks = new LinkedHashMap<>();
+            for (RegionKey region : RegionHeaders.listRegions(directory, KEY_PROVIDER, regionOrder)) {
+                String[] split = region.getName().split("\\.");
+                stacks.computeIfAbsent(split[1] + "." + split[3], k -> new ArrayList<>()).add(region);
+            }
+            try {
+                forEachParallel(stacks.values(), stack -> {
+                    try {
+                        PackedColumns.Builder chunks = new PackedColumns.Builder();
+                        for (RegionKey region : stack) {
+                            IntArrayList ids = RegionHeaders.readEntryIds(directory.resolve(region.getName()), KEY_PROVIDER.getKeyCount(region));
+                            for (IntCursor id : ids) {
+                                RobintonEntryLocation3D loc = KEY_PROVIDER.fromRegionAndId(region, id.value);
+                                chunks.add(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ());
+                            }
+                        }
+                        for (int i = 0; i < chunks.getColumnCount(); i++) {
+                            increment.run();
+                        }
+                        columns.publish(new ColumnStack(dim, chunks.build()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
         }
-        return dimensions;
     }
 
     @Override public void loadChunks(Consumer<? super RobintonColumnData> consumer, Predicate<Throwable> errorHandler) throws IOException, InterruptedException {
         try {
-            RobintonChunkReader.ChunkList list = chunkList.get();
-            if (list == null) {
-                return; // counting interrupted
-            }
-            doLoadChunks(consumer, list, errorHandler);
+            doLoadChunks(consumer, errorHandler);
         } catch (UncheckedInterruptedException e) {
             // interrupted, ignore
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
         }
     }
 
-    private void doLoadChunks(Consumer<? super RobintonColumnData> consumer, ChunkList list, Predicate<Throwable> errorHandler) {
-        for (Map.Entry<Dimension, Map<EntryLocation2D, IntArrayList>> dimEntry : list.getChunks().entrySet()) {
-            if (Thread.interrupted()) {
-                return;
-            }
-            Dimension dim = dimEntry.getKey();
+    private void doLoadChunks(Consumer<? super RobintonColumnData> consumer, Predicate<Throwable> errorHandler) throws IOException, InterruptedException {
+        ColumnStack stack;
+        while ((stack = columns.take()) != null) {
+            Dimension dim = stack.dim;
             RobintonSaveSection save = saves.get(dim);
-            for (Map.Entry<EntryLocation2D, IntArrayList> chunksEntry : dimEntry.getValue().entrySet()) {
+            PackedColumns chunks = stack.chunks;
+            for (int column = 0; column < chunks.size(); column++) {
                 if (Thread.interrupted()) {
                     return;
                 }
-                EntryLocation2D pos2d = chunksEntry.getKey();
-                IntArrayList yCoords = chunksEntry.getValue();
+                EntryLocation2D pos2d = new EntryLocation2D(chunks.getX(column), chunks.getZ(column));
                 Map<Integer, ByteBuffer> cubes = new ConcurrentHashMap<>();
-                for (IntCursor yCursor : yCoords) {
+                for (int i = 0; i < chunks.getCubeCount(column); i++) {
                     if (Thread.interrupted()) {
                         return;
                     }
-                    int y = yCursor.value;
+                    int y = chunks.getY(column, i);
                     ByteBuffer cube;
                     try {
                         cube = save.load(new RobintonEntryLocation3D(pos2d.getEntryX(), y, pos2d.getEntryZ()), true).orElseThrow(
@@ -153,16 +178,31 @@ public class RobintonChunkReader extends BaseMinecraftReader<RobintonColumnData,
         return RobintonSaveSection.createAt(path.resolve("region"));
     }
 
-    private static class ChunkList {
+    // the columns of a stack of regions, with the y coordinates of their cubes
+    private static class ColumnStack {
 
-        private final Map<Dimension, Map<EntryLocation2D, IntArrayList>> chunks;
+        private final Dimension dim;
+        private final PackedColumns chunks;
 
-        private ChunkList(Map<Dimension, Map<EntryLocation2D, IntArrayList>> chunks) {
+        private ColumnStack(Dimension dim, PackedColumns chunks) {
+            this.dim = dim;
             this.chunks = chunks;
         }
+    }
+
+    private class ColumnStackCodec implements EnumerationQueue.Codec<ColumnStack> {
+
+        @Override public long sizeOf(ColumnStack stack) {
+            return stack.chunks.getSizeInBytes();
+        }
+
+        @Override public void write(DataOutputStream out, ColumnStack stack) throws IOException {
+            out.writeUTF(stack.dim.getName());
+            stack.chunks.write(out);
+        }
 
-        Map<Dimension, Map<EntryLocation2D, IntArrayList>> getChunks() {
-            return chunks;
+        @Override public ColumnStack read(DataInputStream in) throws IOException {
+            return new ColumnStack(getDimension(in.readUTF()), PackedColumns.read(in));
         }
     }
 }
@@ -23,9 +23,12 @@
  */
 package cubicchunks.converter.lib.convert.robinton2cc;
 
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import cubicchunks.converter.lib.convert.data.RobintonColumnData;
+import cubicchunks.converter.lib.util.Compression;
+import cubicchunks.converter.lib.util.Utils;
 import net.kyori.nbt.ByteArrayTag;
 import net.kyori.nbt.CompoundTag;
 import net.kyori.nbt.IntArrayTag;
@@ -33,22 +36,22 @@ import net.kyori.nbt.ListTag;
 import net.kyori.nbt.TagIO;
 import net.kyori.nbt.TagTypeMaps;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.InflaterInputStream;
 
 public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnData, CubicChunksColumnData> {
 
+    private final Compression.Level compressionLevel;
+
+    public Robinton2CCConverter(ConverterConfig config) {
+        this.compressionLevel = Compression.Level.fromConfig(config);
+    }
+
     @Override public Set<CubicChunksColumnData> convert(RobintonColumnData input) {
         try {
             Map<Integer, ByteBuffer> newData = new HashMap<>();
@@ -65,7 +68,7 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
                 CompoundTag newTag = new CompoundTag();
                 newTag.put("Level", newLevel);
 
-                newData.put(y, writeCompressed(newTag));
+                newData.put(y, writeCompressed(newTag, compressionLevel));
             }
 
             return Collections.singleton( new CubicChunksColumnData(input.getDimension(), input.getPosition(), null, newData));
@@ -93,7 +96,7 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
         CompoundTag root = new CompoundTag();
         root.put("Level", level);
 
-        return writeCompressed(root);
+        return writeCompressed(root, compressionLevel);
     }
 
     private CompoundTag convertCube(RobintonColumnData input, CompoundTag oldLevel, int y) {
@@ -215,27 +218,17 @@ public class Robinton2CCConverter implements ChunkDataConverter<RobintonColumnDa
 
 
     public static CompoundTag readCompressed(ByteBuffer buf) throws IOException {
-        InputStream is = new ByteArrayInputStream(buf.array());
-        int i = is.read();
-        BufferedInputStream data;
-        if (i == 1) {
-            data = new BufferedInputStream(new GZIPInputStream(is));
-        } else if (i == 2) {
-            data = new BufferedInputStream(new InflaterInputStream(is));
-        } else {
-            throw new UnsupportedOperationException();
+        try (InputStream data = Utils.openCompressed(Utils.asInputStream(buf))) {
+            return TagIO.readInputStream(TagTypeMaps.ROBINTON, data);
         }
-
-        return TagIO.readInputStream(TagTypeMaps.ROBINTON, data);
     }
 
-    private static ByteBuffer writeCompressed(CompoundTag tag) throws IOException {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
-        OutputStream nbtOut = new BufferedOutputStream(new GZIPOutputStream(bytes, 4096), 4096);
-        TagIO.writeOutputStream(TagTypeMaps.ROBINTON, tag, nbtOut);
-        nbtOut.close();
-        bytes.flush();
-        return ByteBuffer.wrap(bytes.toByteArray());
+    private static ByteBuffer writeCompressed(CompoundTag tag, Compression.Level level) throws IOException {
+        return Compression.compress(Compression.FORMAT_GZIP, level, false, out -> {
+            OutputStream nbtOut = new BufferedOutputStream(out, 4096);
+            TagIO.writeOutputStream(TagTypeMaps.ROBINTON, tag, nbtOut);
+            nbtOut.flush();
+        });
     }
 
 }
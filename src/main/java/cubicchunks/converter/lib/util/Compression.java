@@ -0,0 +1,417 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.regionlib.util.CheckedConsumer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Zlib and GZIP streams used for region entries.
+ *
+ * The JDK streams allocate new native zlib state for every stream, which is only freed once the stream is garbage
+ * collected. Streams created here take their {@link Deflater} or {@link Inflater} from a small per-thread pool, and
+ * return it when closed. Compressed output is collected in a per-thread buffer that keeps its capacity between calls.
+ *
+ * The container format is fixed by the output format, the compression {@link Level} can be chosen per run.
+ */
+public class Compression {
+
+    /**
+     * Config option selecting the compression {@link Level} of the converted data, either a {@link Level} or its name.
+     */
+    public static final String LEVEL_CONFIG = "compressionLevel";
+
+    public static final int FORMAT_GZIP = 1;
+    public static final int FORMAT_ZLIB = 2;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte[] GZIP_HEADER = {
+        (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    // codecs kept per thread and kind, a thread rarely has more than one stream of a kind open at a time
+    private static final int MAX_POOLED = 4;
+    // don't keep output buffers grown by unusually large entries around forever
+    private static final int MAX_RETAINED_BUFFER = 4 << 20;
+
+    private static final ThreadLocal<Pool> POOL = ThreadLocal.withInitial(Pool::new);
+
+    public static ByteBuffer compress(int format, boolean prefixFormat, CheckedConsumer<OutputStream, IOException> writer) throws IOException {
+        return compress(format, Level.DEFAULT, prefixFormat, writer);
+    }
+
+    /**
+     * Compresses everything written by {@code writer}.
+     *
+     * @param format {@link #FORMAT_GZIP} or {@link #FORMAT_ZLIB}
+     * @param level the compression level
+     * @param prefixFormat whether to write the format as a single byte before the compressed data, as used by anvil
+     * @return a heap buffer with the compressed data
+     */
+    public static ByteBuffer compress(int format, Level level, boolean prefixFormat, CheckedConsumer<OutputStream, IOException> writer) throws IOException {
+        Pool pool = POOL.get();
+        OutputBuffer bytes = pool.buffer;
+        if (bytes == null) {
+            // nested call, the buffer of this thread is in use
+            bytes = new OutputBuffer();
+        }
+        pool.buffer = null;
+        try {
+            bytes.reset();
+            if (prefixFormat) {
+                bytes.write(format);
+            }
+            try (OutputStream out = format == FORMAT_GZIP ? gzipOutput(bytes, level) : zlibOutput(bytes, level)) {
+                writer.accept(out);
+            }
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } finally {
+            if (bytes.capacity() <= MAX_RETAINED_BUFFER) {
+                pool.buffer = bytes;
+            }
+        }
+    }
+
+    /**
+     * Returns a stream of the uncompressed data of a region entry, with the compression type given by the first byte.
+     */
+    public static InputStream decompressPrefixed(InputStream in) throws IOException {
+        int format = in.read();
+        if (format == FORMAT_GZIP) {
+            return gzipInput(in);
+        } else if (format == FORMAT_ZLIB) {
+            return zlibInput(in);
+        } else {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public static OutputStream zlibOutput(OutputStream out) {
+        return zlibOutput(out, Level.DEFAULT);
+    }
+
+    public static OutputStream zlibOutput(OutputStream out, Level level) {
+        return new PooledDeflaterOutputStream(out, false, level);
+    }
+
+    public static OutputStream gzipOutput(OutputStream out) throws IOException {
+        return gzipOutput(out, Level.DEFAULT);
+    }
+
+    public static OutputStream gzipOutput(OutputStream out, Level level) throws IOException {
+        return new PooledGZIPOutputStream(out, level);
+    }
+
+    public static InputStream zlibInput(InputStream in) {
+        return new PooledInflaterInputStream(in, false);
+    }
+
+    public static InputStream gzipInput(InputStream in) throws IOException {
+        return new PooledGZIPInputStream(in);
+    }
+
+    private static Deflater acquireDeflater(boolean nowrap, Level level) {
+        Deflater deflater = POOL.get().deflaters(nowrap).poll();
+        if (deflater == null) {
+            return new Deflater(level.getDeflaterLevel(), nowrap);
+        }
+        deflater.setLevel(level.getDeflaterLevel());
+        return deflater;
+    }
+
+    private static void releaseDeflater(Deflater deflater, boolean nowrap) {
+        ArrayDeque<Deflater> pooled = POOL.get().deflaters(nowrap);
+        if (pooled.size() < MAX_POOLED) {
+            deflater.reset();
+            pooled.push(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static Inflater acquireInflater(boolean nowrap) {
+        Inflater inflater = POOL.get().inflaters(nowrap).poll();
+        return inflater != null ? inflater : new Inflater(nowrap);
+    }
+
+    private static void releaseInflater(Inflater inflater, boolean nowrap) {
+        ArrayDeque<Inflater> pooled = POOL.get().inflaters(nowrap);
+        if (pooled.size() < MAX_POOLED) {
+            inflater.reset();
+            pooled.push(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Deflate compression level presets. All of them produce regular zlib and GZIP streams, so the output stays readable
+     * by anything that reads the target format.
+     */
+    public enum Level {
+        DEFAULT(Deflater.DEFAULT_COMPRESSION),
+        /**
+         * Fastest compression, for worlds that are converted again or where conversion time matters more than size.
+         */
+        SPEED(Deflater.BEST_SPEED),
+        /**
+         * Smallest output.
+         */
+        SIZE(Deflater.BEST_COMPRESSION),
+        /**
+         * Stored deflate blocks without any compression, for intermediate worlds of a multi step conversion.
+         */
+        STORE(Deflater.NO_COMPRESSION);
+
+        private final int deflaterLevel;
+
+        Level(int deflaterLevel) {
+            this.deflaterLevel = deflaterLevel;
+        }
+
+        public int getDeflaterLevel() {
+            return deflaterLevel;
+        }
+
+        /**
+         * Returns the level selected by {@link #LEVEL_CONFIG}, or {@link #DEFAULT} if it isn't set.
+         */
+        public static Level fromConfig(ConverterConfig config) {
+            if (config == null || !config.hasValue(LEVEL_CONFIG)) {
+                return DEFAULT;
+            }
+            Object value = config.getValue(LEVEL_CONFIG);
+            if (value instanceof Level) {
+                return (Level) value;
+            }
+            return valueOf(value.toString().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static class Pool {
+        final ArrayDeque<Deflater> zlibDeflaters = new ArrayDeque<>();
+        final ArrayDeque<Deflater> gzipDeflaters = new ArrayDeque<>();
+        final ArrayDeque<Inflater> zlibInflaters = new ArrayDeque<>();
+        final ArrayDeque<Inflater> gzipInflaters = new ArrayDeque<>();
+        OutputBuffer buffer = new OutputBuffer();
+
+        ArrayDeque<Deflater> deflaters(boolean nowrap) {
+            return nowrap ? gzipDeflaters : zlibDeflaters;
+        }
+
+        ArrayDeque<Inflater> inflaters(boolean nowrap) {
+            return nowrap ? gzipInflaters : zlibInflaters;
+        }
+    }
+
+    private static class OutputBuffer extends ByteArrayOutputStream {
+        OutputBuffer() {
+            super(STREAM_BUFFER_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    private static class PooledDeflaterOutputStream extends DeflaterOutputStream {
+        private final boolean nowrap;
+        private boolean closed;
+
+        PooledDeflaterOutputStream(OutputStream out, boolean nowrap, Level level) {
+            super(out, acquireDeflater(nowrap, level), STREAM_BUFFER_SIZE);
+            this.nowrap = nowrap;
+        }
+
+        @Override public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                finish();
+                out.close();
+            } finally {
+                releaseDeflater(def, nowrap);
+            }
+        }
+    }
+
+    private static class PooledGZIPOutputStream extends PooledDeflaterOutputStream {
+        private final CRC32 crc = new CRC32();
+
+        PooledGZIPOutputStream(OutputStream out, Level level) throws IOException {
+            super(out, true, level);
+            out.write(GZIP_HEADER);
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override public void finish() throws IOException {
+            if (def.finished()) {
+                return;
+            }
+            super.finish();
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, (int) def.getBytesRead());
+        }
+
+        private static void writeIntLE(OutputStream out, int value) throws IOException {
+            out.write(value);
+            out.write(value >>> 8);
+            out.write(value >>> 16);
+            out.write(value >>> 24);
+        }
+    }
+
+    private static class PooledInflaterInputStream extends InflaterInputStream {
+        private final boolean nowrap;
+        private boolean closed;
+
+        PooledInflaterInputStream(InputStream in, boolean nowrap) {
+            super(in, acquireInflater(nowrap), STREAM_BUFFER_SIZE);
+            this.nowrap = nowrap;
+        }
+
+        @Override public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.close();
+            } finally {
+                releaseInflater(inf, nowrap);
+            }
+        }
+    }
+
+    private static class PooledGZIPInputStream extends PooledInflaterInputStream {
+        private final CRC32 crc = new CRC32();
+        private boolean eos;
+
+        PooledGZIPInputStream(InputStream in) throws IOException {
+            super(in, true);
+            readHeader(in);
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (eos) {
+                return -1;
+            }
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                eos = true;
+                readTrailer();
+            } else {
+                crc.update(b, off, n);
+            }
+            return n;
+        }
+
+        private void readHeader(InputStream in) throws IOException {
+            if (readShortLE(in) != GZIP_MAGIC) {
+                throw new ZipException("Not in GZIP format");
+            }
+            if (readByte(in) != Deflater.DEFLATED) {
+                throw new ZipException("Unsupported compression method");
+            }
+            int flags = readByte(in);
+            skipBytes(in, 6); // mtime, extra flags, os
+            if ((flags & FEXTRA) != 0) {
+                skipBytes(in, readShortLE(in));
+            }
+            if ((flags & FNAME) != 0) {
+                while (readByte(in) != 0) {
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readByte(in) != 0) {
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                skipBytes(in, 2);
+            }
+        }
+
+        private void readTrailer() throws IOException {
+            // the trailer starts with whatever input the inflater didn't consume
+            int remaining = inf.getRemaining();
+            InputStream trailer = remaining > 0 ?
+                new SequenceInputStream(new ByteArrayInputStream(buf, len - remaining, remaining), in) : in;
+            long expectedCrc = readIntLE(trailer) & 0xFFFFFFFFL;
+            long expectedSize = readIntLE(trailer) & 0xFFFFFFFFL;
+            if (expectedCrc != crc.getValue() || expectedSize != (inf.getBytesWritten() & 0xFFFFFFFFL)) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+        }
+
+        private static int readIntLE(InputStream in) throws IOException {
+            return readShortLE(in) | (readShortLE(in) << 16);
+        }
+
+        private static int readShortLE(InputStream in) throws IOException {
+            return readByte(in) | (readByte(in) << 8);
+        }
+
+        private static int readByte(InputStream in) throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        private static void skipBytes(InputStream in, int n) throws IOException {
+            for (int i = 0; i < n; i++) {
+                readByte(in);
+            }
+        }
+    }
+}
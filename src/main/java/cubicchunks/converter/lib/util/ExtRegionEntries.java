@@ -0,0 +1,91 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.IKeyProvider;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+import cubicchunks.regionlib.lib.ExtRegion;
+import cubicchunks.regionlib.lib.provider.SimpleRegionProvider;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ext regions of a save section being written, where the entries the region files refuse as too big are stored.
+ *
+ * Keeps track of which regions have an ext region, so that an entry that goes back into its region file can be
+ * removed from the ext region. Readers look in the region file first and would never see it, but it would stay on disk
+ * for good.
+ */
+public class ExtRegionEntries<K extends IKey<K>> {
+
+    private static final String EXT_SUFFIX = ".ext";
+
+    private final ShardedCachedRegionProvider<K> provider;
+    // regions that have an ext region, from an earlier conversion or created by this one
+    private final Set<RegionKey> regions = ConcurrentHashMap.newKeySet();
+
+    public ExtRegionEntries(IKeyProvider<K> keyProvider, Path directory, ShardedCachedRegionProvider.Budget budget) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                regions.add(new RegionKey(name.substring(0, name.length() - EXT_SUFFIX.length())));
+            }
+        }
+        this.provider = new ShardedCachedRegionProvider<>(
+                new SimpleRegionProvider<>(keyProvider, directory,
+                        (keyProv, regionKey) -> {
+                            regions.add(regionKey);
+                            return new ExtRegion<>(directory, Collections.emptyList(), keyProv, regionKey);
+                        },
+                        (dir, key) -> Files.exists(dir.resolveSibling(key.getRegionKey().getName() + EXT_SUFFIX))
+                ),
+                budget
+        );
+    }
+
+    /**
+     * Returns the provider of the ext regions, to be used as the save section's fallback after the region files.
+     */
+    public ShardedCachedRegionProvider<K> getProvider() {
+        return provider;
+    }
+
+    /**
+     * Removes the entry from its ext region, if there is one, called before the entry is written again. If it's still
+     * too big for the region file, the save section writes it to the ext region again.
+     */
+    public void remove(K key) throws IOException {
+        if (regions.contains(key.getRegionKey())) {
+            // writing null removes the entry
+            provider.forExistingRegion(key, region -> region.writeValue(key, null));
+        }
+    }
+}
@@ -23,21 +23,39 @@
  */
 package cubicchunks.converter.lib.util;
 
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import cubicchunks.regionlib.UnsupportedDataException;
 import cubicchunks.regionlib.api.region.IRegion;
 import cubicchunks.regionlib.api.region.key.IKey;
 import cubicchunks.regionlib.api.region.key.IKeyProvider;
 import cubicchunks.regionlib.api.region.key.RegionKey;
+import cubicchunks.regionlib.lib.RegionEntryLocation;
 import cubicchunks.regionlib.util.CheckedConsumer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
 
-import static java.nio.file.StandardOpenOption.*;
-
+/**
+ * A write-only region that appends each entry to the end of the region file as soon as it's written, so only the
+ * location table is kept in memory no matter how much is written to it.
+ * <p>
+ * Overwritten entries leave unused sectors behind. Once there are more of them than used sectors the file is compacted,
+ * by copying the used sectors into a new file, and it's compacted once more when closed so that the result is laid out
+ * the same way as a region written in one go. The location table is only written to the file when it's closed.
+ * <p>
+ * Entries too big for a region file, more than {@value #MAX_SIZE} sectors, are refused with an
+ * {@link UnsupportedDataException}, so that the save section stores them with its next region provider, usually an ext
+ * region. Any older copy of a refused entry is dropped from the region file, as readers look there first.
+ */
 public class FragmentedMemoryWriteRegion<K extends IKey<K>> implements IRegion<K> {
 
     private static final int SIZE_BITS = 8;
@@ -46,24 +64,71 @@ public class FragmentedMemoryWriteRegion<K extends IKey<K>> implements IRegion<K
     private static final int MAX_SIZE = SIZE_MASK;
     private static final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
     private static final int MAX_OFFSET = OFFSET_MASK;
+    // don't bother compacting while the unused part of the file is smaller than this
+    private static final int MIN_COMPACT_SECTORS = 1024;
 
-    private final SeekableByteChannel file;
+    private final Path path;
     private final int sectorSize;
     private final int keyCount;
-    private ByteBuffer[] writeEntries;
+    private final int headerSectors;
+    private final ByteBuffer padding;
 
-    private FragmentedMemoryWriteRegion(SeekableByteChannel file,
+    // opened on the first write
+    private FileChannel file;
+    private int[] locations;
+    private int appendSector;
+    private int usedSectors;
+    private int unusedSectors;
+
+    private FragmentedMemoryWriteRegion(Path directory,
                               RegionKey regionKey,
                               IKeyProvider<K> keyProvider,
-                              int sectorSize) throws IOException {
+                              int sectorSize) {
         this.keyCount = keyProvider.getKeyCount(regionKey);
-        this.file = file;
+        this.path = directory.resolve(regionKey.getName());
         this.sectorSize = sectorSize;
+        this.headerSectors = ceilDiv(keyCount * Integer.BYTES, sectorSize);
+        this.padding = ByteBuffer.allocate(sectorSize);
     }
 
     @Override
-    public void writeValue(K key, ByteBuffer value) throws IOException {
+    public synchronized void writeValue(K key, ByteBuffer value) throws IOException {
+        if (file == null) {
+            open();
+        }
+        if (value == null) {
+            dropEntry(key.getId());
+            return;
+        }
+        value.position(0);
+        int size = value.remaining();
+        int sectorCount = ceilDiv(size + Integer.BYTES, sectorSize);
+        if (sectorCount > MAX_SIZE) {
+            dropEntry(key.getId());
+            throw new UnsupportedDataException("Entry of " + size + " bytes doesn't fit into a region file");
+        }
+        // fail before writing anything if it doesn't fit
+        int location = packed(new RegionEntryLocation(appendSector, sectorCount));
+
+        ByteBuffer sizeBuf = ByteBuffer.allocate(Integer.BYTES);
+        sizeBuf.putInt(0, size);
+        ByteBuffer pad = padding.duplicate();
+        pad.limit(sectorCount * sectorSize - size - Integer.BYTES);
+        ByteBuffer[] buffers = {sizeBuf, value, pad};
+        file.position((long) appendSector * sectorSize);
+        long remaining = (long) sectorCount * sectorSize;
+        while (remaining > 0) {
+            remaining -= file.write(buffers);
+        }
+
+        dropEntry(key.getId());
+        locations[key.getId()] = location;
+        usedSectors += sectorCount;
+        appendSector += sectorCount;
 
+        if (unusedSectors > usedSectors && unusedSectors >= MIN_COMPACT_SECTORS) {
+            compact();
+        }
     }
 
     @Override
@@ -87,8 +152,120 @@ public class FragmentedMemoryWriteRegion<K extends IKey<K>> implements IRegion<K
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (unusedSectors > 0) {
+                compact();
+            } else {
+                writeHeader(file, locations);
+            }
+        } finally {
+            file.close();
+            file = null;
+            locations = null;
+        }
+    }
+
+    private void dropEntry(int id) {
+        int old = locations[id];
+        if (old != 0) {
+            usedSectors -= unpackSize(old);
+            unusedSectors += unpackSize(old);
+            locations[id] = 0;
+        }
+    }
+
+    private void open() throws IOException {
+        file = FileChannel.open(path, CREATE, READ, WRITE);
+        locations = new int[keyCount];
+        long fileSize = file.size();
+        if (fileSize >= keyCount * Integer.BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(keyCount * Integer.BYTES);
+            while (header.hasRemaining() && file.read(header, header.position()) >= 0) {
+                // read the whole location table
+            }
+            header.clear();
+            header.asIntBuffer().get(locations);
+            for (int location : locations) {
+                usedSectors += unpackSize(location);
+            }
+        }
+        appendSector = Math.max(headerSectors, (int) ceilDiv(fileSize, sectorSize));
+        unusedSectors = Math.max(0, appendSector - headerSectors - usedSectors);
+    }
 
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        int[] newLocations = new int[keyCount];
+        int writeSector = headerSectors;
+        try (FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            out.position((long) headerSectors * sectorSize);
+            for (int i = 0; i < keyCount; i++) {
+                int location = locations[i];
+                if (location == 0) {
+                    continue;
+                }
+                int sectorCount = unpackSize(location);
+                transferFully((long) unpackOffset(location) * sectorSize, (long) sectorCount * sectorSize, out);
+                newLocations[i] = packed(new RegionEntryLocation(writeSector, sectorCount));
+                writeSector += sectorCount;
+            }
+            writeHeader(out, newLocations);
+        }
+        file.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        file = FileChannel.open(path, READ, WRITE);
+        locations = newLocations;
+        appendSector = writeSector;
+        unusedSectors = 0;
+    }
+
+    private void writeHeader(FileChannel out, int[] locations) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(keyCount * Integer.BYTES);
+        header.asIntBuffer().put(locations);
+        while (header.hasRemaining()) {
+            out.write(header, header.position());
+        }
+    }
+
+    private void transferFully(long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = file.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("Region file " + path + " ends inside of an entry at " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static int ceilDiv(int x, int y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    private static int unpackOffset(int sectorLocation) {
+        return sectorLocation >>> SIZE_BITS;
+    }
+
+    private static int unpackSize(int sectorLocation) {
+        return sectorLocation & SIZE_MASK;
+    }
+
+    private static int packed(RegionEntryLocation location) {
+        if ((location.getSize() & SIZE_MASK) != location.getSize()) {
+            throw new IllegalArgumentException("Supported entry size range is 0 to " + MAX_SIZE + ", but got " + location.getSize());
+        }
+        if ((location.getOffset() & OFFSET_MASK) != location.getOffset()) {
+            throw new IllegalArgumentException("Supported entry offset range is 0 to " + MAX_OFFSET + ", but got " + location.getOffset());
+        }
+        return location.getSize() | (location.getOffset() << SIZE_BITS);
     }
 
     public static class Builder<K extends IKey<K>> {
@@ -119,8 +296,7 @@ public class FragmentedMemoryWriteRegion<K extends IKey<K>> implements IRegion<K
         }
 
         public FragmentedMemoryWriteRegion<K> build() throws IOException {
-            SeekableByteChannel file = Files.newByteChannel(directory.resolve(regionKey.getName()), CREATE, READ, WRITE);
-            return new FragmentedMemoryWriteRegion<>(file, this.regionKey, keyProvider, this.sectorSize);
+            return new FragmentedMemoryWriteRegion<>(directory, this.regionKey, keyProvider, this.sectorSize);
         }
     }
 }
@@ -41,6 +41,7 @@ import cubicchunks.regionlib.util.WrappedException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -48,6 +49,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * A read-only region that loads the whole region file on first access.
+ *
+ * In heap mode the file is read into a heap buffer and each entry is copied out of it. In mapped mode the file is memory
+ * mapped instead, and entries are returned as read-only slices of the mapping without any copying. Java can't unmap a
+ * file explicitly, so the mapping is dropped when the region is closed and released once it and every slice of it have
+ * been garbage collected.
+ * In both modes the returned buffers have position 0 and limit at the end of the entry data.
+ */
 public class MemoryReadRegion<K extends IKey<K>> implements IRegion<K> {
 
     private final IKeyIdToSectorMap<?, ?, K> sectorMap;
@@ -56,14 +66,17 @@ public class MemoryReadRegion<K extends IKey<K>> implements IRegion<K> {
     private final RegionKey regionKey;
     private final IKeyProvider<K> keyProvider;
     private final int keyCount;
+    private final boolean mapped;
     private ByteBuffer fileBuffer;
 
     private MemoryReadRegion(SeekableByteChannel file,
             IntPackedSectorMap<K> sectorMap,
             RegionKey regionKey,
             IKeyProvider<K> keyProvider,
-            int sectorSize) throws IOException {
+            int sectorSize,
+            boolean mapped) throws IOException {
         this.file = file;
+        this.mapped = mapped;
         this.regionKey = regionKey;
         this.keyProvider = keyProvider;
         this.keyCount = keyProvider.getKeyCount(regionKey);
@@ -81,10 +94,15 @@ public class MemoryReadRegion<K extends IKey<K>> implements IRegion<K> {
 
     @Override public synchronized Optional<ByteBuffer> readValue(K key) throws IOException {
         if (fileBuffer == null) {
-            this.fileBuffer = ByteBuffer.allocate((int) file.size());
-
-            file.position(0);
-            file.read(fileBuffer);
+            if (mapped && file instanceof FileChannel) {
+                // the mapping stays valid after the channel is closed
+                this.fileBuffer = ((FileChannel) file).map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            } else {
+                this.fileBuffer = ByteBuffer.allocate((int) file.size());
+
+                file.position(0);
+                file.read(fileBuffer);
+            }
             file.close();
             file = null;
         }
@@ -114,7 +132,12 @@ public class MemoryReadRegion<K extends IKey<K>> implements IRegion<K> {
                 fileBuffer.position(sectorOffset * sectorSize + Integer.BYTES);
                 fileBuffer.limit(sectorOffset * sectorSize + Integer.BYTES + dataLength);
 
-                return Optional.of(ByteBuffer.allocate(dataLength).put(fileBuffer));
+                if (mapped) {
+                    return Optional.of(fileBuffer.slice());
+                }
+                ByteBuffer data = ByteBuffer.allocate(dataLength).put(fileBuffer);
+                data.flip();
+                return Optional.of(data);
             } catch (IOException e) {
                 throw new WrappedException(e);
             }
@@ -143,9 +166,11 @@ public class MemoryReadRegion<K extends IKey<K>> implements IRegion<K> {
         return ceilDiv(bytes, sectorSize);
     }
 
-    @Override public void close() throws IOException {
+    @Override public synchronized void close() throws IOException {
+        fileBuffer = null;
         if (file != null) {
             file.close();
+            file = null;
         }
     }
 
@@ -168,6 +193,7 @@ public class MemoryReadRegion<K extends IKey<K>> implements IRegion<K> {
         private int sectorSize = 512;
         private RegionKey regionKey;
         private IKeyProvider<K> keyProvider;
+        private boolean mapped;
         private List<IntPackedSectorMap.SpecialSectorMapEntry<K>> specialEntries = new ArrayList<>();
 
         public MemoryReadRegion.Builder<K> setDirectory(Path path) {
@@ -190,10 +216,18 @@ public class MemoryReadRegion<K extends IKey<K>> implements IRegion<K> {
             return this;
         }
 
+        /**
+         * Memory map the region file instead of reading it into a heap buffer. Entries are then read-only buffers.
+         */
+        public MemoryReadRegion.Builder<K> setMapped(boolean mapped) {
+            this.mapped = mapped;
+            return this;
+        }
+
         public MemoryReadRegion<K> build() throws IOException {
             SeekableByteChannel file = Files.newByteChannel(directory.resolve(regionKey.getName()), CREATE, READ, WRITE);
             IntPackedSectorMap<K> sectorMap = IntPackedSectorMap.readOrCreate(file, keyProvider.getKeyCount(regionKey), specialEntries);
-            return new MemoryReadRegion<>(file, sectorMap, this.regionKey, keyProvider, this.sectorSize);
+            return new MemoryReadRegion<>(file, sectorMap, this.regionKey, keyProvider, this.sectorSize, this.mapped);
         }
     }
 }
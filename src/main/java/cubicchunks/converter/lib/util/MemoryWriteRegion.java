@@ -25,8 +25,10 @@ package cubicchunks.converter.lib.util;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
+import cubicchunks.regionlib.UnsupportedDataException;
 import cubicchunks.regionlib.api.region.IRegion;
 import cubicchunks.regionlib.api.region.IRegionProvider;
 import cubicchunks.regionlib.api.region.key.IKey;
@@ -38,12 +40,30 @@ import cubicchunks.regionlib.util.CheckedConsumer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Optional;
 
+/**
+ * A write-only region that collects the written entries and writes the whole region file when closed.
+ * <p>
+ * Entries are kept on heap unpadded, with their size prefix, and are written with gathering writes, padding included.
+ * Entries of an existing region file that weren't overwritten are never read onto the heap, their sectors are copied
+ * straight into the new file with {@link FileChannel#transferTo}.
+ * <p>
+ * The layout, and so the size, of the whole file is known before anything is written, and it's always written as a new
+ * file in one sequential pass, next to the existing one and moved over it once complete. This lets the filesystem
+ * allocate it in as few extents as it can, instead of a region file growing through many small writes.
+ * <p>
+ * Entries too big for a region file, more than {@value #MAX_SIZE} sectors, are refused with an
+ * {@link UnsupportedDataException}, so that the save section stores them with its next region provider, usually an ext
+ * region. Any older copy of a refused entry is dropped from the region file, as readers look there first.
+ */
 public class MemoryWriteRegion<K extends IKey<K>> implements IRegion<K> {
 
     private static final int SIZE_BITS = 8;
@@ -53,61 +73,47 @@ public class MemoryWriteRegion<K extends IKey<K>> implements IRegion<K> {
     private static final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
     private static final int MAX_OFFSET = OFFSET_MASK;
 
-    private final SeekableByteChannel file;
+    private final Path path;
     private final int sectorSize;
     private final int keyCount;
-    private WriteEntry[] writeEntries;
+    // size prefixed entry data, not padded to sectors
+    private ByteBuffer[] writeEntries;
+    // entries removed or refused, the ones in the existing file are dropped
+    private BitSet removed;
 
-    private MemoryWriteRegion(SeekableByteChannel file,
+    private MemoryWriteRegion(Path directory,
             RegionKey regionKey,
             IKeyProvider<K> keyProvider,
-            int sectorSize) throws IOException {
+            int sectorSize) {
         this.keyCount = keyProvider.getKeyCount(regionKey);
-        this.file = file;
+        this.path = directory.resolve(regionKey.getName());
         this.sectorSize = sectorSize;
     }
 
     @Override public synchronized void writeValue(K key, ByteBuffer value) throws IOException {
+        if (writeEntries == null) {
+            writeEntries = new ByteBuffer[keyCount];
+            removed = new BitSet(keyCount);
+        }
         if (value == null) {
+            writeEntries[key.getId()] = null;
+            removed.set(key.getId());
             return;
         }
-        if (writeEntries == null) {
-            writeEntries = new WriteEntry[keyCount];
-            if (file.size() >= keyCount * Integer.BYTES) {
-                ByteBuffer fileBuffer = ByteBuffer.allocate((int) file.size());
-
-                file.position(0);
-                file.read(fileBuffer);
-
-                fileBuffer.clear();
-
-                for (int i = 0; i < keyCount; i++) {
-                    fileBuffer.limit(i * Integer.BYTES + Integer.BYTES);
-                    fileBuffer.position(i * Integer.BYTES);
-                    int loc = fileBuffer.getInt();
-                    if (loc == 0) {
-                        continue;
-                    }
-                    int sizeBytes = unpackSize(loc) * sectorSize;
-                    ByteBuffer data = ByteBuffer.allocate(sizeBytes);
-                    int offsetBytes = unpackOffset(loc) * sectorSize;
-                    fileBuffer.limit(offsetBytes + sizeBytes);
-                    fileBuffer.position(offsetBytes);
-                    data.put(fileBuffer);
-
-                    writeEntries[i] = new WriteEntry(data);
-                }
-            }
-        }
         value.position(0);
         int size = value.remaining();
-        int sizeWithSizeInfo = size + Integer.BYTES;
-        int numSectors = getSectorNumber(sizeWithSizeInfo);
+        if (getSectorNumber(size + Integer.BYTES) > MAX_SIZE) {
+            writeEntries[key.getId()] = null;
+            removed.set(key.getId());
+            throw new UnsupportedDataException("Entry of " + size + " bytes doesn't fit into a region file");
+        }
+        removed.clear(key.getId());
 
-        ByteBuffer data = ByteBuffer.allocate(numSectors * sectorSize);
+        ByteBuffer data = ByteBuffer.allocate(size + Integer.BYTES);
         data.putInt(size);
         data.put(value);
-        writeEntries[key.getId()] = new WriteEntry(data);
+        data.flip();
+        writeEntries[key.getId()] = data;
     }
 
     @Override public void writeSpecial(K key, Object marker) throws IOException {
@@ -134,30 +140,111 @@ public class MemoryWriteRegion<K extends IKey<K>> implements IRegion<K> {
         return ceilDiv(bytes, sectorSize);
     }
 
-    @Override public void close() throws IOException {
+    @Override public synchronized void close() throws IOException {
+        if (writeEntries == null) {
+            return;
+        }
+        int headerSectors = getSectorNumber(keyCount * Integer.BYTES);
+        FileChannel existing = null;
+        int[] existingLocations = null;
+        if (Files.isRegularFile(path) && Files.size(path) >= keyCount * Integer.BYTES) {
+            existing = FileChannel.open(path, READ);
+            existingLocations = readLocations(existing);
+            for (int i = removed.nextSetBit(0); i >= 0; i = removed.nextSetBit(i + 1)) {
+                existingLocations[i] = 0;
+            }
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(headerSectors * sectorSize);
+            int writePos = headerSectors;
+            for (int i = 0; i < keyCount; i++) {
+                int sectorCount;
+                if (writeEntries[i] != null) {
+                    sectorCount = getSectorNumber(writeEntries[i].remaining());
+                } else if (existingLocations != null && existingLocations[i] != 0) {
+                    sectorCount = unpackSize(existingLocations[i]);
+                } else {
+                    header.putInt(0);
+                    continue;
+                }
+                header.putInt(packed(new RegionEntryLocation(writePos, sectorCount)));
+                writePos += sectorCount;
+            }
+            header.clear();
+
+            // the existing file can only be replaced once everything that is kept from it has been copied
+            boolean replace = Files.exists(path);
+            Path target = replace ? path.resolveSibling(path.getFileName() + ".tmp") : path;
+            try (FileChannel out = FileChannel.open(target, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                ByteBuffer padding = ByteBuffer.allocate(sectorSize);
+                List<ByteBuffer> pending = new ArrayList<>();
+                pending.add(header);
+                for (int i = 0; i < keyCount; i++) {
+                    ByteBuffer entry = writeEntries[i];
+                    if (entry != null) {
+                        pending.add(entry);
+                        int padBytes = getSectorNumber(entry.remaining()) * sectorSize - entry.remaining();
+                        if (padBytes > 0) {
+                            ByteBuffer pad = padding.duplicate();
+                            pad.limit(padBytes);
+                            pending.add(pad);
+                        }
+                    } else if (existingLocations != null && existingLocations[i] != 0) {
+                        writeFully(out, pending);
+                        transferFully(existing, (long) unpackOffset(existingLocations[i]) * sectorSize,
+                                (long) unpackSize(existingLocations[i]) * sectorSize, out);
+                    }
+                }
+                writeFully(out, pending);
+            }
+            if (replace) {
+                if (existing != null) {
+                    existing.close();
+                    existing = null;
+                }
+                Files.move(target, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            writeEntries = null;
+            removed = null;
+            if (existing != null) {
+                existing.close();
+            }
+        }
+    }
+
+    private int[] readLocations(FileChannel channel) throws IOException {
         ByteBuffer header = ByteBuffer.allocate(keyCount * Integer.BYTES);
-        int writePos = ceilDiv(keyCount * Integer.BYTES, sectorSize);
-        for (WriteEntry writeEntry : writeEntries) {
-            if (writeEntry == null) {
-                header.putInt(0);
-                continue;
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // read the whole location table
+        }
+        header.clear();
+        int[] locations = new int[keyCount];
+        header.asIntBuffer().get(locations);
+        return locations;
+    }
+
+    private static void writeFully(FileChannel out, List<ByteBuffer> buffers) throws IOException {
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        int first = 0;
+        while (first < array.length) {
+            out.write(array, first, array.length - first);
+            while (first < array.length && !array[first].hasRemaining()) {
+                first++;
             }
-            int sectorCount = ceilDiv(writeEntry.buffer.capacity(), sectorSize);
-            header.putInt(packed(new RegionEntryLocation(writePos, sectorCount)));
-            writePos += sectorCount;
-        }
-        file.position(0);
-        header.position(0);
-        file.write(header);
-        for (WriteEntry writeEntry : writeEntries) {
-            if (writeEntry == null) {
-                continue;
+        }
+        buffers.clear();
+    }
+
+    private void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("Region file " + path + " ends inside of an entry at " + position);
             }
-            writeEntry.buffer.position(0);
-            file.write(writeEntry.buffer);
+            position += transferred;
+            count -= transferred;
         }
-        Arrays.fill(writeEntries, null);
-        this.file.close();
     }
 
     private static int ceilDiv(int x, int y) {
@@ -186,14 +273,6 @@ public class MemoryWriteRegion<K extends IKey<K>> implements IRegion<K> {
         return location.getSize() | (location.getOffset() << SIZE_BITS);
     }
 
-    private static class WriteEntry {
-
-        final ByteBuffer buffer;
-
-        private WriteEntry(ByteBuffer buffer) {
-            this.buffer = buffer;
-        }
-    }
     /**
      * Internal Region builder. Using it is very unsafe, there are no safeguards against using it improperly. Should only be used by
      * {@link IRegionProvider} implementations.
@@ -227,8 +306,7 @@ public class MemoryWriteRegion<K extends IKey<K>> implements IRegion<K> {
         }
 
         public MemoryWriteRegion<K> build() throws IOException {
-            SeekableByteChannel file = Files.newByteChannel(directory.resolve(regionKey.getName()), CREATE, READ, WRITE);
-            return new MemoryWriteRegion<>(file, this.regionKey, keyProvider, this.sectorSize);
+            return new MemoryWriteRegion<>(directory, this.regionKey, keyProvider, this.sectorSize);
         }
     }
 }
@@ -0,0 +1,209 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import com.flowpowered.nbt.Tag;
+import com.flowpowered.nbt.stream.NBTInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Helpers for reading and writing NBT directly on data streams, without building a tag tree.
+ *
+ * Payloads can be skipped or copied verbatim from one stream to another, and only the tags that actually need to be
+ * inspected are turned into flow-nbt tags with {@link #readTag(DataInput, int, String)}.
+ */
+public class NBTStreams {
+
+    public static final int TAG_END = 0;
+    public static final int TAG_BYTE = 1;
+    public static final int TAG_SHORT = 2;
+    public static final int TAG_INT = 3;
+    public static final int TAG_LONG = 4;
+    public static final int TAG_FLOAT = 5;
+    public static final int TAG_DOUBLE = 6;
+    public static final int TAG_BYTE_ARRAY = 7;
+    public static final int TAG_STRING = 8;
+    public static final int TAG_LIST = 9;
+    public static final int TAG_COMPOUND = 10;
+    public static final int TAG_INT_ARRAY = 11;
+    public static final int TAG_LONG_ARRAY = 12;
+
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    /**
+     * Writes the type and name of a tag. The payload has to be written by the caller.
+     */
+    public static void writeTagHeader(DataOutput out, int type, String name) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(name);
+    }
+
+    public static byte[] readByteArray(DataInput in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    public static int[] readIntArray(DataInput in) throws IOException {
+        int[] data = new int[in.readInt()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = in.readInt();
+        }
+        return data;
+    }
+
+    public static void writeByteArray(DataOutput out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    public static void writeIntArray(DataOutput out, int[] data) throws IOException {
+        out.writeInt(data.length);
+        for (int value : data) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Reads the payload of a tag whose type and name have already been read, and returns it as a flow-nbt tag.
+     */
+    public static Tag<?> readTag(DataInput in, int type, String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeTagHeader(out, type, name);
+        copyPayload(in, out, type);
+        return new NBTInputStream(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), false).readTag();
+    }
+
+    public static void skipPayload(DataInput in, int type) throws IOException {
+        copyPayload(in, null, type);
+    }
+
+    /**
+     * Copies the payload of a tag from {@code in} to {@code out} without interpreting it.
+     *
+     * @param out the output, or null to skip the payload
+     */
+    public static void copyPayload(DataInput in, DataOutput out, int type) throws IOException {
+        switch (type) {
+            case TAG_END:
+                break;
+            case TAG_BYTE:
+                copyBytes(in, out, 1);
+                break;
+            case TAG_SHORT:
+                copyBytes(in, out, 2);
+                break;
+            case TAG_INT:
+            case TAG_FLOAT:
+                copyBytes(in, out, 4);
+                break;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                copyBytes(in, out, 8);
+                break;
+            case TAG_BYTE_ARRAY:
+                copyBytes(in, out, copyInt(in, out));
+                break;
+            case TAG_STRING:
+                int length = in.readUnsignedShort();
+                if (out != null) {
+                    out.writeShort(length);
+                }
+                copyBytes(in, out, length);
+                break;
+            case TAG_LIST:
+                int elementType = in.readUnsignedByte();
+                if (out != null) {
+                    out.writeByte(elementType);
+                }
+                int count = copyInt(in, out);
+                for (int i = 0; i < count; i++) {
+                    copyPayload(in, out, elementType);
+                }
+                break;
+            case TAG_COMPOUND:
+                int childType;
+                while ((childType = in.readUnsignedByte()) != TAG_END) {
+                    String name = in.readUTF();
+                    if (out != null) {
+                        writeTagHeader(out, childType, name);
+                    }
+                    copyPayload(in, out, childType);
+                }
+                if (out != null) {
+                    out.writeByte(TAG_END);
+                }
+                break;
+            case TAG_INT_ARRAY:
+                copyBytes(in, out, copyInt(in, out) * 4L);
+                break;
+            case TAG_LONG_ARRAY:
+                copyBytes(in, out, copyInt(in, out) * 8L);
+                break;
+            default:
+                throw new IOException("Invalid NBT tag type " + type);
+        }
+    }
+
+    private static int copyInt(DataInput in, DataOutput out) throws IOException {
+        int value = in.readInt();
+        if (out != null) {
+            out.writeInt(value);
+        }
+        return value;
+    }
+
+    private static void copyBytes(DataInput in, DataOutput out, long count) throws IOException {
+        if (count < 0) {
+            throw new IOException("Negative NBT array length " + count);
+        }
+        if (out == null) {
+            while (count > 0) {
+                int skipped = in.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+                if (skipped <= 0) {
+                    // skipBytes is allowed to skip less at any time, readByte tells apart that from end of stream
+                    in.readByte();
+                    skipped = 1;
+                }
+                count -= skipped;
+            }
+            return;
+        }
+        byte[] buf = COPY_BUFFER.get();
+        while (count > 0) {
+            int n = (int) Math.min(count, buf.length);
+            in.readFully(buf, 0, n);
+            out.write(buf, 0, n);
+            count -= n;
+        }
+    }
+}
@@ -49,17 +49,37 @@ public class RWLockingCachedRegionProvider<K extends IKey<K>> implements IRegion
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Map<RegionKey, IRegion<?>> regionLocationToRegion = new ConcurrentHashMap<>(512);
-    private final int maxCacheSize = 64;
+    private volatile int maxCacheSize;
 
     private boolean closed;
 
     /**
-     * Creates a RegionProvider using the given {@code regionFactory} and {@code maxCacheSize}
+     * Creates a RegionProvider caching up to 64 regions
      *
      * @param sourceProvider provider used as source of regions
      */
     public RWLockingCachedRegionProvider(IRegionProvider<K> sourceProvider) {
+        this(sourceProvider, 64);
+    }
+
+    /**
+     * Creates a RegionProvider using the given {@code sourceProvider} and {@code maxCacheSize}
+     *
+     * @param sourceProvider provider used as source of regions
+     * @param maxCacheSize number of cached regions above which the whole cache is cleared
+     */
+    public RWLockingCachedRegionProvider(IRegionProvider<K> sourceProvider, int maxCacheSize) {
         this.sourceProvider = sourceProvider;
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Changes the number of cached regions above which the whole cache is cleared
+     *
+     * @param maxCacheSize number of cached regions above which the whole cache is cleared
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
     }
 
     @Override
@@ -233,6 +253,22 @@ public class RWLockingCachedRegionProvider<K extends IKey<K>> implements IRegion
         return Optional.empty();
     }
 
+    /**
+     * Closes and removes a single region from the cache, if it's cached. Used by readers that know a region won't be
+     * accessed again.
+     */
+    public void releaseRegion(RegionKey regionKey) throws IOException {
+        lock.writeLock().lock();
+        try {
+            IRegion<?> region = regionLocationToRegion.remove(regionKey);
+            if (region != null) {
+                region.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     public synchronized void clearRegions() throws IOException {
         lock.writeLock().lock();
         try {
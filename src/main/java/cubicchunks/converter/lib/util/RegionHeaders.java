@@ -0,0 +1,112 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import com.carrotsearch.hppc.IntArrayList;
+import cubicchunks.regionlib.api.region.key.IKeyProvider;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lists region files and the entries in them by reading only the location table at the start of each file, which is
+ * 4 bytes per entry, instead of opening the region or touching any entry data.
+ */
+public class RegionHeaders {
+
+    public static final Comparator<RegionKey> BY_NAME = Comparator.comparing(RegionKey::getName);
+
+    /**
+     * Returns the keys of all region files in the directory that are valid for the key provider, sorted by name.
+     * Returns an empty list if the directory doesn't exist.
+     */
+    public static List<RegionKey> listRegions(Path directory, IKeyProvider<?> keyProvider) throws IOException {
+        return listRegions(directory, keyProvider, BY_NAME);
+    }
+
+    /**
+     * Returns the keys of all region files in the directory that are valid for the key provider, in the given order.
+     * Returns an empty list if the directory doesn't exist.
+     */
+    public static List<RegionKey> listRegions(Path directory, IKeyProvider<?> keyProvider, Comparator<RegionKey> order) throws IOException {
+        List<RegionKey> regions = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return regions;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                RegionKey key = new RegionKey(file.getFileName().toString());
+                if (keyProvider.isValid(key) && Files.isRegularFile(file)) {
+                    regions.add(key);
+                }
+            }
+        }
+        regions.sort(order);
+        return regions;
+    }
+
+    /**
+     * Returns the ids of the entries stored in the region file, in increasing order. A location of 0 means there is no
+     * entry, and a file too short to hold the whole location table is read as if the rest of it was 0.
+     */
+    public static IntArrayList readEntryIds(Path regionFile, int keyCount) throws IOException {
+        BitSet present = readPresence(regionFile, keyCount);
+        IntArrayList ids = new IntArrayList(present.cardinality());
+        for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns a bitmap with a bit set for the id of each entry stored in the region file, so that the entries of the
+     * same region from other providers can be merged in with {@link BitSet#or} instead of looking up each key.
+     */
+    public static BitSet readPresence(Path regionFile, int keyCount) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(keyCount * Integer.BYTES);
+        try (FileChannel channel = FileChannel.open(regionFile, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole location table
+            }
+        }
+        header.clear();
+        BitSet present = new BitSet(keyCount);
+        for (int id = 0; id < keyCount; id++) {
+            if (header.getInt(id * Integer.BYTES) != 0) {
+                present.set(id);
+            }
+        }
+        return present;
+    }
+}
@@ -0,0 +1,699 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.regionlib.api.region.IRegion;
+import cubicchunks.regionlib.api.region.IRegionProvider;
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+import cubicchunks.regionlib.util.CheckedBiConsumer;
+import cubicchunks.regionlib.util.CheckedConsumer;
+import cubicchunks.regionlib.util.CheckedFunction;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A region caching provider split into independently evicted segments, with a memory budget in bytes which may be
+ * shared with other caches.
+ *
+ * Lookups of cached regions don't take any locks. When the caches sharing a budget go over it, regions are evicted one
+ * at a time using the CLOCK (second chance) policy, so hot regions stay open. Evicted regions that have been written to
+ * are closed (and so written to disk) in the background, a region being written back is never reopened until it's done.
+ * If a background write-back fails, every later use of the cache fails with it, as its data has been lost.
+ *
+ * Writes are stamped through the {@link Budget}, which tracks the oldest write that hasn't been written back yet, so
+ * that progress can be recorded without flushing.
+ */
+public class ShardedCachedRegionProvider<K extends IKey<K>> implements IRegionProvider<K>, Flushable {
+
+    private static final int SEGMENTS = 16;
+    // rough memory cost of an open region that hasn't had anything written to it (header, channel, buffers)
+    private static final long REGION_BASE_WEIGHT = 64 * 1024;
+    private static final int WRITE_BACK_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    // regions in use during a flush are retried with a growing pause in between, until the timeout
+    private static final long FLUSH_TIMEOUT_SECONDS = 60;
+    private static final long FLUSH_MIN_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long FLUSH_MAX_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static final ExecutorService WRITE_BACK_EXECUTOR;
+
+    /**
+     * Config option with the heap, in bytes, the region caches of a writer may use together.
+     */
+    public static final String HEAP_BUDGET = "regionCacheHeapBudget";
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WRITE_BACK_THREADS, WRITE_BACK_THREADS, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat("Region write-back thread %d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        WRITE_BACK_EXECUTOR = executor;
+    }
+
+    private final IRegionProvider<K> sourceProvider;
+    private final boolean asyncWriteBack;
+    private final Budget budget;
+
+    private final List<Segment> segments;
+    private final ConcurrentHashMap<RegionKey, CompletableFuture<Void>> pendingCloses = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+    // the first background write-back that failed
+    private volatile IOException writeBackFailure;
+
+    /**
+     * Creates a cache with a budget of its own of {@link Budget#defaultBytes()} and asynchronous write-back.
+     *
+     * @param sourceProvider provider used as source of regions
+     */
+    public ShardedCachedRegionProvider(IRegionProvider<K> sourceProvider) {
+        this(sourceProvider, new Budget(Budget.defaultBytes()), true);
+    }
+
+    /**
+     * Creates a cache with asynchronous write-back, sharing the given budget.
+     *
+     * @param sourceProvider provider used as source of regions
+     * @param budget memory shared with the other caches using it
+     */
+    public ShardedCachedRegionProvider(IRegionProvider<K> sourceProvider, Budget budget) {
+        this(sourceProvider, budget, true);
+    }
+
+    /**
+     * @param sourceProvider provider used as source of regions
+     * @param maxBytes approximate amount of memory the cached regions may use
+     * @param asyncWriteBack whether evicted regions with written data should be closed in the background
+     */
+    public ShardedCachedRegionProvider(IRegionProvider<K> sourceProvider, long maxBytes, boolean asyncWriteBack) {
+        this(sourceProvider, new Budget(maxBytes), asyncWriteBack);
+    }
+
+    /**
+     * @param sourceProvider provider used as source of regions
+     * @param budget memory shared with the other caches using it
+     * @param asyncWriteBack whether evicted regions with written data should be closed in the background
+     */
+    public ShardedCachedRegionProvider(IRegionProvider<K> sourceProvider, Budget budget, boolean asyncWriteBack) {
+        this.sourceProvider = sourceProvider;
+        this.asyncWriteBack = asyncWriteBack;
+        this.budget = budget;
+        this.segments = new ArrayList<>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments.add(new Segment());
+        }
+        budget.segments.addAll(segments);
+    }
+
+    @Override
+    public <R> Optional<R> fromExistingRegion(K key, CheckedFunction<? super IRegion<K>, R, IOException> func) throws IOException {
+        return withRegion(key, func, false);
+    }
+
+    @Override
+    public <R> R fromRegion(K key, CheckedFunction<? super IRegion<K>, R, IOException> func) throws IOException {
+        return withRegion(key, func, true).get();
+    }
+
+    @Override
+    public void forRegion(K key, CheckedConsumer<? super IRegion<K>, IOException> cons) throws IOException {
+        withRegion(key, region -> {
+            cons.accept(region);
+            return Boolean.TRUE;
+        }, true);
+    }
+
+    @Override
+    public void forExistingRegion(K key, CheckedConsumer<? super IRegion<K>, IOException> cons) throws IOException {
+        withRegion(key, region -> {
+            cons.accept(region);
+            return Boolean.TRUE;
+        }, false);
+    }
+
+    @Override public IRegion<K> getRegion(K key) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override public Optional<IRegion<K>> getExistingRegion(K key) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override public void forAllRegions(CheckedBiConsumer<RegionKey, ? super IRegion<K>, IOException> consumer) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Already closed");
+        }
+        sourceProvider.forAllRegions(consumer);
+    }
+
+    @Override public synchronized void close() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Already closed");
+        }
+        closed = true;
+        budget.segments.removeAll(segments);
+        IOException exception = null;
+        // other caches sharing the budget may be evicting from this one
+        for (Segment segment : segments) {
+            segment.evictLock.lock();
+        }
+        try {
+            for (CachedRegion region : inSpatialOrder()) {
+                // nothing can be using the regions anymore, so this can't fail
+                region.pins.set(-1);
+                region.segment.regions.remove(region.regionKey, region);
+                region.segment.addWeight(-region.weight.get());
+                try {
+                    region.delegate.close();
+                    budget.dirty.remove(region);
+                } catch (IOException e) {
+                    if (exception == null) {
+                        exception = e;
+                    } else {
+                        exception.addSuppressed(e);
+                    }
+                }
+            }
+        } finally {
+            for (Segment segment : segments) {
+                segment.evictLock.unlock();
+            }
+        }
+        exception = joinPendingCloses(exception);
+        try {
+            this.sourceProvider.close();
+        } catch (IOException e) {
+            if (exception == null) {
+                exception = e;
+            } else {
+                exception.addSuppressed(e);
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Writes back all cached regions that have been written to, and waits for the regions that are already being
+     * written back in the background. Once this returns, everything written before it was called has been handed to
+     * the region files. Flushed regions are reopened when they are used again.
+     *
+     * Only the segment of the region being written back is locked, and regions that are in use are skipped and retried
+     * after the others, so a flush doesn't hold up writes to the cache. If a region is still in use after
+     * {@value #FLUSH_TIMEOUT_SECONDS} seconds of retrying, the flush fails.
+     */
+    @Override public void flush() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Already closed");
+        }
+        checkWriteBack();
+        IOException exception = null;
+        List<CachedRegion> regions = inSpatialOrder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(FLUSH_TIMEOUT_SECONDS);
+        long retryNanos = FLUSH_MIN_RETRY_NANOS;
+        while (true) {
+            List<CachedRegion> busy = new ArrayList<>();
+            for (CachedRegion region : regions) {
+                if (!region.dirty) {
+                    continue;
+                }
+                region.segment.evictLock.lock();
+                try {
+                    int pins = region.tryPinForEviction();
+                    if (pins > 0) {
+                        busy.add(region);
+                    } else if (pins == 0) {
+                        region.segment.evict(region, false);
+                    }
+                } catch (IOException e) {
+                    if (exception == null) {
+                        exception = e;
+                    } else {
+                        exception.addSuppressed(e);
+                    }
+                } finally {
+                    region.segment.evictLock.unlock();
+                }
+            }
+            if (busy.isEmpty()) {
+                break;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                IOException e = new IOException(busy.size() + " regions, including " + busy.get(0).regionKey.getName()
+                    + ", were still in use after " + FLUSH_TIMEOUT_SECONDS + " seconds");
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+                break;
+            }
+            LockSupport.parkNanos(retryNanos);
+            retryNanos = Math.min(retryNanos * 2, FLUSH_MAX_RETRY_NANOS);
+            regions = busy;
+        }
+        exception = joinPendingCloses(exception);
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    // regions written out one after another end up next to each other on disk, so write nearby regions together
+    private List<CachedRegion> inSpatialOrder() {
+        List<CachedRegion> regions = new ArrayList<>();
+        for (Segment segment : segments) {
+            regions.addAll(segment.regions.values());
+        }
+        regions.sort((a, b) -> SpatialOrder.REGIONS.compare(a.regionKey, b.regionKey));
+        return regions;
+    }
+
+    private IOException joinPendingCloses(IOException exception) {
+        for (CompletableFuture<Void> future : new ArrayList<>(pendingCloses.values())) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                IOException cause = e.getCause() instanceof UncheckedIOException ?
+                    ((UncheckedIOException) e.getCause()).getCause() : new IOException(e.getCause());
+                if (exception == null) {
+                    exception = cause;
+                } else {
+                    exception.addSuppressed(cause);
+                }
+            }
+        }
+        return exception;
+    }
+
+    private <R> Optional<R> withRegion(K location, CheckedFunction<? super IRegion<K>, R, IOException> func, boolean canCreate) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Already closed");
+        }
+        checkWriteBack();
+        RegionKey regionKey = location.getRegionKey();
+        Segment segment = segments.get((regionKey.hashCode() * 0x9E3779B9 >>> 16) & (SEGMENTS - 1));
+
+        CachedRegion region;
+        do {
+            region = segment.regions.get(regionKey);
+            if (region == null) {
+                region = segment.load(location, regionKey, canCreate);
+                if (region == null) {
+                    return Optional.empty();
+                }
+            }
+            // if pinning fails, the region was evicted between lookup and pinning, try again
+        } while (!region.pin());
+
+        try {
+            region.referenced = true;
+            return Optional.of(func.apply(region));
+        } finally {
+            region.pins.decrementAndGet();
+            budget.evictIfNeeded(segment);
+        }
+    }
+
+    private void checkWriteBack() throws IOException {
+        IOException failure = writeBackFailure;
+        if (failure != null) {
+            throw new IOException("Writing back an evicted region failed", failure);
+        }
+    }
+
+    private void awaitPendingClose(RegionKey regionKey) throws IOException {
+        CompletableFuture<Void> pending = pendingCloses.get(regionKey);
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private class Segment {
+
+        private final ConcurrentHashMap<RegionKey, CachedRegion> regions = new ConcurrentHashMap<>();
+        private final AtomicLong weight = new AtomicLong();
+        private final ReentrantLock evictLock = new ReentrantLock();
+        // the CLOCK hand, continues from where the last eviction stopped
+        private Iterator<CachedRegion> hand;
+
+        CachedRegion load(K location, RegionKey regionKey, boolean canCreate) throws IOException {
+            while (true) {
+                // the file may still be in the process of being written after eviction, wait for that outside of the map
+                // so that other regions in the same bin of the map can still be loaded
+                awaitPendingClose(regionKey);
+                boolean[] evicted = new boolean[1];
+                CachedRegion cached;
+                try {
+                    cached = regions.computeIfAbsent(regionKey, k -> {
+                        if (pendingCloses.containsKey(regionKey)) {
+                            // evicted again since it was awaited
+                            evicted[0] = true;
+                            return null;
+                        }
+                        try {
+                            IRegion<K> region = canCreate ? sourceProvider.getRegion(location) : sourceProvider.getExistingRegion(location).orElse(null);
+                            if (region == null) {
+                                return null;
+                            }
+                            addWeight(REGION_BASE_WEIGHT);
+                            return new CachedRegion(this, regionKey, region);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                if (!evicted[0]) {
+                    return cached;
+                }
+            }
+        }
+
+        void addWeight(long delta) {
+            weight.addAndGet(delta);
+            budget.weight.addAndGet(delta);
+        }
+
+        void evictIfNeeded() throws IOException {
+            if (!budget.isExceeded() || !evictLock.tryLock()) {
+                // another thread is already evicting from this segment
+                return;
+            }
+            try {
+                if (closed) {
+                    return;
+                }
+                int attempts = regions.size() * 2;
+                while (budget.isExceeded() && attempts-- > 0) {
+                    if (hand == null || !hand.hasNext()) {
+                        hand = regions.values().iterator();
+                        if (!hand.hasNext()) {
+                            return;
+                        }
+                    }
+                    CachedRegion region = hand.next();
+                    if (region.referenced) {
+                        region.referenced = false;
+                        continue;
+                    }
+                    if (region.pins.compareAndSet(0, -1)) {
+                        evict(region, asyncWriteBack);
+                    }
+                }
+            } finally {
+                evictLock.unlock();
+            }
+        }
+
+        private void evict(CachedRegion region, boolean async) throws IOException {
+            addWeight(-region.weight.get());
+            if (!region.dirty || !async) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                pendingCloses.put(region.regionKey, future);
+                regions.remove(region.regionKey, region);
+                try {
+                    region.delegate.close();
+                    budget.dirty.remove(region);
+                    future.complete(null);
+                } catch (IOException e) {
+                    future.completeExceptionally(new UncheckedIOException(e));
+                    throw e;
+                } finally {
+                    pendingCloses.remove(region.regionKey, future);
+                }
+                return;
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            pendingCloses.put(region.regionKey, future);
+            regions.remove(region.regionKey, region);
+            WRITE_BACK_EXECUTOR.execute(() -> {
+                try {
+                    region.delegate.close();
+                    budget.dirty.remove(region);
+                    future.complete(null);
+                    pendingCloses.remove(region.regionKey, future);
+                } catch (Throwable t) {
+                    // keep the failed future around so that close() reports it
+                    future.completeExceptionally(t instanceof IOException ? new UncheckedIOException((IOException) t) : t);
+                    synchronized (pendingCloses) {
+                        if (writeBackFailure == null) {
+                            writeBackFailure = t instanceof IOException ? (IOException) t : new IOException(t);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Memory shared by a group of caches, usually all the caches of one writer.
+     *
+     * Caches are evicted from as they're used. A segment over its share of the budget evicts its own cold regions first,
+     * after that the segments of all caches are evicted from in turn, so caches that aren't used anymore give up their
+     * memory as well.
+     */
+    public static class Budget {
+
+        private final long maxBytes;
+        private final AtomicLong weight = new AtomicLong();
+        private final List<ShardedCachedRegionProvider<?>.Segment> segments = new CopyOnWriteArrayList<>();
+        // the segment the next eviction from other caches starts at
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicLong writeStamp = new AtomicLong();
+        // regions with writes that haven't been written back yet
+        private final Set<ShardedCachedRegionProvider<?>.CachedRegion> dirty = ConcurrentHashMap.newKeySet();
+
+        /**
+         * @param maxBytes approximate amount of memory the cached regions of all caches using this budget may use
+         */
+        public Budget(long maxBytes) {
+            this.maxBytes = Math.max(REGION_BASE_WEIGHT, maxBytes);
+        }
+
+        /**
+         * Returns the budget set by the {@link #HEAP_BUDGET} config option, or {@link #defaultBytes()} if it isn't set.
+         */
+        public static Budget fromConfig(ConverterConfig config) {
+            return new Budget(config.hasValue(HEAP_BUDGET) ? config.getLong(HEAP_BUDGET) : defaultBytes());
+        }
+
+        public static long defaultBytes() {
+            return Runtime.getRuntime().maxMemory() / 4;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public long getUsedBytes() {
+            return weight.get();
+        }
+
+        /**
+         * Returns a stamp at least as high as the stamps of all writes to the caches using this budget that have returned.
+         */
+        public long getWriteStamp() {
+            return writeStamp.get();
+        }
+
+        /**
+         * Returns the stamp of the oldest write to the caches using this budget that hasn't been written back to its region
+         * file yet, or {@link Long#MAX_VALUE} if there is none.
+         */
+        public long getOldestPendingWrite() {
+            long oldest = Long.MAX_VALUE;
+            for (ShardedCachedRegionProvider<?>.CachedRegion region : dirty) {
+                // a region without a stamp yet doesn't have anything written to it
+                oldest = Math.min(oldest, region.dirtySince.get());
+            }
+            return oldest;
+        }
+
+        boolean isExceeded() {
+            return weight.get() > maxBytes;
+        }
+
+        void evictIfNeeded(ShardedCachedRegionProvider<?>.Segment used) throws IOException {
+            if (!isExceeded()) {
+                return;
+            }
+            List<ShardedCachedRegionProvider<?>.Segment> all = new ArrayList<>(segments);
+            if (all.isEmpty() || used.weight.get() > maxBytes / all.size()) {
+                used.evictIfNeeded();
+            }
+            for (int i = 0; i < all.size() && isExceeded(); i++) {
+                all.get(Math.floorMod(next.getAndIncrement(), all.size())).evictIfNeeded();
+            }
+        }
+    }
+
+    /**
+     * An open region in the cache. Pins count the threads currently using the region, -1 means it has been evicted.
+     *
+     * Several threads may use a region at once. The regions written by this converter synchronize their writes
+     * themselves, any other region (such as a regionlib Region or ExtRegion) is only used by one thread at a time.
+     */
+    private class CachedRegion implements IRegion<K> {
+
+        final Segment segment;
+        final RegionKey regionKey;
+        final IRegion<K> delegate;
+        final boolean serialized;
+        final AtomicInteger pins = new AtomicInteger();
+        final AtomicLong weight = new AtomicLong(REGION_BASE_WEIGHT);
+        // stamp of the first write since the region was opened
+        final AtomicLong dirtySince = new AtomicLong(Long.MAX_VALUE);
+        volatile boolean referenced = true;
+        volatile boolean dirty;
+
+        CachedRegion(Segment segment, RegionKey regionKey, IRegion<K> delegate) {
+            this.segment = segment;
+            this.regionKey = regionKey;
+            this.delegate = delegate;
+            this.serialized = !(delegate instanceof MemoryWriteRegion) && !(delegate instanceof FragmentedMemoryWriteRegion);
+        }
+
+        boolean pin() {
+            int p;
+            do {
+                p = pins.get();
+                if (p < 0) {
+                    return false;
+                }
+            } while (!pins.compareAndSet(p, p + 1));
+            return true;
+        }
+
+        /**
+         * Marks the region as evicted if no thread is using it. Returns the number of threads using it, which is 0 if
+         * it has been marked, or -1 if it had already been evicted.
+         */
+        int tryPinForEviction() {
+            while (true) {
+                int p = pins.get();
+                if (p != 0 || pins.compareAndSet(0, -1)) {
+                    return p;
+                }
+            }
+        }
+
+        private void markDirty() {
+            dirty = true;
+            if (dirtySince.get() != Long.MAX_VALUE) {
+                return;
+            }
+            // registered before the stamp is set, a region with a stamp is always found by getOldestPendingWrite()
+            budget.dirty.add(this);
+            long stamp = budget.writeStamp.incrementAndGet();
+            dirtySince.accumulateAndGet(stamp, Math::min);
+        }
+
+        @Override public void writeValue(K key, ByteBuffer value) throws IOException {
+            int size = value == null ? 0 : value.remaining();
+            markDirty();
+            access(region -> {
+                region.writeValue(key, value);
+                return null;
+            });
+            // only counted once the region has taken it, entries refused as too big are stored elsewhere
+            // a fragmented region writes entries out as they come, so it only weighs as much as its location table
+            if (!(delegate instanceof FragmentedMemoryWriteRegion)) {
+                weight.addAndGet(size);
+                segment.addWeight(size);
+            }
+        }
+
+        @Override public void writeSpecial(K key, Object marker) throws IOException {
+            markDirty();
+            access(region -> {
+                region.writeSpecial(key, marker);
+                return null;
+            });
+        }
+
+        @Override public Optional<ByteBuffer> readValue(K key) throws IOException {
+            return access(region -> region.readValue(key));
+        }
+
+        @Override public boolean hasValue(K key) {
+            if (!serialized) {
+                return delegate.hasValue(key);
+            }
+            synchronized (this) {
+                return delegate.hasValue(key);
+            }
+        }
+
+        @Override public void forEachKey(CheckedConsumer<? super K, IOException> cons) throws IOException {
+            access(region -> {
+                region.forEachKey(cons);
+                return null;
+            });
+        }
+
+        private <R> R access(CheckedFunction<? super IRegion<K>, R, IOException> action) throws IOException {
+            if (!serialized) {
+                return action.apply(delegate);
+            }
+            synchronized (this) {
+                return action.apply(delegate);
+            }
+        }
+
+        @Override public void close() {
+            throw new UnsupportedOperationException("Cached regions are closed by the cache");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import cubicchunks.regionlib.api.region.key.RegionKey;
+
+import java.util.Comparator;
+
+/**
+ * Orders region keys along a Z-order (Morton) curve of the coordinates in their names, so that regions next to each
+ * other in the world are also close to each other in the order. Works for any region name made of integer coordinates
+ * and non numeric parts, like {@code r.1.-2.mca}, {@code 1.-2.2dr} and {@code 1.0.-2.3dr}.
+ */
+public class SpatialOrder {
+
+    public static final Comparator<RegionKey> REGIONS = Comparator.comparingLong(SpatialOrder::mortonCode)
+            .thenComparing(RegionKey::getName);
+
+    // 21 bits per coordinate, so that up to 3 of them fit into a long
+    private static final int BITS = 21;
+    private static final int BIAS = 1 << (BITS - 1);
+
+    /**
+     * Returns the Morton code of the integer parts of the region name, with coordinates offset to be non negative. Only
+     * the first 3 coordinates are used, and 0 is returned for names without any.
+     */
+    public static long mortonCode(RegionKey key) {
+        String[] parts = key.getName().split("\\.");
+        long code = 0;
+        int count = 0;
+        for (String part : parts) {
+            if (count == 3) {
+                break;
+            }
+            int coord;
+            try {
+                coord = Integer.parseInt(part);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            code |= spread((coord + BIAS) & ((1 << BITS) - 1)) << (2 - count);
+            count++;
+        }
+        return code;
+    }
+
+    // inserts 2 zero bits between each of the low 21 bits
+    private static long spread(long x) {
+        x = (x | x << 32) & 0x1F00000000FFFFL;
+        x = (x | x << 16) & 0x1F0000FF0000FFL;
+        x = (x | x << 8) & 0x100F00F00F00F00FL;
+        x = (x | x << 4) & 0x10C30C30C30C30C3L;
+        x = (x | x << 2) & 0x1249249249249249L;
+        return x;
+    }
+}
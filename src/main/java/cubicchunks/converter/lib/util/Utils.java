@@ -31,9 +31,10 @@ import cubicchunks.regionlib.util.CheckedFunction;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
@@ -49,11 +50,6 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.InflaterInputStream;
 
 public class Utils {
 
@@ -171,48 +167,58 @@ public class Utils {
         Files.copy(srcFile, dstFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
     }
 
+    /**
+     * Returns a stream of the remaining bytes of the given buffer. Doesn't copy the data or change the position of the buffer,
+     * so it also works for direct and read-only buffers.
+     */
+    public static InputStream asInputStream(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            return new ByteArrayInputStream(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        }
+        return new ByteBufferInputStream(buf.duplicate());
+    }
+
     public static CompoundTag readCompressed(InputStream is) throws IOException {
-        int i = is.read();
-        BufferedInputStream data;
-        if (i == 1) {
-            data = new BufferedInputStream(new GZIPInputStream(is));
-        } else if (i == 2) {
-            data = new BufferedInputStream(new InflaterInputStream(is));
-        } else {
-            throw new UnsupportedOperationException();
+        try (BufferedInputStream data = openCompressed(is)) {
+            return (CompoundTag) new NBTInputStream(data, false).readTag();
         }
+    }
 
-        return (CompoundTag) new NBTInputStream(data, false).readTag();
+    /**
+     * Returns a stream of the uncompressed data of a region entry, with the compression type given by the first byte.
+     * The stream should be closed to return the inflater to the pool.
+     */
+    public static BufferedInputStream openCompressed(InputStream is) throws IOException {
+        return new BufferedInputStream(Compression.decompressPrefixed(is));
     }
 
     public static CompoundTag readCompressedCC(InputStream is) throws IOException {
-        BufferedInputStream data = new BufferedInputStream(new GZIPInputStream(is));
-        return (CompoundTag) new NBTInputStream(data, false).readTag();
+        try (BufferedInputStream data = new BufferedInputStream(Compression.gzipInput(is))) {
+            return (CompoundTag) new NBTInputStream(data, false).readTag();
+        }
     }
 
     @Deprecated
     public static ByteBuffer writeCompressed(CompoundTag tag, boolean prefixFormat) throws IOException {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        if (prefixFormat) {
-            bytes.write(1); // mark as GZIP
-        }
-        NBTOutputStream nbtOut = new NBTOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)), false);
-        nbtOut.writeTag(tag);
-        nbtOut.close();
-        bytes.flush();
-        return ByteBuffer.wrap(bytes.toByteArray());
+        return writeCompressed(tag, prefixFormat, Compression.Level.DEFAULT);
+    }
+
+    public static ByteBuffer writeCompressed(CompoundTag tag, boolean prefixFormat, Compression.Level level) throws IOException {
+        return Compression.compress(Compression.FORMAT_GZIP, level, prefixFormat, out -> writeTag(tag, out));
     }
 
     public static ByteBuffer writeCompressedZlib(CompoundTag tag, boolean prefixFormat) throws IOException {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        if (prefixFormat) {
-            bytes.write(2); // mark as Zlib
-        }
-        NBTOutputStream nbtOut = new NBTOutputStream(new BufferedOutputStream(new DeflaterOutputStream(bytes)), false);
+        return writeCompressedZlib(tag, prefixFormat, Compression.Level.DEFAULT);
+    }
+
+    public static ByteBuffer writeCompressedZlib(CompoundTag tag, boolean prefixFormat, Compression.Level level) throws IOException {
+        return Compression.compress(Compression.FORMAT_ZLIB, level, prefixFormat, out -> writeTag(tag, out));
+    }
+
+    private static void writeTag(CompoundTag tag, OutputStream out) throws IOException {
+        NBTOutputStream nbtOut = new NBTOutputStream(new BufferedOutputStream(out), false);
         nbtOut.writeTag(tag);
-        nbtOut.close();
-        bytes.flush();
-        return ByteBuffer.wrap(bytes.toByteArray());
+        nbtOut.flush();
     }
 
     /**
@@ -293,4 +299,39 @@ public class Utils {
         }
         return workingDirectory;
     }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+
+        @Override public int available() {
+            return buf.remaining();
+        }
+    }
 }
@@ -5,7 +5,6 @@ import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
 import net.daporkchop.rocksmc.converter.data.RocksLocalCubicData;
 import net.daporkchop.rocksmc.util.ChunkCompressUtils;
 
-import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
@@ -20,7 +19,7 @@ public class CC2RocksLocalCubicDataConverter implements ChunkDataConverter<Cubic
         return Collections.singleton(new RocksLocalCubicData(
                 input.getDimension(),
                 input.getPosition(),
-                input.getColumnData() != null ? ChunkCompressUtils.decompressCubicChunks(((ByteBuffer) input.getColumnData().flip())) : null,
-                input.getCubeData().entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> ChunkCompressUtils.decompressCubicChunks(((ByteBuffer) e.getValue().flip()))))));
+                input.getColumnData() != null ? ChunkCompressUtils.decompressCubicChunks(input.getColumnData()) : null,
+                input.getCubeData().entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> ChunkCompressUtils.decompressCubicChunks(e.getValue())))));
     }
 }
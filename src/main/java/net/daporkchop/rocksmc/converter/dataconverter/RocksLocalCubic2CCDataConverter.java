@@ -1,7 +1,9 @@
 package net.daporkchop.rocksmc.converter.dataconverter;
 
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.CubicChunksColumnData;
+import cubicchunks.converter.lib.util.Compression;
 import net.daporkchop.rocksmc.converter.data.RocksLocalCubicData;
 import net.daporkchop.rocksmc.util.ChunkCompressUtils;
 
@@ -14,12 +16,18 @@ import java.util.stream.Collectors;
  * @author DaPorkchop_
  */
 public class RocksLocalCubic2CCDataConverter implements ChunkDataConverter<RocksLocalCubicData, CubicChunksColumnData> {
+    protected final Compression.Level compressionLevel;
+
+    public RocksLocalCubic2CCDataConverter(ConverterConfig config) {
+        this.compressionLevel = Compression.Level.fromConfig(config);
+    }
+
     @Override
     public Set<CubicChunksColumnData> convert(RocksLocalCubicData input) {
         return Collections.singleton(new CubicChunksColumnData(
                 input.getDimension(),
                 input.getPosition(),
-                ChunkCompressUtils.compressCubicChunks(input.getColumnData()),
-                input.getCubeData().entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> ChunkCompressUtils.compressCubicChunks(e.getValue())))));
+                ChunkCompressUtils.compressCubicChunks(input.getColumnData(), this.compressionLevel),
+                input.getCubeData().entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> ChunkCompressUtils.compressCubicChunks(e.getValue(), this.compressionLevel)))));
     }
 }
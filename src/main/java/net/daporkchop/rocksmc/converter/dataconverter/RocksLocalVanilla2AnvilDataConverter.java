@@ -1,7 +1,9 @@
 package net.daporkchop.rocksmc.converter.dataconverter;
 
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataConverter;
 import cubicchunks.converter.lib.convert.data.AnvilChunkData;
+import cubicchunks.converter.lib.util.Compression;
 import cubicchunks.regionlib.impl.MinecraftChunkLocation;
 import net.daporkchop.rocksmc.converter.data.RocksLocalVanillaColumnData;
 import net.daporkchop.rocksmc.util.ChunkCompressUtils;
@@ -13,12 +15,18 @@ import java.util.Set;
  * @author DaPorkchop_
  */
 public class RocksLocalVanilla2AnvilDataConverter implements ChunkDataConverter<RocksLocalVanillaColumnData, AnvilChunkData> {
+    protected final Compression.Level compressionLevel;
+
+    public RocksLocalVanilla2AnvilDataConverter(ConverterConfig config) {
+        this.compressionLevel = Compression.Level.fromConfig(config);
+    }
+
     @Override
     public Set<AnvilChunkData> convert(RocksLocalVanillaColumnData input) {
         return Collections.singleton(new AnvilChunkData(
                 input.getDimension(),
                 new MinecraftChunkLocation(input.getPosition().getX(), input.getPosition().getY(), "mca"),
-                ChunkCompressUtils.compressAnvil(input.getColumnData()),
+                ChunkCompressUtils.compressAnvil(input.getColumnData(), this.compressionLevel),
                 input.offsetSections));
     }
 }
@@ -21,29 +21,56 @@
 package net.daporkchop.rocksmc.converter.io;
 
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import cubicchunks.converter.lib.convert.ConversionJournal;
+import cubicchunks.converter.lib.convert.ResumableChunkReader;
 import cubicchunks.converter.lib.convert.io.BaseMinecraftReader;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
 import cubicchunks.converter.lib.util.Utils;
+import cubicchunks.converter.lib.util.Vector2i;
+import cubicchunks.converter.lib.util.Vector3i;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.util.CheckedFunction;
 import net.daporkchop.rocksmc.converter.data.RocksLocalCubicData;
 import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
 import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.daporkchop.rocksmc.util.RocksProfile;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 
 /**
+ * Reads whole columns (the column and all of its cubes) at once.
+ * <p>
+ * Columns and cubes are stored in Morton order, so the columns and cubes in an aligned square or cube are next to each other in the database.
+ * While counting, the 2d regions columns would be in and the cells along the Y axis which contain cubes are gathered. Each region is then loaded
+ * in cells of {@code 8x8} columns, with one sequential scan for the columns and one for each Y cell of the cubes, so that whole columns can be
+ * emitted without looking up every column and cube individually. Regions are loaded in parallel, and are tracked by the conversion journal.
+ *
  * @author DaPorkchop_
  */
-public class RocksLocalCubicReader extends BaseMinecraftReader<RocksLocalCubicData, IBinaryCubeStorage> {
+public class RocksLocalCubicReader extends BaseMinecraftReader<RocksLocalCubicData, IBinaryCubeStorage> implements ResumableChunkReader<RocksLocalCubicData> {
+    //side length of a 2d region in columns, as used by EntryLocation2D
+    private static final int REGION_BITS = 5;
+    //side length of the cells regions are loaded in, 8x8 columns and 8x8x8 cubes
+    private static final int CELL_BITS = 3;
+    //number of longs in the bitmap of a region's columns
+    private static final int REGION_COLUMN_WORDS = (1 << (REGION_BITS << 1)) >>> 6;
+
     private static Path getDimensionPath(Dimension d, Path worldDir) {
         if (!d.getDirectory().isEmpty()) {
             worldDir = worldDir.resolve(d.getDirectory());
@@ -59,116 +86,182 @@ public class RocksLocalCubicReader extends BaseMinecraftReader<RocksLocalCubicDa
         return (x & 0xFFFFFFFFL) | ((z & 0xFFFFFFFFL) << 32L);
     }
 
+    /**
+     * Marks the given column in the bitmap of its region's columns.
+     *
+     * @return whether the column wasn't marked yet
+     */
+    private static boolean markColumn(long[] columns, int x, int z) {
+        int index = ((x & ((1 << REGION_BITS) - 1)) << REGION_BITS) | (z & ((1 << REGION_BITS) - 1));
+        synchronized (columns) {
+            long word = columns[index >>> 6];
+            columns[index >>> 6] = word | (1L << index);
+            return (word & (1L << index)) == 0L;
+        }
+    }
+
+    private static RegionKey regionKey(long region) {
+        EntryLocation2D pos = unpack2d(region);
+        return new EntryLocation2D(pos.getEntryX() << REGION_BITS, pos.getEntryZ() << REGION_BITS).getRegionKey();
+    }
+
     private volatile boolean running = true;
-    private final CompletableFuture<Void> countFuture = new CompletableFuture<>();
+    //for each dimension, the packed coordinates of all regions mapped to the Y coordinates of the cube cells in them
+    private final CompletableFuture<Map<Dimension, Map<Long, Set<Integer>>>> countFuture = new CompletableFuture<>();
     private final CompletableFuture<Void> loadFuture = new CompletableFuture<>();
+    private ConversionJournal journal;
 
-    public RocksLocalCubicReader(Path srcDir) {
+    public RocksLocalCubicReader(Path srcDir, ConverterConfig config) {
         super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path))
-                ? Utils.propagateExceptions((CheckedFunction<Path, IBinaryCubeStorage, IOException>) LocalStorageImpl::new).apply(getDimensionPath(dim, path))
+                ? Utils.propagateExceptions((CheckedFunction<Path, IBinaryCubeStorage, IOException>) dir -> new LocalStorageImpl(dir, RocksProfile.fromConfig(config, RocksProfile.READ_CONFIG))).apply(getDimensionPath(dim, path))
                 : null);
     }
 
+    @Override
+    public void setJournal(ConversionJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public String getRegionName(RocksLocalCubicData chunk) {
+        return ConversionJournal.regionName(chunk.getDimension(), chunk.getPosition().getRegionKey());
+    }
+
     @Override
     public void countInputChunks(Runnable increment) throws IOException, InterruptedException {
         try {
-            CompletableFuture.allOf(this.saves.values().stream()
-                    .flatMap(storage -> Stream.of(
-                            CompletableFuture.runAsync(() -> {
-                                try {
-                                    storage.forEachColumn(pos -> {
-                                        if (!this.running) {
-                                            throw new UncheckedInterruptedException();
-                                        }
+            Map<Dimension, Map<Long, Set<Integer>>> dimensions = new ConcurrentHashMap<>();
+            CompletableFuture.allOf(this.saves.entrySet().stream()
+                    .map(entry -> CompletableFuture.runAsync(() -> {
+                        Dimension dim = entry.getKey();
+                        IBinaryCubeStorage storage = entry.getValue();
+                        //one bit per column in each region, only kept while counting
+                        Map<Long, long[]> columns = new ConcurrentHashMap<>();
+                        Map<Long, Set<Integer>> regions = new ConcurrentHashMap<>();
+                        Map<Long, Boolean> completedRegions = new ConcurrentHashMap<>();
+                        Predicate<Long> skip = region -> this.journal != null && completedRegions.computeIfAbsent(region,
+                                r -> this.journal.isCompleted(ConversionJournal.regionName(dim, regionKey(r))));
+
+                        try {
+                            storage.forEachColumn(pos -> {
+                                if (!this.running) {
+                                    throw new UncheckedInterruptedException();
+                                }
 
+                                long region = pack2d(pos.getX() >> REGION_BITS, pos.getY() >> REGION_BITS);
+                                if (!skip.test(region)) {
+                                    regions.computeIfAbsent(region, r -> ConcurrentHashMap.newKeySet());
+                                    if (markColumn(columns.computeIfAbsent(region, r -> new long[REGION_COLUMN_WORDS]), pos.getX(), pos.getY())) {
                                         increment.run();
-                                    });
-                                } catch (IOException e) {
-                                    throw new UncheckedIOException(e);
+                                    }
+                                }
+                            });
+                            storage.forEachCube(LOAD_THREADS, pos -> {
+                                if (!this.running) {
+                                    throw new UncheckedInterruptedException();
                                 }
-                            }),
-                            CompletableFuture.runAsync(() -> {
-                                try {
-                                    storage.forEachCube(pos -> {
-                                        if (!this.running) {
-                                            throw new UncheckedInterruptedException();
-                                        }
 
+                                long region = pack2d(pos.getX() >> REGION_BITS, pos.getZ() >> REGION_BITS);
+                                if (!skip.test(region)) {
+                                    regions.computeIfAbsent(region, r -> ConcurrentHashMap.newKeySet()).add(pos.getY() >> CELL_BITS);
+                                    if (markColumn(columns.computeIfAbsent(region, r -> new long[REGION_COLUMN_WORDS]), pos.getX(), pos.getZ())) {
                                         increment.run();
-                                    });
-                                } catch (IOException e) {
-                                    throw new UncheckedIOException(e);
+                                    }
                                 }
-                            })))
+                            });
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        dimensions.put(dim, regions);
+                    }))
                     .toArray(CompletableFuture[]::new))
                     .join();
 
-            this.countFuture.complete(null);
-        } catch (UncheckedInterruptedException ignored) {
-            //do nothing
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
+            this.countFuture.complete(dimensions);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            } else if (!(e.getCause() instanceof UncheckedInterruptedException)) {
+                throw e;
+            }
         } finally {
-            this.countFuture.completeExceptionally(new IllegalStateException());
+            //counting was interrupted or failed, there's nothing to load
+            this.countFuture.complete(null);
         }
     }
 
     @Override
     public void loadChunks(Consumer<? super RocksLocalCubicData> consumer, Predicate<Throwable> errorHandler) throws IOException, InterruptedException {
         try {
-            this.countFuture.join();
+            Map<Dimension, Map<Long, Set<Integer>>> dimensions = this.countFuture.join();
+            if (dimensions == null) {
+                return;
+            }
 
-            CompletableFuture.allOf(this.saves.entrySet().stream()
-                    .flatMap(entry -> {
-                        Dimension dim = entry.getKey();
-                        IBinaryCubeStorage storage = entry.getValue();
+            for (Map.Entry<Dimension, Map<Long, Set<Integer>>> entry : dimensions.entrySet()) {
+                if (!this.running) {
+                    return;
+                }
+                Dimension dim = entry.getKey();
+                IBinaryCubeStorage storage = this.saves.get(dim);
 
-                        return Stream.of(
-                                CompletableFuture.runAsync(() -> {
-                                    try {
-                                        storage.forEachColumn((pos, data) -> {
-                                            if (!this.running) {
-                                                throw new UncheckedInterruptedException();
-                                            }
-
-                                            try {
-                                                consumer.accept(new RocksLocalCubicData(dim, new EntryLocation2D(pos.getX(), pos.getY()), data, Collections.emptyMap()));
-                                            } catch (Exception e) {
-                                                e.printStackTrace();
-                                                if (!errorHandler.test(e)) {
-                                                    throw new UncheckedInterruptedException();
-                                                }
-                                            }
-                                        });
-                                    } catch (IOException e) {
-                                        throw new UncheckedIOException(e);
-                                    }
-                                }),
-                                CompletableFuture.runAsync(() -> {
-                                    try {
-                                        storage.forEachCube((pos, data) -> {
-                                            if (!this.running) {
-                                                throw new UncheckedInterruptedException();
-                                            }
-
-                                            consumer.accept(new RocksLocalCubicData(dim, new EntryLocation2D(pos.getX(), pos.getZ()), null, Collections.singletonMap(pos.getY(), data)));
-                                        });
-                                    } catch (IOException e) {
-                                        throw new UncheckedIOException(e);
-                                    }
-                                }));
-                    })
-                    .toArray(CompletableFuture[]::new))
-                    .join();
-
-            this.loadFuture.complete(null);
+                forEachParallel(entry.getValue().entrySet(), region -> {
+                    EntryLocation2D regionPos = unpack2d(region.getKey());
+                    boolean complete = true;
+                    for (int x = 0; x < 1 << REGION_BITS; x += 1 << CELL_BITS) {
+                        for (int z = 0; z < 1 << REGION_BITS; z += 1 << CELL_BITS) {
+                            if (!this.running) {
+                                throw new UncheckedInterruptedException();
+                            }
+                            complete &= this.loadCell(consumer, errorHandler, dim, storage,
+                                    (regionPos.getEntryX() << REGION_BITS) + x, (regionPos.getEntryZ() << REGION_BITS) + z, region.getValue());
+                        }
+                    }
+                    if (this.journal != null && complete) {
+                        this.journal.regionRead(ConversionJournal.regionName(dim, regionKey(region.getKey())));
+                    }
+                });
+            }
         } catch (UncheckedInterruptedException ex) {
             // interrupted, do nothing
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
         } finally {
-            this.loadFuture.completeExceptionally(new IllegalStateException());
+            this.loadFuture.complete(null);
+        }
+    }
+
+    /**
+     * Loads all columns in the cell at the given column position.
+     *
+     * @param cubeCells the Y coordinates of the cells that contain cubes in the cell's region
+     * @return whether all of the columns were loaded
+     */
+    private boolean loadCell(Consumer<? super RocksLocalCubicData> consumer, Predicate<Throwable> errorHandler, Dimension dim, IBinaryCubeStorage storage,
+                             int x, int z, Set<Integer> cubeCells) {
+        Map<Vector2i, ByteBuffer> columns = new LinkedHashMap<>();
+        Map<Vector2i, Map<Integer, ByteBuffer>> cubes = new LinkedHashMap<>();
+        try {
+            storage.forEachColumnInCell(new Vector2i(x, z), CELL_BITS, columns::put);
+            for (int cellY : cubeCells) {
+                storage.forEachCubeInCell(new Vector3i(x, cellY << CELL_BITS, z), CELL_BITS,
+                        (pos, data) -> cubes.computeIfAbsent(new Vector2i(pos.getX(), pos.getZ()), p -> new HashMap<>()).put(pos.getY(), data));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (!errorHandler.test(e)) {
+                throw new UncheckedInterruptedException();
+            }
+            return false;
+        }
+
+        //columns without column data but with cubes are still loaded
+        Set<Vector2i> positions = new LinkedHashSet<>(columns.keySet());
+        positions.addAll(cubes.keySet());
+        for (Vector2i pos : positions) {
+            Map<Integer, ByteBuffer> columnCubes = cubes.get(pos);
+            consumer.accept(new RocksLocalCubicData(dim, new EntryLocation2D(pos.getX(), pos.getY()), columns.get(pos),
+                    columnCubes != null ? columnCubes : new HashMap<>()));
         }
+        return true;
     }
 
     @Override
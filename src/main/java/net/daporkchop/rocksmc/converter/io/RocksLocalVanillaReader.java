@@ -21,6 +21,7 @@
 package net.daporkchop.rocksmc.converter.io;
 
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.io.BaseMinecraftReader;
 import cubicchunks.converter.lib.util.UncheckedInterruptedException;
 import cubicchunks.converter.lib.util.Utils;
@@ -28,6 +29,7 @@ import cubicchunks.regionlib.util.CheckedFunction;
 import net.daporkchop.rocksmc.converter.data.RocksLocalVanillaColumnData;
 import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
 import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.daporkchop.rocksmc.util.RocksProfile;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -55,9 +57,9 @@ public class RocksLocalVanillaReader extends BaseMinecraftReader<RocksLocalVanil
 
     private final int offset;
 
-    public RocksLocalVanillaReader(Path srcDir) {
+    public RocksLocalVanillaReader(Path srcDir, ConverterConfig config) {
         super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path))
-                ? Utils.propagateExceptions((CheckedFunction<Path, IBinaryCubeStorage, IOException>) LocalStorageImpl::new).apply(getDimensionPath(dim, path))
+                ? Utils.propagateExceptions((CheckedFunction<Path, IBinaryCubeStorage, IOException>) dir -> new LocalStorageImpl(dir, RocksProfile.fromConfig(config, RocksProfile.READ_CONFIG))).apply(getDimensionPath(dim, path))
                 : null);
 
         try {
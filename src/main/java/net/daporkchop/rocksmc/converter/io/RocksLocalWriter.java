@@ -1,6 +1,7 @@
 package net.daporkchop.rocksmc.converter.io;
 
 import cubicchunks.converter.lib.Dimension;
+import cubicchunks.converter.lib.conf.ConverterConfig;
 import cubicchunks.converter.lib.convert.ChunkDataWriter;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.converter.lib.util.Vector2i;
@@ -8,6 +9,7 @@ import cubicchunks.converter.lib.util.Vector3i;
 import net.daporkchop.rocksmc.converter.data.IRocksLocalData;
 import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
 import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.daporkchop.rocksmc.util.RocksProfile;
 
 import java.io.Flushable;
 import java.io.IOException;
@@ -21,19 +23,23 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * @author DaPorkchop_
  */
-public class RocksLocalWriter<OUT extends IRocksLocalData> implements ChunkDataWriter<OUT> {
+public class RocksLocalWriter<OUT extends IRocksLocalData> implements ChunkDataWriter<OUT>, Flushable {
     private final Path dstPath;
+    private final RocksProfile profile;
     private final Map<Dimension, Save> saves = new ConcurrentHashMap<>();
 
-    public RocksLocalWriter(Path dstPath) {
+    public RocksLocalWriter(Path dstPath, ConverterConfig config) {
         this.dstPath = dstPath;
+        this.profile = RocksProfile.fromConfig(config, RocksProfile.WRITE_CONFIG);
     }
 
     @Override
     public void accept(OUT data) throws IOException {
         this.saves.computeIfAbsent(data.getDimension(), dim -> {
             try {
-                return new Save(new LocalStorageImpl(this.dstPath.resolve(dim.getDirectory())));
+                LocalStorageImpl storage = new LocalStorageImpl(this.dstPath.resolve(dim.getDirectory()), this.profile);
+                //a fresh world is bulk loaded, there's nothing for the written data to be merged with
+                return new Save(storage, storage.isEmpty());
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -45,6 +51,17 @@ public class RocksLocalWriter<OUT extends IRocksLocalData> implements ChunkDataW
         Utils.rm(this.dstPath);
     }
 
+    /**
+     * Writes all queued data to the databases and flushes them to disk.
+     */
+    @Override
+    public void flush() throws IOException {
+        for (Save save : this.saves.values()) {
+            save.flush();
+            save.storage.flush();
+        }
+    }
+
     @Override
     public void close() throws Exception {
         boolean exception = false;
@@ -63,10 +80,12 @@ public class RocksLocalWriter<OUT extends IRocksLocalData> implements ChunkDataW
 
     private class Save implements Flushable, AutoCloseable {
         protected final IBinaryCubeStorage storage;
+        protected final boolean bulkLoad;
         protected final Map<Thread, WriteQueue> queues = new ConcurrentHashMap<>();
 
-        public Save(LocalStorageImpl storage) {
+        public Save(LocalStorageImpl storage, boolean bulkLoad) {
             this.storage = storage;
+            this.bulkLoad = bulkLoad;
         }
 
         public WriteQueue queue() {
@@ -76,14 +95,14 @@ public class RocksLocalWriter<OUT extends IRocksLocalData> implements ChunkDataW
         @Override
         public void flush() throws IOException {
             try {
-                this.queues.keySet().parallelStream().forEach(t -> this.queues.computeIfPresent(t, (tt, q) -> {
+                //queues are kept, the thread owning a queue may be appending to it concurrently
+                this.queues.values().parallelStream().forEach(q -> {
                     try {
                         q.flush();
                     } catch (IOException e) {
                         throw new UncheckedIOException(e);
                     }
-                    return null;
-                }));
+                });
             } catch (UncheckedIOException e) {
                 throw e.getCause();
             }
@@ -123,7 +142,12 @@ public class RocksLocalWriter<OUT extends IRocksLocalData> implements ChunkDataW
             @Override
             public synchronized void flush() throws IOException {
                 if (!this.columnQueue.isEmpty() || !this.cubeQueue.isEmpty()) {
-                    Save.this.storage.writeBatch(new IBinaryCubeStorage.BinaryBatch(this.columnQueue, this.cubeQueue));
+                    IBinaryCubeStorage.BinaryBatch batch = new IBinaryCubeStorage.BinaryBatch(this.columnQueue, this.cubeQueue);
+                    if (Save.this.bulkLoad) {
+                        Save.this.storage.ingestBatch(batch);
+                    } else {
+                        Save.this.storage.writeBatch(batch);
+                    }
 
                     //reset write queue
                     this.columnQueue.clear();
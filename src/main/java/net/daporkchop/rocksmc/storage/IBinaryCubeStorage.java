@@ -1,5 +1,6 @@
 package net.daporkchop.rocksmc.storage;
 
+import cubicchunks.converter.lib.util.BoundingBox;
 import cubicchunks.converter.lib.util.Vector2i;
 import cubicchunks.converter.lib.util.Vector3i;
 
@@ -113,6 +114,24 @@ public interface IBinaryCubeStorage extends Flushable, Closeable {
      */
     void writeBatch(BinaryBatch batch) throws IOException;
 
+    /**
+     * Writes the raw binary data for multiple cubes+columns at once, using the cheapest way the implementation has to
+     * bulk load a large batch.
+     * <p>
+     * The result is the same as {@link #writeBatch(BinaryBatch)}, but implementations may assume that batches are large and that
+     * the storage is mostly being filled rather than updated.
+     *
+     * @param batch a {@link BinaryBatch} containing the cube+column positions and the NBT data to write to each
+     */
+    default void ingestBatch(BinaryBatch batch) throws IOException {
+        this.writeBatch(batch);
+    }
+
+    /**
+     * @return whether or not the storage contains no columns and no cubes
+     */
+    boolean isEmpty() throws IOException;
+
     /**
      * Iterates over all the columns that exist in the world.
      *
@@ -141,6 +160,60 @@ public interface IBinaryCubeStorage extends Flushable, Closeable {
      */
     void forEachCube(BiConsumer<Vector3i, ByteBuffer> callback) throws IOException;
 
+    /**
+     * Iterates over all the cubes that exist in the world, splitting them into up to {@code parallelism} disjoint parts which are iterated over
+     * concurrently.
+     *
+     * @param parallelism the maximum number of parts to iterate over concurrently
+     * @param callback    the callback function to run, must be thread-safe
+     */
+    default void forEachCube(int parallelism, Consumer<Vector3i> callback) throws IOException {
+        //default implementation: iterate over everything on the calling thread
+        this.forEachCube(callback);
+    }
+
+    /**
+     * Iterates over the columns in an aligned square of {@code 1 << level} by {@code 1 << level} columns.
+     * <p>
+     * Positions are stored in Morton order, so the columns in such a square are stored next to each other and can be read with a single sequential
+     * scan.
+     *
+     * @param pos      the position of any column in the square
+     * @param level    the base 2 logarithm of the square's side length
+     * @param callback the callback function to run
+     */
+    void forEachColumnInCell(Vector2i pos, int level, BiConsumer<Vector2i, ByteBuffer> callback) throws IOException;
+
+    /**
+     * Iterates over the cubes in an aligned cube of {@code 1 << level} cubes along each axis.
+     * <p>
+     * Positions are stored in Morton order, so the cubes in such a cube are stored next to each other and can be read with a single sequential scan.
+     *
+     * @param pos      the position of any cube in the cube
+     * @param level    the base 2 logarithm of the cube's side length
+     * @param callback the callback function to run
+     */
+    void forEachCubeInCell(Vector3i pos, int level, BiConsumer<Vector3i, ByteBuffer> callback) throws IOException;
+
+    /**
+     * Iterates over the columns inside the given box's area on the X and Z axes.
+     *
+     * @param box      the box, in column coordinates. Its Y coordinates are ignored
+     * @param callback the callback function to run
+     */
+    void forEachColumnInArea(BoundingBox box, BiConsumer<Vector2i, ByteBuffer> callback) throws IOException;
+
+    /**
+     * Iterates over the cubes inside the given box.
+     * <p>
+     * Only the parts of the storage which may contain cubes inside the box are read, so this is much cheaper than filtering the results of
+     * {@link #forEachCube(BiConsumer)} for boxes that are small compared to the world.
+     *
+     * @param box      the box, in cube coordinates
+     * @param callback the callback function to run
+     */
+    void forEachCubeInBox(BoundingBox box, BiConsumer<Vector3i, ByteBuffer> callback) throws IOException;
+
     /**
      * Forces any internally buffered data to be written to disk immediately, blocking until the action is completed.
      * <p>
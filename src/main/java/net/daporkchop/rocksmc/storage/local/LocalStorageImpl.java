@@ -1,33 +1,53 @@
 package net.daporkchop.rocksmc.storage.local;
 
+import cubicchunks.converter.lib.util.BoundingBox;
 import cubicchunks.converter.lib.util.Vector2i;
 import cubicchunks.converter.lib.util.Vector3i;
+import com.google.common.base.Throwables;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import cubicchunks.regionlib.util.Utils;
 import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
+import net.daporkchop.rocksmc.util.MortonRanges;
+import net.daporkchop.rocksmc.util.PositionSerializerUtils;
+import net.daporkchop.rocksmc.util.RocksOptions;
+import net.daporkchop.rocksmc.util.RocksProfile;
 import net.daporkchop.rocksmc.util.UncheckedRocksDBException;
 import org.rocksdb.ColumnFamilyDescriptor;
 import org.rocksdb.ColumnFamilyHandle;
-import org.rocksdb.FlushOptions;
+import org.rocksdb.LiveFileMetaData;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.SstFileWriter;
 import org.rocksdb.WriteBatch;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static net.daporkchop.rocksmc.util.PositionSerializerUtils.*;
-import static net.daporkchop.rocksmc.util.RocksOptions.*;
 
 /**
  * @author DaPorkchop_
@@ -38,6 +58,10 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
 
     protected static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
+    //rocksdb's default comparator orders keys as unsigned bytes, sst files must be written in that order
+    protected static final Comparator<byte[]> KEY_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+    protected static final Comparator<Map.Entry<byte[], ByteBuffer>> KEY_ORDER = Map.Entry.comparingByKey(KEY_COMPARATOR);
+
     protected static byte[] getReadOnlyArray(ByteBuffer data) {
         if (data.hasArray() && data.arrayOffset() == 0 && data.position() == data.limit()) {
             return data.array();
@@ -51,29 +75,40 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
 
     protected final Path path;
     protected final RocksDB db;
+    protected final RocksOptions options;
 
     protected final List<ColumnFamilyHandle> cfHandles;
     protected final ColumnFamilyHandle cfHandleColumns;
     protected final ColumnFamilyHandle cfHandleCubes;
 
+    protected final Path ingestDir;
+    protected final AtomicInteger ingestFileCounter = new AtomicInteger();
+
     public LocalStorageImpl(Path path) throws IOException {
+        this(path, RocksProfile.DEFAULT);
+    }
+
+    public LocalStorageImpl(Path path, RocksProfile profile) throws IOException {
         this.path = path.toAbsolutePath().resolve("rocksmc_local");
+        this.options = profile.options();
 
         try {
             List<ColumnFamilyDescriptor> cfDescriptors = Arrays.asList(
-                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, COLUMN_FAMILY_OPTIONS),
-                    new ColumnFamilyDescriptor(COLUMN_NAME_COLUMNS, COLUMN_FAMILY_OPTIONS),
-                    new ColumnFamilyDescriptor(COLUMN_NAME_CUBES, COLUMN_FAMILY_OPTIONS));
+                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, this.options.columnFamilyOptions),
+                    new ColumnFamilyDescriptor(COLUMN_NAME_COLUMNS, this.options.columnFamilyOptions),
+                    new ColumnFamilyDescriptor(COLUMN_NAME_CUBES, this.options.columnFamilyOptions));
             List<ColumnFamilyHandle> cfHandles = new ArrayList<>(cfDescriptors.size());
 
             Path currentDir = this.path.resolve("db");
             Utils.createDirectories(currentDir);
 
-            this.db = RocksDB.open(DB_OPTIONS, currentDir.toString(), cfDescriptors, cfHandles);
+            this.db = RocksDB.open(this.options.dbOptions, currentDir.toString(), cfDescriptors, cfHandles);
 
             this.cfHandles = cfHandles;
             this.cfHandleColumns = cfHandles.get(1);
             this.cfHandleCubes = cfHandles.get(2);
+
+            this.ingestDir = this.path.resolve("ingest");
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         }
@@ -82,7 +117,7 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
     @Override
     public boolean columnExists(Vector2i pos) throws IOException {
         try {
-            return this.db.get(this.cfHandleColumns, READ_OPTIONS, writeVec2i(pos), EMPTY_BYTE_ARRAY) != RocksDB.NOT_FOUND;
+            return this.db.get(this.cfHandleColumns, this.options.readOptions, writeVec2i(pos), EMPTY_BYTE_ARRAY) != RocksDB.NOT_FOUND;
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         }
@@ -91,7 +126,7 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
     @Override
     public boolean cubeExists(Vector3i pos) throws IOException {
         try {
-            return this.db.get(this.cfHandleCubes, READ_OPTIONS, writeVec3i(pos), EMPTY_BYTE_ARRAY) != RocksDB.NOT_FOUND;
+            return this.db.get(this.cfHandleCubes, this.options.readOptions, writeVec3i(pos), EMPTY_BYTE_ARRAY) != RocksDB.NOT_FOUND;
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         }
@@ -156,7 +191,7 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
     public void writeColumn(Vector2i pos, ByteBuffer data) throws IOException {
         try {
             byte[] key = writeVec2i(pos);
-            this.db.put(this.cfHandleColumns, WRITE_OPTIONS,
+            this.db.put(this.cfHandleColumns, this.options.writeOptions,
                     key, 0, key.length,
                     data.array(), data.arrayOffset() + data.position(), data.remaining());
         } catch (RocksDBException e) {
@@ -168,7 +203,7 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
     public void writeCube(Vector3i pos, ByteBuffer data) throws IOException {
         try {
             byte[] key = writeVec3i(pos);
-            this.db.put(this.cfHandleCubes, WRITE_OPTIONS,
+            this.db.put(this.cfHandleCubes, this.options.writeOptions,
                     key, 0, key.length,
                     data.array(), data.arrayOffset() + data.position(), data.remaining());
         } catch (RocksDBException e) {
@@ -198,15 +233,67 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
                 throw e.getCause();
             }
 
-            this.db.write(WRITE_OPTIONS, writeBatch);
+            this.db.write(this.options.writeOptions, writeBatch);
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         }
     }
 
+    /**
+     * Writes the batch into sorted sst files, one per column family, and ingests them into the database. This skips the memtable and, as long as the
+     * ingested files don't overlap anything already in the database, every compaction after it.
+     */
+    @Override
+    public void ingestBatch(BinaryBatch batch) throws IOException {
+        try {
+            this.ingest(this.cfHandleColumns, batch.columns, PositionSerializerUtils::writeVec2i);
+            this.ingest(this.cfHandleCubes, batch.cubes, PositionSerializerUtils::writeVec3i);
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        }
+    }
+
+    protected <P> void ingest(ColumnFamilyHandle cfHandle, Map<P, ByteBuffer> data, Function<P, byte[]> keySerializer) throws IOException, RocksDBException {
+        if (data.isEmpty()) { //sst files can't be empty
+            return;
+        }
+
+        List<Map.Entry<byte[], ByteBuffer>> entries = new ArrayList<>(data.size());
+        data.forEach((pos, value) -> entries.add(new AbstractMap.SimpleEntry<>(keySerializer.apply(pos), value)));
+        entries.sort(KEY_ORDER);
+
+        Utils.createDirectories(this.ingestDir);
+        Path file = this.ingestDir.resolve(this.ingestFileCounter.getAndIncrement() + ".sst");
+        try {
+            try (SstFileWriter writer = new SstFileWriter(this.options.sstEnvOptions, this.options.sstOptions)) {
+                writer.open(file.toString());
+                for (Map.Entry<byte[], ByteBuffer> entry : entries) {
+                    writer.put(entry.getKey(), getReadOnlyArray(entry.getValue()));
+                }
+                writer.finish();
+            }
+            this.db.ingestExternalFile(cfHandle, Collections.singletonList(file.toString()), this.options.ingestOptions);
+        } finally {
+            Files.deleteIfExists(file); //moved into the database if ingestion succeeded
+        }
+    }
+
+    @Override
+    public boolean isEmpty() throws IOException {
+        for (ColumnFamilyHandle cfHandle : Arrays.asList(this.cfHandleColumns, this.cfHandleCubes)) {
+            try (RocksIterator itr = this.db.newIterator(cfHandle, this.options.readOptions)) {
+                itr.seekToFirst();
+                if (itr.isValid()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public void forEachColumn(Consumer<Vector2i> callback) throws IOException {
-        try (RocksIterator itr = this.db.newIterator(this.cfHandleColumns, READ_OPTIONS)) {
+        try (RocksIterator itr = this.db.newIterator(this.cfHandleColumns, this.options.readOptions)) {
             for (itr.seekToFirst(); itr.isValid(); itr.next()) {
                 callback.accept(readVec2i(itr.key()));
             }
@@ -215,7 +302,7 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
 
     @Override
     public void forEachColumn(BiConsumer<Vector2i, ByteBuffer> callback) throws IOException {
-        try (RocksIterator itr = this.db.newIterator(this.cfHandleColumns, READ_OPTIONS)) {
+        try (RocksIterator itr = this.db.newIterator(this.cfHandleColumns, this.options.readOptions)) {
             for (itr.seekToFirst(); itr.isValid(); itr.next()) {
                 callback.accept(readVec2i(itr.key()), ByteBuffer.wrap(itr.value()));
             }
@@ -224,7 +311,7 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
 
     @Override
     public void forEachCube(Consumer<Vector3i> callback) throws IOException {
-        try (RocksIterator itr = this.db.newIterator(this.cfHandleCubes, READ_OPTIONS)) {
+        try (RocksIterator itr = this.db.newIterator(this.cfHandleCubes, this.options.readOptions)) {
             for (itr.seekToFirst(); itr.isValid(); itr.next()) {
                 callback.accept(readVec3i(itr.key()));
             }
@@ -233,17 +320,163 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
 
     @Override
     public void forEachCube(BiConsumer<Vector3i, ByteBuffer> callback) throws IOException {
-        try (RocksIterator itr = this.db.newIterator(this.cfHandleCubes, READ_OPTIONS)) {
+        try (RocksIterator itr = this.db.newIterator(this.cfHandleCubes, this.options.readOptions)) {
             for (itr.seekToFirst(); itr.isValid(); itr.next()) {
                 callback.accept(readVec3i(itr.key()), ByteBuffer.wrap(itr.value()));
             }
         }
     }
 
+    /**
+     * Splits the cubes into disjoint key ranges, and iterates over each range on a separate thread.
+     * <p>
+     * The smallest keys of the column family's sst files are used as split points. As long as the database isn't one huge file, this splits it
+     * into ranges of roughly equal size without having to look at the data.
+     */
+    @Override
+    public void forEachCube(int parallelism, Consumer<Vector3i> callback) throws IOException {
+        List<byte[]> splits = this.splitPoints(COLUMN_NAME_CUBES, parallelism);
+        if (splits.isEmpty()) {
+            this.forEachCube(callback);
+            return;
+        }
+
+        //the ranges run on their own threads rather than the common pool, which the caller may already be running on
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, splits.size() + 1),
+                new ThreadFactoryBuilder().setNameFormat("RocksMC cube iteration thread %d").setDaemon(true).build());
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            List<Future<?>> ranges = new ArrayList<>(splits.size() + 1);
+            for (int i = 0; i <= splits.size(); i++) {
+                byte[] min = i == 0 ? null : splits.get(i - 1);
+                byte[] max = i == splits.size() ? null : splits.get(i);
+                ranges.add(executor.submit(() -> {
+                    try (RocksIterator itr = this.db.newIterator(this.cfHandleCubes, this.options.readOptions)) {
+                        if (min == null) {
+                            itr.seekToFirst();
+                        } else {
+                            itr.seek(min);
+                        }
+                        for (; itr.isValid() && !failed.get(); itr.next()) {
+                            byte[] key = itr.key();
+                            if (max != null && KEY_COMPARATOR.compare(key, max) >= 0) {
+                                break;
+                            }
+                            callback.accept(readVec3i(key));
+                        }
+                    } catch (Throwable t) {
+                        //stop the other ranges as well
+                        failed.set(true);
+                        throw t;
+                    }
+                }));
+            }
+            for (Future<?> range : ranges) {
+                range.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException(e.getCause());
+        } finally {
+            failed.set(true);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return up to {@code parts - 1} sorted, distinct keys which split the given column family into {@code parts} ranges of roughly equal size
+     */
+    protected List<byte[]> splitPoints(byte[] columnFamilyName, int parts) {
+        List<byte[]> keys = new ArrayList<>();
+        for (LiveFileMetaData file : this.db.getLiveFilesMetaData()) {
+            if (Arrays.equals(file.columnFamilyName(), columnFamilyName)) {
+                keys.add(file.smallestKey());
+            }
+        }
+        keys.sort(KEY_COMPARATOR);
+
+        List<byte[]> splits = new ArrayList<>(parts);
+        for (int i = 1; i < parts && !keys.isEmpty(); i++) {
+            byte[] key = keys.get(i * keys.size() / parts);
+            //with fewer files than parts, the same key may be selected more than once
+            if (splits.isEmpty() || KEY_COMPARATOR.compare(key, splits.get(splits.size() - 1)) > 0) {
+                splits.add(key);
+            }
+        }
+        return splits;
+    }
+
+    @Override
+    public void forEachColumnInCell(Vector2i pos, int level, BiConsumer<Vector2i, ByteBuffer> callback) throws IOException {
+        int mask = (1 << level) - 1;
+        this.forEachInRange(this.cfHandleColumns,
+                writeVec2i(new Vector2i(pos.getX() & ~mask, pos.getY() & ~mask)),
+                writeVec2i(new Vector2i(pos.getX() | mask, pos.getY() | mask)),
+                (key, value) -> callback.accept(readVec2i(key), ByteBuffer.wrap(value)));
+    }
+
+    @Override
+    public void forEachCubeInCell(Vector3i pos, int level, BiConsumer<Vector3i, ByteBuffer> callback) throws IOException {
+        int mask = (1 << level) - 1;
+        this.forEachInRange(this.cfHandleCubes,
+                writeVec3i(new Vector3i(pos.getX() & ~mask, pos.getY() & ~mask, pos.getZ() & ~mask)),
+                writeVec3i(new Vector3i(pos.getX() | mask, pos.getY() | mask, pos.getZ() | mask)),
+                (key, value) -> callback.accept(readVec3i(key), ByteBuffer.wrap(value)));
+    }
+
+    @Override
+    public void forEachColumnInArea(BoundingBox box, BiConsumer<Vector2i, ByteBuffer> callback) throws IOException {
+        try (RocksIterator itr = this.db.newIterator(this.cfHandleColumns, this.options.readOptions)) {
+            MortonRanges.forEachColumnRange(box, (min, max) -> forEachInRange(itr, min, max, (key, value) -> {
+                Vector2i pos = readVec2i(key);
+                if (box.columnIntersects(pos.getX(), pos.getY())) { //ranges may extend past the box
+                    callback.accept(pos, ByteBuffer.wrap(value));
+                }
+            }));
+        }
+    }
+
+    @Override
+    public void forEachCubeInBox(BoundingBox box, BiConsumer<Vector3i, ByteBuffer> callback) throws IOException {
+        try (RocksIterator itr = this.db.newIterator(this.cfHandleCubes, this.options.readOptions)) {
+            MortonRanges.forEachCubeRange(box, (min, max) -> forEachInRange(itr, min, max, (key, value) -> {
+                Vector3i pos = readVec3i(key);
+                if (box.intersects(pos.getX(), pos.getY(), pos.getZ())) { //ranges may extend past the box
+                    callback.accept(pos, ByteBuffer.wrap(value));
+                }
+            }));
+        }
+    }
+
+    /**
+     * Iterates over all the keys in the column family between {@code min} and {@code max}, inclusive.
+     */
+    protected void forEachInRange(ColumnFamilyHandle cfHandle, byte[] min, byte[] max, BiConsumer<byte[], byte[]> callback) {
+        try (RocksIterator itr = this.db.newIterator(cfHandle, this.options.readOptions)) {
+            forEachInRange(itr, min, max, callback);
+        }
+    }
+
+    /**
+     * Iterates over all the keys between {@code min} and {@code max}, inclusive, using an existing iterator.
+     */
+    protected static void forEachInRange(RocksIterator itr, byte[] min, byte[] max, BiConsumer<byte[], byte[]> callback) {
+        for (itr.seek(min); itr.isValid(); itr.next()) {
+            byte[] key = itr.key();
+            if (KEY_COMPARATOR.compare(key, max) > 0) {
+                break;
+            }
+            callback.accept(key, itr.value());
+        }
+    }
+
     @Override
     public void flush() throws IOException {
         try {
-            this.db.flush(new FlushOptions().setWaitForFlush(true).setAllowWriteStall(true), this.cfHandles);
+            this.db.flush(this.options.flushOptions, this.cfHandles);
             this.db.flushWal(true);
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
@@ -254,6 +487,15 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
     public void close() throws IOException {
         this.flush();
 
+        if (this.options.compactOnClose) {
+            try {
+                this.db.compactRange(this.cfHandleColumns);
+                this.db.compactRange(this.cfHandleCubes);
+            } catch (RocksDBException e) {
+                throw new IOException(e); //rethrow
+            }
+        }
+
         this.cfHandles.forEach(ColumnFamilyHandle::close); //close column families before db
         this.db.close();
     }
@@ -1,8 +1,8 @@
 package net.daporkchop.rocksmc.util;
 
+import cubicchunks.converter.lib.util.Compression;
 import cubicchunks.converter.lib.util.Utils;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,8 +13,6 @@ import java.util.Arrays;
 import java.util.function.Function;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -29,6 +27,10 @@ public class ChunkCompressUtils {
     protected static final ThreadLocal<ByteBuffer> BUFFER_CACHE = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_COMPRESSED_DATA_SIZE));
 
     public static ByteBuffer compressAnvil(ByteBuffer src) {
+        return compressAnvil(src, Compression.Level.DEFAULT);
+    }
+
+    public static ByteBuffer compressAnvil(ByteBuffer src, Compression.Level level) {
         if (src == null) {
             return null;
         }
@@ -38,27 +40,19 @@ public class ChunkCompressUtils {
         dst.clear().position(1);
         dst.put(0, (byte) 2); //zlib marker
 
-        //attempt normal compression
-        deflater.reset();
+        //attempt compression at the requested level
+        resetDeflater(deflater, level.getDeflaterLevel());
         deflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
         deflater.finish();
         int cnt = deflater.deflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
         if (!deflater.finished()) { //compression couldn't be completed - the resulting data was too large!
             //let's try again, but this time using the maximum compression level.
-            deflater.setLevel(Deflater.BEST_COMPRESSION);
-            deflater.deflate(new byte[0]); //setLevel() demands we call deflate() afterwards
-
-            deflater.reset();
-            try {
-                deflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
-                deflater.finish();
-                cnt = deflater.deflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
-                if (!deflater.finished()) { //if it was still too big, even with max compression, it'll never fit into a region, so we should abort
-                    throw new IllegalArgumentException("chunk data is too large!");
-                }
-            } finally {
-                deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
-                deflater.deflate(new byte[0]); //setLevel() demands we call deflate() afterwards
+            resetDeflater(deflater, Deflater.BEST_COMPRESSION);
+            deflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            deflater.finish();
+            cnt = deflater.deflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (!deflater.finished()) { //if it was still too big, even with max compression, it'll never fit into a region, so we should abort
+                throw new IllegalArgumentException("chunk data is too large!");
             }
         }
         dst.position(dst.position() + cnt).flip();
@@ -69,6 +63,13 @@ public class ChunkCompressUtils {
         return ByteBuffer.wrap(Arrays.copyOfRange(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining()));
     }
 
+    protected static void resetDeflater(Deflater deflater, int level) {
+        //the level can only be changed on a stream that hasn't finished yet, and only takes effect with a deflate() call
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.deflate(new byte[0]); //setLevel() demands we call deflate() afterwards
+    }
+
     public static ByteBuffer decompressAnvil(ByteBuffer src) {
         if (src == null) {
             return null;
@@ -91,6 +92,9 @@ public class ChunkCompressUtils {
     }
 
     protected static ByteBuffer decompressZlib(ByteBuffer src) throws IOException, DataFormatException {
+        if (!src.hasArray()) { //memory mapped or read-only input, inflate straight from the buffer
+            return decompressStream(src, Compression::zlibInput);
+        }
         Inflater inflater = INFLATER_CACHE.get();
         ByteBuffer buf = BUFFER_CACHE.get();
         buf.clear();
@@ -108,7 +112,7 @@ public class ChunkCompressUtils {
     }
 
     protected static ByteBuffer decompressGzip(ByteBuffer src) throws IOException {
-        return decompressStream(src, Utils.propagateExceptions(GZIPInputStream::new));
+        return decompressStream(src, Utils.propagateExceptions(Compression::gzipInput));
     }
 
     protected static ByteBuffer decompressStream(ByteBuffer src, Function<InputStream, InputStream> inflaterFactory) throws IOException {
@@ -116,7 +120,7 @@ public class ChunkCompressUtils {
         ByteBuffer buf = BUFFER_CACHE.get();
         buf.clear();
 
-        try (InputStream in = inflaterFactory.apply(new ByteArrayInputStream(src.array(), src.arrayOffset() + src.position(), src.remaining()))) {
+        try (InputStream in = inflaterFactory.apply(Utils.asInputStream(src))) {
             for (int cnt; (cnt = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining())) >= 0; ) {
                 baos.write(buf.array(), buf.arrayOffset() + buf.position(), cnt);
             }
@@ -125,8 +129,8 @@ public class ChunkCompressUtils {
         return ByteBuffer.wrap(baos.toByteArray());
     }
 
-    protected static ByteBuffer compressGzip(ByteBuffer src) throws IOException {
-        return compressStream(src, Utils.propagateExceptions(GZIPOutputStream::new));
+    protected static ByteBuffer compressGzip(ByteBuffer src, Compression.Level level) throws IOException {
+        return compressStream(src, Utils.propagateExceptions(out -> Compression.gzipOutput(out, level)));
     }
 
     protected static ByteBuffer compressStream(ByteBuffer src, Function<OutputStream, OutputStream> deflaterFactory) throws IOException {
@@ -140,12 +144,16 @@ public class ChunkCompressUtils {
     }
 
     public static ByteBuffer compressCubicChunks(ByteBuffer src) {
+        return compressCubicChunks(src, Compression.Level.DEFAULT);
+    }
+
+    public static ByteBuffer compressCubicChunks(ByteBuffer src, Compression.Level level) {
         if (src == null) {
             return null;
         }
 
         try {
-            return compressGzip(src);
+            return compressGzip(src, level);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
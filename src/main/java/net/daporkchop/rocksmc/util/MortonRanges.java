@@ -0,0 +1,172 @@
+package net.daporkchop.rocksmc.util;
+
+import cubicchunks.converter.lib.util.BoundingBox;
+import cubicchunks.converter.lib.util.Vector2i;
+import cubicchunks.converter.lib.util.Vector3i;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Splits boxes into the ranges of keys, as written by {@link PositionSerializerUtils}, which contain all the positions inside them.
+ * <p>
+ * Keys interleave the bits of the coordinates, so every aligned cell with a side length which is a power of two is a single contiguous range of keys.
+ * A box is split into such cells by descending the quadtree (or octree) of cells, and neighbouring cells are merged into a single range. Cells
+ * smaller than {@code 1 / (1 << PRECISION_BITS)} of the box's largest side aren't split any further, so the ranges may contain some positions
+ * outside of the box, which have to be filtered out.
+ * <p>
+ * Ranges are emitted in ascending key order.
+ *
+ * @author DaPorkchop_
+ */
+public class MortonRanges {
+    private static final int PRECISION_BITS = 5;
+
+    private static final long COORD_MASK = 0xFFFFFFFFL;
+
+    /**
+     * Emits the ranges of column keys which contain all the columns inside the given box's area on the X and Z axes.
+     *
+     * @param box    the box, in column coordinates
+     * @param action the action to run with the smallest and the largest key of each range, inclusive
+     */
+    public static void forEachColumnRange(BoundingBox box, BiConsumer<byte[], byte[]> action) {
+        Vector3i min = box.getMinPos();
+        Vector3i max = box.getMaxPos();
+        decompose(new long[][][]{
+                intervals(min.getX(), max.getX()),
+                intervals(min.getZ(), max.getZ())
+        }, (cellMin, cellMax) -> action.accept(
+                PositionSerializerUtils.writeVec2i(new Vector2i((int) cellMin[0], (int) cellMin[1])),
+                PositionSerializerUtils.writeVec2i(new Vector2i((int) cellMax[0], (int) cellMax[1]))));
+    }
+
+    /**
+     * Emits the ranges of cube keys which contain all the cubes inside the given box.
+     *
+     * @param box    the box, in cube coordinates
+     * @param action the action to run with the smallest and the largest key of each range, inclusive
+     */
+    public static void forEachCubeRange(BoundingBox box, BiConsumer<byte[], byte[]> action) {
+        Vector3i min = box.getMinPos();
+        Vector3i max = box.getMaxPos();
+        decompose(new long[][][]{
+                intervals(min.getX(), max.getX()),
+                intervals(min.getY(), max.getY()),
+                intervals(min.getZ(), max.getZ())
+        }, (cellMin, cellMax) -> action.accept(
+                PositionSerializerUtils.writeVec3i(new Vector3i((int) cellMin[0], (int) cellMin[1], (int) cellMin[2])),
+                PositionSerializerUtils.writeVec3i(new Vector3i((int) cellMax[0], (int) cellMax[1], (int) cellMax[2]))));
+    }
+
+    /**
+     * Keys store coordinates in two's complement, so when compared as unsigned values negative coordinates come after all positive ones. A range
+     * of coordinates which contains zero is therefore two separate ranges of unsigned values.
+     *
+     * @return the ranges of unsigned values covered by the given range of coordinates, in ascending order
+     */
+    private static long[][] intervals(int min, int max) {
+        if (min >= 0 || max < 0) {
+            return new long[][]{ { min & COORD_MASK, max & COORD_MASK } };
+        } else if (min == Integer.MIN_VALUE && max == Integer.MAX_VALUE) { //the two ranges would be next to each other
+            return new long[][]{ { 0L, COORD_MASK } };
+        } else {
+            return new long[][]{ { 0L, max & COORD_MASK }, { min & COORD_MASK, COORD_MASK } };
+        }
+    }
+
+    private static void decompose(long[][][] intervals, BiConsumer<long[], long[]> action) {
+        long extent = 0L;
+        for (long[][] axis : intervals) {
+            for (long[] interval : axis) {
+                extent = Math.max(extent, interval[1] - interval[0] + 1L);
+            }
+        }
+
+        //smallest cells which are split any further
+        int minLevel = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(extent - 1L) - PRECISION_BITS);
+
+        Decomposition decomposition = new Decomposition(intervals, minLevel, action);
+        decomposition.visit(new long[intervals.length], Integer.SIZE);
+        decomposition.flush();
+    }
+
+    private static class Decomposition {
+        private final long[][][] intervals;
+        private final int minLevel;
+        private final BiConsumer<long[], long[]> action;
+
+        //the range currently being built, it's extended for as long as the visited cells are next to each other
+        private long[] pendingMin;
+        private long[] pendingMax;
+
+        Decomposition(long[][][] intervals, int minLevel, BiConsumer<long[], long[]> action) {
+            this.intervals = intervals;
+            this.minLevel = minLevel;
+            this.action = action;
+        }
+
+        /**
+         * Visits the cell at the given origin with a side length of {@code 1 << level}. Cells are visited in ascending key order.
+         */
+        void visit(long[] origin, int level) {
+            long size = 1L << level;
+
+            boolean contained = true;
+            for (int axis = 0; axis < origin.length; axis++) {
+                switch (this.overlap(axis, origin[axis], origin[axis] + size - 1L)) {
+                    case 0: //none of the cell is inside the box, which ends the current range
+                        this.flush();
+                        return;
+                    case 1:
+                        contained = false;
+                        break;
+                }
+            }
+
+            if (contained || level <= this.minLevel) {
+                long[] max = new long[origin.length];
+                for (int axis = 0; axis < origin.length; axis++) {
+                    max[axis] = origin[axis] + size - 1L;
+                }
+                if (this.pendingMin == null) {
+                    this.pendingMin = origin;
+                }
+                this.pendingMax = max;
+                return;
+            }
+
+            //the child's index is made up of one bit per axis, with the first axis in the most significant bit, just like the key
+            long half = size >> 1L;
+            for (int child = 0; child < 1 << origin.length; child++) {
+                long[] childOrigin = new long[origin.length];
+                for (int axis = 0; axis < origin.length; axis++) {
+                    childOrigin[axis] = origin[axis] + (((child >>> (origin.length - 1 - axis)) & 1) != 0 ? half : 0L);
+                }
+                this.visit(childOrigin, level - 1);
+            }
+        }
+
+        /**
+         * @return {@code 0} if none of the given range is inside the box on the given axis, {@code 2} if all of it is, and {@code 1} otherwise
+         */
+        int overlap(int axis, long min, long max) {
+            int overlap = 0;
+            for (long[] interval : this.intervals[axis]) {
+                if (min >= interval[0] && max <= interval[1]) {
+                    return 2;
+                } else if (min <= interval[1] && max >= interval[0]) {
+                    overlap = 1;
+                }
+            }
+            return overlap;
+        }
+
+        void flush() {
+            if (this.pendingMin != null) {
+                this.action.accept(this.pendingMin, this.pendingMax);
+                this.pendingMin = null;
+                this.pendingMax = null;
+            }
+        }
+    }
+}
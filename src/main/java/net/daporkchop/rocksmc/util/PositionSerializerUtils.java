@@ -3,8 +3,6 @@ package net.daporkchop.rocksmc.util;
 import cubicchunks.converter.lib.util.Vector2i;
 import cubicchunks.converter.lib.util.Vector3i;
 
-import java.nio.ByteBuffer;
-
 import static com.google.common.base.Preconditions.*;
 
 /**
@@ -37,48 +35,34 @@ public class PositionSerializerUtils {
         return arr;
     }
 
+    /*
+     * Positions are encoded by interleaving the bits of their coordinates, most significant bits first. For a Vector2i, the x and z coordinates
+     * are interleaved into a 64-bit value, with x in the odd bits. For a Vector3i, the x, y and z coordinates are interleaved into a 96-bit value,
+     * with bit i of x, y and z at bits 3*i+2, 3*i+1 and 3*i respectively. Both are stored big-endian.
+     *
+     * Bits are spread apart (and compacted again) using a few shifts and masks, rather than one bit at a time. The 96-bit value is handled as
+     * two 48-bit halves, each of which holds 16 bits of every coordinate.
+     */
+
     public static Vector2i readVec2i(byte[] src) {
-        long l = ByteBuffer.wrap(src).getLong();
-        int x = 0;
-        int z = 0;
-        for (int i = 0; i < 32; i++) {
-            int bits = (int) (l >>> (i << 1)) & 0x3;
-            x |= (bits >> 1) << i;
-            z |= (bits & 1) << i;
-        }
-        return new Vector2i(x, z);
+        long l = readLong(src, 0, 8);
+        return new Vector2i(compact2(l >>> 1L), compact2(l));
     }
 
     public static byte[] writeVec2i(Vector2i pos) {
         byte[] dst = new byte[8];
-
-        int x = pos.getX();
-        int z = pos.getY();
-        long l = 0L;
-        for (int i = 0; i < 32; i++) {
-            l |= (long) ((((x >>> i) & 1) << 1) | ((z >>> i) & 1)) << (i << 1);
-        }
-        ByteBuffer.wrap(dst).putLong(l);
+        writeLong(dst, 0, 8, (spread2(pos.getX()) << 1L) | spread2(pos.getY()));
         return dst;
     }
 
     public static Vector3i readVec3i(byte[] src) {
-        int startIndex = src.length - 1;
-        int x = readInterleavedIntBits(src, startIndex, 3, 2);
-        int y = readInterleavedIntBits(src, startIndex, 3, 1);
-        int z = readInterleavedIntBits(src, startIndex, 3, 0);
-        return new Vector3i(x, y, z);
-    }
-
-    private static int readInterleavedIntBits(byte[] src, int startIndex, int nValues, int bitOffset) {
-        int value = 0;
-        for (int shift = 0; shift < 32; shift++) {
-            int targetBitIndex = bitOffset + shift * nValues;
-            int targetByteIndex = startIndex - (targetBitIndex >>> 3);
-            int bit = (src[targetByteIndex] >>> (targetBitIndex & 0x7)) & 1;
-            value |= bit << shift;
-        }
-        return value;
+        int startIndex = src.length - 12;
+        long high = readLong(src, startIndex, 6);
+        long low = readLong(src, startIndex + 6, 6);
+        return new Vector3i(
+                compact3(low >>> 2L) | (compact3(high >>> 2L) << 16),
+                compact3(low >>> 1L) | (compact3(high >>> 1L) << 16),
+                compact3(low) | (compact3(high) << 16));
     }
 
     public static byte[] writeVec3i(Vector3i pos) {
@@ -86,19 +70,72 @@ public class PositionSerializerUtils {
         int y = pos.getY();
         int z = pos.getZ();
         byte[] dst = new byte[12];
-        int startIndex = dst.length - 1;
-        writeInterleavedIntBits(dst, startIndex, 3, 2, x);
-        writeInterleavedIntBits(dst, startIndex, 3, 1, y);
-        writeInterleavedIntBits(dst, startIndex, 3, 0, z);
+        writeLong(dst, 0, 6, (spread3(x >>> 16) << 2L) | (spread3(y >>> 16) << 1L) | spread3(z >>> 16));
+        writeLong(dst, 6, 6, (spread3(x) << 2L) | (spread3(y) << 1L) | spread3(z));
         return dst;
     }
 
-    private static void writeInterleavedIntBits(byte[] dst, int startIndex, int nValues, int bitOffset, int value) {
-        for (int shift = 0; shift < 32; shift++) {
-            int bit = (value >>> shift) & 1;
-            int targetBitIndex = bitOffset + shift * nValues;
-            int targetByteIndex = startIndex - (targetBitIndex >>> 3);
-            dst[targetByteIndex] |= bit << (targetBitIndex & 0x7);
+    /**
+     * Spreads the 32 bits of the given value out into the even bits of a {@code long}.
+     */
+    private static long spread2(int value) {
+        long l = value & 0xFFFFFFFFL;
+        l = (l | (l << 16L)) & 0x0000FFFF0000FFFFL;
+        l = (l | (l << 8L)) & 0x00FF00FF00FF00FFL;
+        l = (l | (l << 4L)) & 0x0F0F0F0F0F0F0F0FL;
+        l = (l | (l << 2L)) & 0x3333333333333333L;
+        l = (l | (l << 1L)) & 0x5555555555555555L;
+        return l;
+    }
+
+    /**
+     * The inverse of {@link #spread2(int)}, gathers the even bits of the given value.
+     */
+    private static int compact2(long l) {
+        l &= 0x5555555555555555L;
+        l = (l | (l >>> 1L)) & 0x3333333333333333L;
+        l = (l | (l >>> 2L)) & 0x0F0F0F0F0F0F0F0FL;
+        l = (l | (l >>> 4L)) & 0x00FF00FF00FF00FFL;
+        l = (l | (l >>> 8L)) & 0x0000FFFF0000FFFFL;
+        l = (l | (l >>> 16L)) & 0x00000000FFFFFFFFL;
+        return (int) l;
+    }
+
+    /**
+     * Spreads the low 16 bits of the given value out into every third bit of the low 48 bits of a {@code long}.
+     */
+    private static long spread3(int value) {
+        long l = value & 0xFFFFL;
+        l = (l | (l << 16L)) & 0x0000FF0000FFL;
+        l = (l | (l << 8L)) & 0x00F00F00F00FL;
+        l = (l | (l << 4L)) & 0x0C30C30C30C3L;
+        l = (l | (l << 2L)) & 0x249249249249L;
+        return l;
+    }
+
+    /**
+     * The inverse of {@link #spread3(int)}, gathers every third bit of the low 48 bits of the given value.
+     */
+    private static int compact3(long l) {
+        l &= 0x249249249249L;
+        l = (l | (l >>> 2L)) & 0x0C30C30C30C3L;
+        l = (l | (l >>> 4L)) & 0x00F00F00F00FL;
+        l = (l | (l >>> 8L)) & 0x0000FF0000FFL;
+        l = (l | (l >>> 16L)) & 0x00000000FFFFL;
+        return (int) l;
+    }
+
+    private static long readLong(byte[] src, int index, int bytes) {
+        long l = 0L;
+        for (int i = 0; i < bytes; i++) {
+            l = (l << 8L) | (src[index + i] & 0xFFL);
+        }
+        return l;
+    }
+
+    private static void writeLong(byte[] dst, int index, int bytes, long l) {
+        for (int i = bytes - 1; i >= 0; i--, l >>>= 8L) {
+            dst[index + i] = (byte) l;
         }
     }
 }
@@ -5,34 +5,39 @@ import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.CompressionType;
 import org.rocksdb.DBOptions;
 import org.rocksdb.Env;
+import org.rocksdb.EnvOptions;
 import org.rocksdb.FlushOptions;
+import org.rocksdb.IngestExternalFileOptions;
 import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
 import org.rocksdb.Priority;
 import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.WriteOptions;
 
 /**
+ * The options a database is opened and accessed with, as selected by a {@link RocksProfile}.
+ *
  * @author DaPorkchop_
  */
 public class RocksOptions {
-    public static final DBOptions DB_OPTIONS;
-    public static final ColumnFamilyOptions COLUMN_FAMILY_OPTIONS;
-
-    public static final ReadOptions READ_OPTIONS;
-    public static final WriteOptions WRITE_OPTIONS;
-    public static final FlushOptions FLUSH_OPTIONS;
-
     static {
         RocksDB.loadLibrary();
 
-        DB_OPTIONS = new DBOptions()
+        Env.getDefault()
+                .setBackgroundThreads(Runtime.getRuntime().availableProcessors(), Priority.BOTTOM)
+                .setBackgroundThreads(Runtime.getRuntime().availableProcessors(), Priority.LOW)
+                .setBackgroundThreads(Runtime.getRuntime().availableProcessors(), Priority.HIGH);
+    }
+
+    /**
+     * @return the {@link DBOptions} shared by all profiles, which may be further modified before being used
+     */
+    public static DBOptions defaultDBOptions() {
+        return new DBOptions()
                 .setCreateIfMissing(true)
                 .setCreateMissingColumnFamilies(true)
-                .setEnv(Env.getDefault()
-                        .setBackgroundThreads(Runtime.getRuntime().availableProcessors(), Priority.BOTTOM)
-                        .setBackgroundThreads(Runtime.getRuntime().availableProcessors(), Priority.LOW)
-                        .setBackgroundThreads(Runtime.getRuntime().availableProcessors(), Priority.HIGH))
+                .setEnv(Env.getDefault())
                 .setIncreaseParallelism(Runtime.getRuntime().availableProcessors())
                 .setParanoidChecks(false)
                 .setMaxFileOpeningThreads(Runtime.getRuntime().availableProcessors())
@@ -49,22 +54,65 @@ public class RocksOptions {
                 .setManualWalFlush(true)
                 .setMaxBackgroundJobs(Runtime.getRuntime().availableProcessors())
                 .setMaxOpenFiles(256);
+    }
 
-        COLUMN_FAMILY_OPTIONS = new ColumnFamilyOptions()
+    /**
+     * @return the {@link ColumnFamilyOptions} shared by all profiles, which may be further modified before being used
+     */
+    public static ColumnFamilyOptions defaultColumnFamilyOptions() {
+        return new ColumnFamilyOptions()
                 .setMaxWriteBufferNumber(Runtime.getRuntime().availableProcessors())
                 .setMinWriteBufferNumberToMerge(Runtime.getRuntime().availableProcessors())
                 .setCompressionType(CompressionType.ZSTD_COMPRESSION)
                 .setTargetFileSizeBase(65536L << 10L)
-                .setTableFormatConfig(new BlockBasedTableConfig()
-                        .setBlockSize(1024L << 10L)
-                        .setBlockCache(new LRUCache(
-                                (1024L << 11L) * (1L << 6),
-                                6)))
                 .setTargetFileSizeMultiplier(1);
+    }
+
+    /**
+     * @return the {@link BlockBasedTableConfig} shared by all profiles, with a block cache of the given size
+     */
+    public static BlockBasedTableConfig defaultTableConfig(long blockCacheSize) {
+        return new BlockBasedTableConfig()
+                .setBlockSize(1024L << 10L)
+                .setBlockCache(new LRUCache(blockCacheSize, 6));
+    }
+
+    public final DBOptions dbOptions;
+    public final ColumnFamilyOptions columnFamilyOptions;
+
+    public final ReadOptions readOptions;
+    public final WriteOptions writeOptions;
+    public final FlushOptions flushOptions;
+
+    public final EnvOptions sstEnvOptions;
+    public final Options sstOptions;
+    public final IngestExternalFileOptions ingestOptions;
 
-        READ_OPTIONS = new ReadOptions();
-        WRITE_OPTIONS = new WriteOptions()
+    /**
+     * Whether the whole database should be compacted once before it's closed. Profiles which disable automatic compaction need this to leave a
+     * database behind which can be read efficiently.
+     */
+    public final boolean compactOnClose;
+
+    public RocksOptions(DBOptions dbOptions, ColumnFamilyOptions columnFamilyOptions, boolean compactOnClose) {
+        this.dbOptions = dbOptions;
+        this.columnFamilyOptions = columnFamilyOptions;
+        this.compactOnClose = compactOnClose;
+
+        this.readOptions = new ReadOptions();
+        this.writeOptions = new WriteOptions()
                 .setDisableWAL(true);
-        FLUSH_OPTIONS = new FlushOptions();
+        this.flushOptions = new FlushOptions()
+                .setWaitForFlush(true)
+                .setAllowWriteStall(true);
+
+        //sst files written for bulk loading use the same table format and compression as the column families
+        this.sstEnvOptions = new EnvOptions();
+        this.sstOptions = new Options(dbOptions, columnFamilyOptions);
+        this.ingestOptions = new IngestExternalFileOptions()
+                .setMoveFiles(true)
+                .setSnapshotConsistency(false)
+                .setAllowGlobalSeqNo(true)
+                .setAllowBlockingFlush(true);
     }
 }
@@ -0,0 +1,151 @@
+package net.daporkchop.rocksmc.util;
+
+import cubicchunks.converter.lib.conf.ConverterConfig;
+import org.rocksdb.BloomFilter;
+
+import java.util.Locale;
+
+/**
+ * Named sets of {@link RocksOptions}, tuned for the different ways a RocksMC world may be accessed during a conversion.
+ * <p>
+ * The options of a profile are created once, the first time it's used, and shared between all databases opened with it.
+ *
+ * @author DaPorkchop_
+ */
+public enum RocksProfile {
+    /**
+     * General purpose options, suitable for both reading and writing.
+     */
+    DEFAULT("default") {
+        @Override
+        protected RocksOptions createOptions() {
+            return new RocksOptions(
+                    RocksOptions.defaultDBOptions(),
+                    RocksOptions.defaultColumnFamilyOptions()
+                            .setTableFormatConfig(RocksOptions.defaultTableConfig(128L << 20L)),
+                    false);
+        }
+    },
+    /**
+     * Loading a lot of data into a database. Automatic compaction is disabled and large memtables are used while writing, the whole database is
+     * compacted once when it's closed.
+     */
+    BULK_IMPORT("bulk-import") {
+        @Override
+        protected RocksOptions createOptions() {
+            return new RocksOptions(
+                    RocksOptions.defaultDBOptions()
+                            .setMaxOpenFiles(-1),
+                    RocksOptions.defaultColumnFamilyOptions()
+                            .setDisableAutoCompactions(true)
+                            .setWriteBufferSize(256L << 20L)
+                            .setMaxWriteBufferNumber(6)
+                            .setMinWriteBufferNumberToMerge(1)
+                            .setTargetFileSizeBase(256L << 20L)
+                            //without compaction, level 0 only ever grows. don't stall writes because of it
+                            .setLevel0FileNumCompactionTrigger(1 << 30)
+                            .setLevel0SlowdownWritesTrigger(1 << 30)
+                            .setLevel0StopWritesTrigger(1 << 30)
+                            .setSoftPendingCompactionBytesLimit(0L)
+                            .setHardPendingCompactionBytesLimit(0L)
+                            .setTableFormatConfig(RocksOptions.defaultTableConfig(32L << 20L)),
+                    true);
+        }
+    },
+    /**
+     * Looking up individual columns and cubes, rather than iterating over everything. Uses smaller blocks, a larger block cache and bloom filters.
+     */
+    RANDOM_READ("random-read") {
+        @Override
+        protected RocksOptions createOptions() {
+            return new RocksOptions(
+                    RocksOptions.defaultDBOptions()
+                            .setMaxOpenFiles(-1),
+                    RocksOptions.defaultColumnFamilyOptions()
+                            .setTableFormatConfig(RocksOptions.defaultTableConfig(512L << 20L)
+                                    .setBlockSize(16L << 10L)
+                                    .setFilterPolicy(new BloomFilter(10.0d, false))
+                                    .setCacheIndexAndFilterBlocks(true)
+                                    .setPinL0FilterAndIndexBlocksInCache(true)),
+                    false);
+        }
+    },
+    /**
+     * Keeps native memory usage low, at the cost of throughput.
+     */
+    LOW_MEMORY("low-memory") {
+        @Override
+        protected RocksOptions createOptions() {
+            return new RocksOptions(
+                    RocksOptions.defaultDBOptions()
+                            .setMaxBackgroundJobs(2)
+                            .setMaxOpenFiles(64),
+                    RocksOptions.defaultColumnFamilyOptions()
+                            .setWriteBufferSize(16L << 20L)
+                            .setMaxWriteBufferNumber(2)
+                            .setMinWriteBufferNumberToMerge(1)
+                            .setTableFormatConfig(RocksOptions.defaultTableConfig(16L << 20L)
+                                    .setBlockSize(64L << 10L)
+                                    .setCacheIndexAndFilterBlocks(true)),
+                    false);
+        }
+    };
+
+    /**
+     * Config option selecting the profile used by RocksMC readers, either a {@link RocksProfile} or its name.
+     */
+    public static final String READ_CONFIG = "rocksReadProfile";
+
+    /**
+     * Config option selecting the profile used by RocksMC writers, either a {@link RocksProfile} or its name.
+     */
+    public static final String WRITE_CONFIG = "rocksWriteProfile";
+
+    /**
+     * Returns the profile selected by the given config option, or {@link #DEFAULT} if it isn't set.
+     */
+    public static RocksProfile fromConfig(ConverterConfig config, String key) {
+        if (config == null || !config.hasValue(key)) {
+            return DEFAULT;
+        }
+        Object value = config.getValue(key);
+        if (value instanceof RocksProfile) {
+            return (RocksProfile) value;
+        }
+        return byName(value.toString());
+    }
+
+    public static RocksProfile byName(String name) {
+        for (RocksProfile profile : values()) {
+            if (profile.name.equals(name.toLowerCase(Locale.ROOT))) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("unknown rocksdb profile: " + name);
+    }
+
+    private final String name;
+    private RocksOptions options;
+
+    RocksProfile(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public synchronized RocksOptions options() {
+        if (this.options == null) {
+            this.options = this.createOptions();
+        }
+        return this.options;
+    }
+
+    protected abstract RocksOptions createOptions();
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConversionJournalTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file() {
+        return folder.getRoot().toPath().resolve("world.journal");
+    }
+
+    private static void complete(ConversionJournal journal, String region, int chunks) {
+        for (int i = 0; i < chunks; i++) {
+            journal.chunkRead(region);
+        }
+        for (int i = 0; i < chunks; i++) {
+            journal.chunkWritten(region);
+        }
+        journal.regionRead(region);
+    }
+
+    @Test public void testCheckpointRecordsCompletedRegions() throws IOException {
+        AtomicInteger flushes = new AtomicInteger();
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            complete(journal, "overworld/r.0.0.mca", 3);
+            journal.chunkRead("overworld/r.1.0.mca");
+            journal.regionRead("overworld/r.1.0.mca");
+            journal.checkpoint(flushes::incrementAndGet);
+        }
+        assertEquals(1, flushes.get());
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            assertEquals(1, journal.getCompletedCount());
+            assertTrue(journal.isCompleted("overworld/r.0.0.mca"));
+            assertFalse(journal.isCompleted("overworld/r.1.0.mca"));
+        }
+    }
+
+    @Test public void testRegionCompletesWhenLastChunkIsWritten() throws IOException {
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            journal.chunkRead("r");
+            journal.chunkRead("r");
+            journal.regionRead("r");
+            journal.chunkWritten("r");
+            journal.checkpoint(null);
+            journal.chunkWritten("r");
+            journal.checkpoint(null);
+        }
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            assertTrue(journal.isCompleted("r"));
+        }
+    }
+
+    @Test public void testFailedFlushKeepsRegionsForTheNextCheckpoint() throws IOException {
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            complete(journal, "r", 1);
+            try {
+                journal.checkpoint(() -> {
+                    throw new IOException("flush failed");
+                });
+                fail();
+            } catch (IOException expected) {
+            }
+            journal.checkpoint(() -> {
+            });
+        }
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            assertTrue(journal.isCompleted("r"));
+        }
+    }
+
+    @Test public void testCheckpointWrittenBackWaitsForWriteBack() throws IOException {
+        long[] stamps = {5, 5};
+        WriteBackTracking tracking = new WriteBackTracking() {
+            @Override public long getWriteStamp() {
+                return stamps[0];
+            }
+
+            @Override public long getOldestPendingWrite() {
+                return stamps[1];
+            }
+        };
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            journal.setWriteBackTracking(tracking);
+            complete(journal, "a", 1);
+            stamps[0] = 8;
+            complete(journal, "b", 1);
+
+            // everything from stamp 5 on is still cached
+            journal.checkpointWrittenBack();
+            // the regions written up to stamp 6 have been written back
+            stamps[1] = 7;
+            journal.checkpointWrittenBack();
+        }
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            assertTrue(journal.isCompleted("a"));
+            assertFalse(journal.isCompleted("b"));
+        }
+    }
+
+    @Test public void testDifferentConversionIsRefused() throws IOException {
+        ConversionJournal.open(file(), "first").close();
+        try {
+            ConversionJournal.open(file(), "second").close();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test public void testInterruptedLineIsDropped() throws IOException {
+        Files.write(file(), "# conversion test\nr.0.0\nr.1".getBytes(StandardCharsets.UTF_8));
+        try (ConversionJournal journal = ConversionJournal.open(file(), "test")) {
+            assertTrue(journal.isCompleted("r.0.0"));
+            assertFalse(journal.isCompleted("r.1"));
+            complete(journal, "r.2.0", 1);
+            journal.checkpoint(null);
+        }
+        assertEquals("# conversion test\nr.0.0\nr.2.0\n", new String(Files.readAllBytes(file()), StandardCharsets.UTF_8));
+    }
+
+    @Test public void testDiscardDeletesTheJournal() throws IOException {
+        ConversionJournal journal = ConversionJournal.open(file(), "test");
+        journal.discard();
+        assertFalse(Files.exists(file()));
+    }
+}
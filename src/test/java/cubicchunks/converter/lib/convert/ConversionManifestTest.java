@@ -0,0 +1,204 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+public class ConversionManifestTest {
+
+    private static final int ENTRIES = 1024;
+    // well before anything the tests do, so no timestamp is recent enough to be converted again just in case
+    private static final long OLD_MILLIS = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path manifestFile() {
+        return folder.getRoot().toPath().resolve("world.manifest");
+    }
+
+    private Path regionFile() {
+        return folder.getRoot().toPath().resolve("r.0.0.mca");
+    }
+
+    private void writeRegion(int[] locations, int[] timestamps, long modifiedMillis) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ENTRIES * 8);
+        for (int i = 0; i < ENTRIES; i++) {
+            header.putInt(i * 4, locations[i]);
+            header.putInt((ENTRIES + i) * 4, timestamps[i]);
+        }
+        Files.write(regionFile(), header.array());
+        Files.setLastModifiedTime(regionFile(), FileTime.fromMillis(modifiedMillis));
+    }
+
+    // missing chunks get one as well, a region file may keep the timestamps of removed chunks
+    private static int[] timestamps(long millis) {
+        int[] timestamps = new int[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            timestamps[i] = (int) TimeUnit.MILLISECONDS.toSeconds(millis);
+        }
+        return timestamps;
+    }
+
+    // chunks at even indices exist
+    private static int[] locations() {
+        int[] locations = new int[ENTRIES];
+        for (int i = 0; i < ENTRIES; i += 2) {
+            locations[i] = (2 + i) << 8 | 1;
+        }
+        return locations;
+    }
+
+    private static void writeAll(ConversionManifest.Region region) {
+        for (int i = 0; i < ENTRIES; i++) {
+            if (region.isChanged(i)) {
+                region.chunkWritten(i);
+            }
+        }
+    }
+
+    private static int countChanged(ConversionManifest.Region region) {
+        int changed = 0;
+        for (int i = 0; i < ENTRIES; i++) {
+            if (region.isChanged(i)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Test public void testFirstRunConvertsEverything() throws IOException {
+        writeRegion(locations(), timestamps(OLD_MILLIS), OLD_MILLIS);
+        ConversionManifest manifest = ConversionManifest.open(manifestFile(), "test");
+        assertEquals(0, manifest.getRegionCount());
+        ConversionManifest.Region region = manifest.region("r.0.0.mca", regionFile());
+        assertFalse(region.isUnchanged());
+        assertEquals(ENTRIES / 2, countChanged(region));
+        assertFalse(region.isChanged(1));
+    }
+
+    @Test public void testUnchangedRegionIsSkipped() throws IOException {
+        writeRegion(locations(), timestamps(OLD_MILLIS), OLD_MILLIS);
+        ConversionManifest first = ConversionManifest.open(manifestFile(), "test");
+        writeAll(first.region("r.0.0.mca", regionFile()));
+        first.save();
+
+        ConversionManifest second = ConversionManifest.open(manifestFile(), "test");
+        assertEquals(1, second.getRegionCount());
+        assertTrue(second.region("r.0.0.mca", regionFile()).isUnchanged());
+    }
+
+    @Test public void testOnlyChangedChunksAreConverted() throws IOException {
+        int[] locations = locations();
+        int[] timestamps = timestamps(OLD_MILLIS);
+        writeRegion(locations, timestamps, OLD_MILLIS);
+        ConversionManifest first = ConversionManifest.open(manifestFile(), "test");
+        writeAll(first.region("r.0.0.mca", regionFile()));
+        first.save();
+
+        timestamps[4] += 60;
+        locations[6] += 1 << 8;
+        locations[7] = 1000 << 8 | 1;
+        writeRegion(locations, timestamps, OLD_MILLIS + 60000);
+        ConversionManifest second = ConversionManifest.open(manifestFile(), "test");
+        ConversionManifest.Region region = second.region("r.0.0.mca", regionFile());
+        assertFalse(region.isUnchanged());
+        assertEquals(3, countChanged(region));
+        assertTrue(region.isChanged(4));
+        assertTrue(region.isChanged(6));
+        assertTrue(region.isChanged(7));
+    }
+
+    @Test public void testChunksNotWrittenAreRetried() throws IOException {
+        writeRegion(locations(), timestamps(OLD_MILLIS), OLD_MILLIS);
+        ConversionManifest first = ConversionManifest.open(manifestFile(), "test");
+        ConversionManifest.Region region = first.region("r.0.0.mca", regionFile());
+        for (int i = 0; i < ENTRIES; i++) {
+            // chunk 10 fails to convert
+            if (i != 10 && region.isChanged(i)) {
+                region.chunkWritten(i);
+            }
+        }
+        first.save();
+
+        // the region file is the same, but it isn't skipped as it wasn't complete
+        ConversionManifest second = ConversionManifest.open(manifestFile(), "test");
+        region = second.region("r.0.0.mca", regionFile());
+        assertFalse(region.isUnchanged());
+        assertEquals(1, countChanged(region));
+        assertTrue(region.isChanged(10));
+    }
+
+    @Test public void testRecentlySavedChunksAreConvertedAgain() throws IOException {
+        long now = System.currentTimeMillis();
+        writeRegion(locations(), timestamps(now), OLD_MILLIS);
+        ConversionManifest first = ConversionManifest.open(manifestFile(), "test");
+        writeAll(first.region("r.0.0.mca", regionFile()));
+        first.save();
+
+        // the chunks may have been saved again within the same second after the header was read
+        writeRegion(locations(), timestamps(now), OLD_MILLIS + 1000);
+        ConversionManifest second = ConversionManifest.open(manifestFile(), "test");
+        assertEquals(ENTRIES / 2, countChanged(second.region("r.0.0.mca", regionFile())));
+    }
+
+    @Test public void testRegionIsScannedOnce() throws IOException {
+        writeRegion(locations(), timestamps(OLD_MILLIS), OLD_MILLIS);
+        ConversionManifest manifest = ConversionManifest.open(manifestFile(), "test");
+        ConversionManifest.Region region = manifest.region("r.0.0.mca", regionFile());
+        Files.delete(regionFile());
+        assertTrue(region == manifest.region("r.0.0.mca", regionFile()));
+    }
+
+    @Test public void testRefusesManifestOfAnotherConversion() throws IOException {
+        ConversionManifest.open(manifestFile(), "test").save();
+        try {
+            ConversionManifest.open(manifestFile(), "other");
+            fail("opened the manifest of another conversion");
+        } catch (IOException expected) {
+            // different conversion
+        }
+    }
+
+    @Test public void testDiscard() throws IOException {
+        ConversionManifest manifest = ConversionManifest.open(manifestFile(), "test");
+        manifest.save();
+        assertTrue(Files.exists(manifestFile()));
+        manifest.discard();
+        assertFalse(Files.exists(manifestFile()));
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.convert.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class EnumerationQueueTest {
+
+    private static final long BATCH_SIZE = 100;
+
+    private static EnumerationQueue<Integer> queue(int batchesInMemory) {
+        return new EnumerationQueue<>(new IntCodec(), batchesInMemory * BATCH_SIZE);
+    }
+
+    private static FileChannel spillFile(EnumerationQueue<?> queue) throws ReflectiveOperationException {
+        Field spill = EnumerationQueue.class.getDeclaredField("spill");
+        spill.setAccessible(true);
+        return (FileChannel) spill.get(queue);
+    }
+
+    @Test public void testInMemory() throws Exception {
+        EnumerationQueue<Integer> queue = new EnumerationQueue<>();
+        for (int i = 0; i < 100; i++) {
+            queue.publish(i);
+        }
+        queue.finish();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), queue.take());
+        }
+        assertNull(queue.take());
+    }
+
+    @Test public void testKeepsOrderOnceSpilled() throws Exception {
+        EnumerationQueue<Integer> queue = queue(2);
+        int published = 0;
+        int taken = 0;
+        // taking some now and then makes room in memory while older batches are still in the file
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 5; i++) {
+                queue.publish(published++);
+            }
+            assertEquals(Integer.valueOf(taken++), queue.take());
+        }
+        queue.finish();
+        while (taken < published) {
+            assertEquals(Integer.valueOf(taken++), queue.take());
+        }
+        assertNull(queue.take());
+        assertNull(spillFile(queue));
+    }
+
+    @Test public void testEmptiesTheFileOnceReadBack() throws Exception {
+        EnumerationQueue<Integer> queue = queue(1);
+        for (int i = 0; i < 10; i++) {
+            queue.publish(i);
+        }
+        FileChannel file = spillFile(queue);
+        assertTrue(file.size() > 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), queue.take());
+        }
+        assertEquals(0, file.size());
+
+        // and it's reused from the start
+        for (int i = 10; i < 20; i++) {
+            queue.publish(i);
+        }
+        assertEquals(9 * Integer.BYTES, file.size());
+        queue.finish();
+        for (int i = 10; i < 20; i++) {
+            assertEquals(Integer.valueOf(i), queue.take());
+        }
+        assertNull(queue.take());
+        assertFalse(file.isOpen());
+    }
+
+    @Test public void testConcurrentTakersGetEveryBatchOnceInOrder() throws Exception {
+        EnumerationQueue<Integer> queue = queue(16);
+        int count = 20000;
+        int takers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(takers);
+        try {
+            List<Future<List<Integer>>> results = new ArrayList<>();
+            for (int t = 0; t < takers; t++) {
+                results.add(executor.submit(() -> {
+                    List<Integer> taken = new ArrayList<>();
+                    Integer batch;
+                    while ((batch = queue.take()) != null) {
+                        taken.add(batch);
+                    }
+                    return taken;
+                }));
+            }
+            for (int i = 0; i < count; i++) {
+                queue.publish(i);
+            }
+            queue.finish();
+
+            boolean[] seen = new boolean[count];
+            for (Future<List<Integer>> result : results) {
+                int last = -1;
+                for (int batch : result.get(30, TimeUnit.SECONDS)) {
+                    assertTrue("taken out of order", batch > last);
+                    assertFalse("taken twice", seen[batch]);
+                    seen[batch] = true;
+                    last = batch;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                assertTrue("never taken: " + i, seen[i]);
+            }
+            assertNull(spillFile(queue));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test public void testRethrowsCountingFailureAfterTheLastBatch() throws Exception {
+        EnumerationQueue<Integer> queue = queue(1);
+        queue.publish(0);
+        queue.publish(1);
+        queue.fail(new IOException("counting failed"));
+        assertEquals(Integer.valueOf(0), queue.take());
+        assertEquals(Integer.valueOf(1), queue.take());
+        try {
+            queue.take();
+            fail("the failure wasn't rethrown");
+        } catch (IOException expected) {
+            assertEquals("counting failed", expected.getMessage());
+        }
+    }
+
+    @Test public void testAbortDropsEverything() throws Exception {
+        EnumerationQueue<Integer> queue = queue(1);
+        for (int i = 0; i < 10; i++) {
+            queue.publish(i);
+        }
+        FileChannel file = spillFile(queue);
+        queue.abort(new RuntimeException("loading failed"));
+        queue.publish(10);
+        assertNull(queue.take());
+        assertFalse(file.isOpen());
+        assertNull(spillFile(queue));
+    }
+
+    private static class IntCodec implements EnumerationQueue.Codec<Integer> {
+
+        @Override public long sizeOf(Integer batch) {
+            return BATCH_SIZE;
+        }
+
+        @Override public void write(DataOutputStream out, Integer batch) throws IOException {
+            out.writeInt(batch);
+        }
+
+        @Override public Integer read(DataInputStream in) throws IOException {
+            return in.readInt();
+        }
+    }
+}
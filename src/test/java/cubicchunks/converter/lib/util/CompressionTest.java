@@ -0,0 +1,192 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+public class CompressionTest {
+
+    private static final byte[] DATA = data();
+
+    private static byte[] data() {
+        Random random = new Random(1234L);
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) random.nextInt(8);
+        }
+        return data;
+    }
+
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip() throws IOException {
+        return toArray(Compression.compress(Compression.FORMAT_GZIP, false, out -> out.write(DATA)));
+    }
+
+    @Test public void testGzipIsReadableByTheJdk() throws IOException {
+        assertArrayEquals(DATA, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip()))));
+    }
+
+    @Test public void testGzipTrailer() throws IOException {
+        byte[] compressed = gzip();
+        ByteBuffer trailer = ByteBuffer.wrap(compressed, compressed.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        crc.update(DATA);
+        assertEquals((int) crc.getValue(), trailer.getInt());
+        assertEquals(DATA.length, trailer.getInt());
+    }
+
+    @Test public void testGzipWrittenOneByteAtATime() throws IOException {
+        byte[] compressed = toArray(Compression.compress(Compression.FORMAT_GZIP, false, out -> {
+            for (byte b : DATA) {
+                out.write(b);
+            }
+        }));
+        assertArrayEquals(DATA, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test public void testReadsGzipFromTheJdk() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(DATA);
+        }
+        assertArrayEquals(DATA, readAll(Compression.gzipInput(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test public void testSkipsOptionalHeaderFields() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // FHCRC, FEXTRA, FNAME and FCOMMENT
+        bytes.write(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 0});
+        bytes.write(new byte[] {3, 0, 'x', 'y', 'z'});
+        bytes.write(new byte[] {'n', 'a', 'm', 'e', 0});
+        bytes.write(new byte[] {'c', 0});
+        bytes.write(new byte[] {0, 0});
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater) {
+            @Override public void close() throws IOException {
+                finish();
+            }
+        }) {
+            out.write(DATA);
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(DATA);
+        bytes.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue()).putInt(DATA.length).array());
+
+        assertArrayEquals(DATA, readAll(Compression.gzipInput(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test public void testRejectsCorruptTrailer() throws IOException {
+        byte[] compressed = gzip();
+        compressed[compressed.length - 8] ^= 1;
+        try {
+            readAll(Compression.gzipInput(new ByteArrayInputStream(compressed)));
+            fail("a wrong CRC wasn't noticed");
+        } catch (ZipException expected) {
+            // the CRC doesn't match
+        }
+        compressed = gzip();
+        compressed[compressed.length - 1] ^= 1;
+        try {
+            readAll(Compression.gzipInput(new ByteArrayInputStream(compressed)));
+            fail("a wrong size wasn't noticed");
+        } catch (ZipException expected) {
+            // the size doesn't match
+        }
+    }
+
+    @Test public void testRejectsWrongMagic() throws IOException {
+        byte[] compressed = gzip();
+        compressed[0] = 0;
+        try {
+            Compression.gzipInput(new ByteArrayInputStream(compressed));
+            fail("not in GZIP format, but accepted");
+        } catch (ZipException expected) {
+            // not GZIP
+        }
+    }
+
+    @Test public void testZlibIsReadableByTheJdk() throws IOException {
+        byte[] compressed = toArray(Compression.compress(Compression.FORMAT_ZLIB, false, out -> out.write(DATA)));
+        assertArrayEquals(DATA, readAll(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test public void testPrefixedRoundTrip() throws IOException {
+        for (int format : new int[] {Compression.FORMAT_GZIP, Compression.FORMAT_ZLIB}) {
+            byte[] compressed = toArray(Compression.compress(format, true, out -> out.write(DATA)));
+            assertEquals(format, compressed[0]);
+            assertArrayEquals(DATA, readAll(Compression.decompressPrefixed(new ByteArrayInputStream(compressed))));
+        }
+    }
+
+    @Test public void testPooledCodecsDontCarryStateOver() throws IOException {
+        // the first stream is left unfinished, its codecs are still returned to the pool when closed
+        byte[] first = gzip();
+        byte[] other = Arrays.copyOf(DATA, 1000);
+        for (int i = 0; i < 10; i++) {
+            InputStream in = Compression.gzipInput(new ByteArrayInputStream(first));
+            in.read(new byte[100]);
+            in.close();
+            byte[] compressed = toArray(Compression.compress(Compression.FORMAT_GZIP, false, out -> out.write(other)));
+            assertArrayEquals(other, readAll(Compression.gzipInput(new ByteArrayInputStream(compressed))));
+        }
+        assertArrayEquals(first, gzip());
+    }
+}
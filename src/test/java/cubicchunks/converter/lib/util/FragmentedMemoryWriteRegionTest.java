@@ -0,0 +1,169 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import static cubicchunks.converter.lib.util.RegionFiles.assertEntries;
+import static cubicchunks.converter.lib.util.RegionFiles.entry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import cubicchunks.regionlib.UnsupportedDataException;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class FragmentedMemoryWriteRegionTest {
+
+    private static final int KEYS = 4096;
+    private static final int SECTOR_SIZE = 512;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private FragmentedMemoryWriteRegion<EntryLocation3D> region() throws IOException {
+        return new FragmentedMemoryWriteRegion.Builder<EntryLocation3D>()
+                .setDirectory(folder.getRoot().toPath())
+                .setRegionKey(new EntryLocation3D(0, 0, 0).getRegionKey())
+                .setKeyProvider(new EntryLocation3D.Provider())
+                .setSectorSize(SECTOR_SIZE)
+                .build();
+    }
+
+    private Path file() {
+        return folder.getRoot().toPath().resolve(new EntryLocation3D(0, 0, 0).getRegionKey().getName());
+    }
+
+    private static EntryLocation3D key(int id) {
+        return new EntryLocation3D(id >> 8, (id >> 4) & 15, id & 15);
+    }
+
+    private static void write(FragmentedMemoryWriteRegion<EntryLocation3D> region, Map<Integer, byte[]> expected, int id, byte[] data) throws IOException {
+        region.writeValue(key(id), ByteBuffer.wrap(data));
+        expected.put(id, data);
+    }
+
+    private void assertCompact() throws IOException {
+        assertEquals(Files.size(file()), (long) RegionFiles.usedSectors(file(), KEYS, SECTOR_SIZE) * SECTOR_SIZE);
+    }
+
+    @Test public void testRoundTrip() throws IOException {
+        Random random = new Random(1234L);
+        Map<Integer, byte[]> expected = new HashMap<>();
+        FragmentedMemoryWriteRegion<EntryLocation3D> region = region();
+        write(region, expected, 0, entry(random, 0));
+        write(region, expected, 1, entry(random, 100));
+        write(region, expected, 17, entry(random, SECTOR_SIZE - Integer.BYTES));
+        write(region, expected, 4095, entry(random, 10 * SECTOR_SIZE + 3));
+        region.close();
+
+        assertEntries(expected, RegionFiles.read(file(), KEYS, SECTOR_SIZE));
+        assertCompact();
+    }
+
+    @Test public void testOverwrittenEntriesAreCompactedAway() throws IOException {
+        Random random = new Random(1234L);
+        Map<Integer, byte[]> expected = new HashMap<>();
+        FragmentedMemoryWriteRegion<EntryLocation3D> region = region();
+        for (int i = 0; i < 5000; i++) {
+            write(region, expected, i % 16, entry(random, random.nextInt(2 * SECTOR_SIZE)));
+        }
+        // compacted while writing, so the file doesn't keep every overwritten copy
+        assertTrue(Files.size(file()) < 5000L * SECTOR_SIZE);
+        region.close();
+
+        assertEntries(expected, RegionFiles.read(file(), KEYS, SECTOR_SIZE));
+        assertCompact();
+    }
+
+    @Test public void testKeepsEntriesOfTheExistingFile() throws IOException {
+        Random random = new Random(1234L);
+        Map<Integer, byte[]> expected = new HashMap<>();
+        FragmentedMemoryWriteRegion<EntryLocation3D> first = region();
+        for (int id = 0; id < 200; id++) {
+            write(first, expected, id, entry(random, random.nextInt(3 * SECTOR_SIZE)));
+        }
+        first.close();
+
+        FragmentedMemoryWriteRegion<EntryLocation3D> second = region();
+        for (int id = 100; id < 300; id++) {
+            write(second, expected, id, entry(random, random.nextInt(3 * SECTOR_SIZE)));
+        }
+        second.close();
+
+        assertEntries(expected, RegionFiles.read(file(), KEYS, SECTOR_SIZE));
+        assertCompact();
+    }
+
+    @Test public void testRefusesOversizedEntriesAndDropsTheOlderCopy() throws IOException {
+        Random random = new Random(1234L);
+        Map<Integer, byte[]> expected = new HashMap<>();
+        FragmentedMemoryWriteRegion<EntryLocation3D> first = region();
+        write(first, expected, 3, entry(random, 100));
+        write(first, expected, 4, entry(random, 100));
+        first.close();
+
+        FragmentedMemoryWriteRegion<EntryLocation3D> second = region();
+        try {
+            second.writeValue(key(3), ByteBuffer.wrap(entry(random, 255 * SECTOR_SIZE)));
+            fail("an entry of more than 255 sectors was accepted");
+        } catch (UnsupportedDataException expectedException) {
+            // stored by the save section's next region provider instead
+        }
+        expected.remove(3);
+        second.close();
+
+        assertEntries(expected, RegionFiles.read(file(), KEYS, SECTOR_SIZE));
+    }
+
+    @Test public void testNullRemovesTheEntry() throws IOException {
+        Random random = new Random(1234L);
+        Map<Integer, byte[]> expected = new HashMap<>();
+        FragmentedMemoryWriteRegion<EntryLocation3D> first = region();
+        write(first, expected, 3, entry(random, 100));
+        write(first, expected, 4, entry(random, 100));
+        first.close();
+
+        FragmentedMemoryWriteRegion<EntryLocation3D> second = region();
+        second.writeValue(key(4), null);
+        expected.remove(4);
+        second.close();
+
+        assertEntries(expected, RegionFiles.read(file(), KEYS, SECTOR_SIZE));
+    }
+
+    @Test public void testNothingWrittenCreatesNoFile() throws IOException {
+        region().close();
+        assertFalse(Files.exists(file()));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class PackedColumnsTest {
+
+    @Test public void testPack() {
+        for (int[] xz : new int[][] {{0, 0}, {1, -1}, {-1, 1}, {Integer.MIN_VALUE, Integer.MAX_VALUE}, {-123456, 654321}}) {
+            long packed = PackedColumns.pack(xz[0], xz[1]);
+            assertEquals(xz[0], (int) packed);
+            assertEquals(xz[1], (int) (packed >>> 32));
+        }
+    }
+
+    @Test public void testBuild() {
+        Random random = new Random(1234L);
+        // columns by packed position, which is the order they're built in
+        Map<Long, List<Integer>> expected = new TreeMap<>();
+        List<int[]> cubes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(64) - 32;
+            int z = random.nextInt(64) - 32;
+            int y = random.nextInt(1 << 20) - (1 << 19);
+            cubes.add(new int[] {x, y, z});
+        }
+        Collections.shuffle(cubes, random);
+        PackedColumns.Builder builder = new PackedColumns.Builder();
+        for (int[] cube : cubes) {
+            builder.add(cube[0], cube[1], cube[2]);
+            expected.computeIfAbsent(PackedColumns.pack(cube[0], cube[2]), k -> new ArrayList<>()).add(cube[1]);
+        }
+        assertEquals(expected.size(), builder.getColumnCount());
+
+        assertColumns(expected, builder.build());
+    }
+
+    @Test public void testWriteAndRead() throws IOException {
+        PackedColumns.Builder builder = new PackedColumns.Builder();
+        Map<Long, List<Integer>> expected = new TreeMap<>();
+        for (int x = -3; x < 3; x++) {
+            for (int z = -3; z < 3; z++) {
+                for (int y = 0; y < ((x + z) & 7); y++) {
+                    builder.add(x, y * 3 - 10, z);
+                    expected.computeIfAbsent(PackedColumns.pack(x, z), k -> new ArrayList<>()).add(y * 3 - 10);
+                }
+            }
+        }
+        PackedColumns columns = builder.build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        columns.write(new DataOutputStream(bytes));
+
+        PackedColumns read = PackedColumns.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertColumns(expected, read);
+        assertEquals(columns.getSizeInBytes(), read.getSizeInBytes());
+    }
+
+    @Test public void testEmpty() throws IOException {
+        PackedColumns columns = new PackedColumns.Builder().build();
+        assertEquals(0, columns.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        columns.write(new DataOutputStream(bytes));
+        assertEquals(0, PackedColumns.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))).size());
+    }
+
+    @Test public void testSizeInBytes() {
+        PackedColumns.Builder builder = new PackedColumns.Builder();
+        for (int y = 0; y < 100; y++) {
+            builder.add(0, y, 0);
+            builder.add(1, y, 0);
+        }
+        long size = builder.build().getSizeInBytes();
+        // 2 positions, 3 offsets and 200 y coordinates
+        assertTrue(size >= 2 * Long.BYTES + 3 * Integer.BYTES + 200 * Integer.BYTES);
+        assertTrue(size < 2 * Long.BYTES + 3 * Integer.BYTES + 200 * Integer.BYTES + 64);
+    }
+
+    private static void assertColumns(Map<Long, List<Integer>> expected, PackedColumns columns) {
+        assertEquals(expected.size(), columns.size());
+        int column = 0;
+        for (Map.Entry<Long, List<Integer>> entry : expected.entrySet()) {
+            assertEquals((int) (long) entry.getKey(), columns.getX(column));
+            assertEquals((int) (entry.getKey() >>> 32), columns.getZ(column));
+            List<Integer> yCoords = entry.getValue();
+            assertEquals(yCoords.size(), columns.getCubeCount(column));
+            for (int cube = 0; cube < yCoords.size(); cube++) {
+                // cubes keep the order they were added in
+                assertEquals((int) yCoords.get(cube), columns.getY(column, cube));
+            }
+            column++;
+        }
+    }
+}
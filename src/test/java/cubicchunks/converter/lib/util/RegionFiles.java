@@ -0,0 +1,90 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reads back region files in the layout regionlib's Region reads: a location table of packed sector offsets and sizes,
+ * followed by size prefixed entries that start at sector boundaries.
+ */
+final class RegionFiles {
+
+    private RegionFiles() {
+        throw new Error();
+    }
+
+    static Map<Integer, byte[]> read(Path file, int keyCount, int sectorSize) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        Map<Integer, byte[]> entries = new HashMap<>();
+        for (int id = 0; id < keyCount; id++) {
+            int location = data.getInt(id * Integer.BYTES);
+            if (location == 0) {
+                continue;
+            }
+            int offset = (location >>> 8) * sectorSize;
+            int sectors = location & 0xFF;
+            int size = data.getInt(offset);
+            assertTrue("entry " + id + " doesn't fit into its sectors", size + Integer.BYTES <= sectors * sectorSize);
+            byte[] entry = new byte[size];
+            ((ByteBuffer) data.duplicate().position(offset + Integer.BYTES)).get(entry);
+            entries.put(id, entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the number of sectors the location table and all entries use together.
+     */
+    static int usedSectors(Path file, int keyCount, int sectorSize) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        int sectors = (keyCount * Integer.BYTES + sectorSize - 1) / sectorSize;
+        for (int id = 0; id < keyCount; id++) {
+            sectors += data.getInt(id * Integer.BYTES) & 0xFF;
+        }
+        return sectors;
+    }
+
+    static byte[] entry(Random random, int size) {
+        byte[] entry = new byte[size];
+        random.nextBytes(entry);
+        return entry;
+    }
+
+    static void assertEntries(Map<Integer, byte[]> expected, Map<Integer, byte[]> actual) {
+        assertTrue("expected entries " + expected.keySet() + " but got " + actual.keySet(), expected.keySet().equals(actual.keySet()));
+        for (Map.Entry<Integer, byte[]> entry : expected.entrySet()) {
+            assertTrue("entry " + entry.getKey() + " differs", Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+        }
+    }
+}
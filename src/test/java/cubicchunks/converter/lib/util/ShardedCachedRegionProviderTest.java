@@ -0,0 +1,295 @@
+/*
+ *  This file is part of CubicChunksConverter, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2017 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.converter.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import cubicchunks.regionlib.api.region.IRegion;
+import cubicchunks.regionlib.api.region.IRegionProvider;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.util.CheckedBiConsumer;
+import cubicchunks.regionlib.util.CheckedConsumer;
+import cubicchunks.regionlib.util.CheckedFunction;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ShardedCachedRegionProviderTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static EntryLocation3D inRegion(int region) {
+        return new EntryLocation3D(region * 16, 0, 0);
+    }
+
+    private static ByteBuffer value(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    private static void write(ShardedCachedRegionProvider<EntryLocation3D> cache, int region) throws IOException {
+        cache.forRegion(inRegion(region), r -> r.writeValue(inRegion(region), value(100)));
+    }
+
+    @Test public void testFlushWritesBackOnlyWrittenRegions() throws IOException {
+        FakeProvider source = new FakeProvider();
+        ShardedCachedRegionProvider<EntryLocation3D> cache = new ShardedCachedRegionProvider<>(source, Long.MAX_VALUE, true);
+        write(cache, 0);
+        write(cache, 1);
+        cache.forRegion(inRegion(2), r -> r.readValue(inRegion(2)));
+
+        cache.flush();
+        assertEquals(1, source.closes(0));
+        assertEquals(1, source.closes(1));
+        assertEquals(0, source.closes(2));
+        assertTrue(source.hasEntry(0));
+        assertTrue(source.hasEntry(1));
+
+        // flushed regions are reopened on their next use
+        write(cache, 0);
+        cache.close();
+        assertEquals(2, source.closes(0));
+        assertEquals(1, source.closes(2));
+    }
+
+    @Test public void testFlushWaitsForRegionsInUseWithoutBlockingOthers() throws Exception {
+        FakeProvider source = new FakeProvider();
+        ShardedCachedRegionProvider<EntryLocation3D> cache = new ShardedCachedRegionProvider<>(source, Long.MAX_VALUE, true);
+        write(cache, 1);
+        CountDownLatch inUse = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> user = CompletableFuture.runAsync(() -> {
+            try {
+                cache.forRegion(inRegion(0), r -> {
+                    r.writeValue(inRegion(0), value(100));
+                    inUse.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(inUse.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> flush = CompletableFuture.runAsync(() -> {
+            try {
+                cache.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // the idle region is written back while the other one is still in use
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (source.closes(1) == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, source.closes(1));
+        // and the region in use can still be used by others
+        write(cache, 0);
+        assertFalse(flush.isDone());
+        assertEquals(0, source.closes(0));
+
+        release.countDown();
+        user.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        flush.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(1, source.closes(0));
+        cache.close();
+    }
+
+    @Test public void testEvictsToStayWithinBudget() throws IOException {
+        FakeProvider source = new FakeProvider();
+        ShardedCachedRegionProvider.Budget budget = new ShardedCachedRegionProvider.Budget(0);
+        ShardedCachedRegionProvider<EntryLocation3D> cache = new ShardedCachedRegionProvider<>(source, budget, false);
+        for (int region = 0; region < 64; region++) {
+            write(cache, region);
+        }
+        assertTrue(budget.getUsedBytes() <= 2 * budget.getMaxBytes());
+        int closed = 0;
+        for (int region = 0; region < 64; region++) {
+            closed += source.closes(region);
+        }
+        assertTrue(closed > 60);
+
+        // evicted regions are reopened with everything written to them
+        for (int region = 0; region < 64; region++) {
+            EntryLocation3D key = inRegion(region);
+            assertTrue(cache.fromExistingRegion(key, r -> r.readValue(key)).get().isPresent());
+        }
+        cache.close();
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test public void testFailedWriteBackFailsLaterUses() throws IOException {
+        FakeProvider source = new FakeProvider();
+        source.failCloses = true;
+        ShardedCachedRegionProvider<EntryLocation3D> cache = new ShardedCachedRegionProvider<>(source, new ShardedCachedRegionProvider.Budget(0), true);
+        try {
+            for (int region = 0; region < 64; region++) {
+                write(cache, region);
+            }
+            cache.flush();
+            fail("nothing could be written back, but no failure was reported");
+        } catch (IOException expected) {
+            // reported by a later write, or at the latest by the flush
+        }
+        try {
+            write(cache, 100);
+            fail("the cache was still used after losing data");
+        } catch (IOException expected) {
+            // reports the background failure
+        }
+    }
+
+    @Test public void testTracksOldestPendingWrite() throws IOException {
+        FakeProvider source = new FakeProvider();
+        ShardedCachedRegionProvider.Budget budget = new ShardedCachedRegionProvider.Budget(Long.MAX_VALUE);
+        ShardedCachedRegionProvider<EntryLocation3D> first = new ShardedCachedRegionProvider<>(source, budget, true);
+        ShardedCachedRegionProvider<EntryLocation3D> second = new ShardedCachedRegionProvider<>(source, budget, true);
+        assertEquals(Long.MAX_VALUE, budget.getOldestPendingWrite());
+
+        write(first, 0);
+        long firstWrite = budget.getWriteStamp();
+        assertEquals(firstWrite, budget.getOldestPendingWrite());
+        write(second, 1);
+        assertTrue(budget.getWriteStamp() > firstWrite);
+        assertEquals(firstWrite, budget.getOldestPendingWrite());
+        // more writes to a region that's already pending don't make it any newer
+        write(first, 0);
+        assertEquals(firstWrite, budget.getOldestPendingWrite());
+
+        first.flush();
+        long secondWrite = budget.getOldestPendingWrite();
+        assertTrue(secondWrite > firstWrite && secondWrite <= budget.getWriteStamp());
+        second.flush();
+        assertEquals(Long.MAX_VALUE, budget.getOldestPendingWrite());
+        first.close();
+        second.close();
+    }
+
+    private static class FakeProvider implements IRegionProvider<EntryLocation3D> {
+
+        final Map<RegionKey, Map<Integer, ByteBuffer>> files = new ConcurrentHashMap<>();
+        final Map<RegionKey, AtomicInteger> closes = new ConcurrentHashMap<>();
+        volatile boolean failCloses;
+
+        int closes(int region) {
+            AtomicInteger count = closes.get(inRegion(region).getRegionKey());
+            return count == null ? 0 : count.get();
+        }
+
+        boolean hasEntry(int region) {
+            Map<Integer, ByteBuffer> file = files.get(inRegion(region).getRegionKey());
+            return file != null && file.containsKey(inRegion(region).getId());
+        }
+
+        @Override public IRegion<EntryLocation3D> getRegion(EntryLocation3D key) {
+            files.computeIfAbsent(key.getRegionKey(), k -> new ConcurrentHashMap<>());
+            return new FakeRegion(this, key.getRegionKey());
+        }
+
+        @Override public Optional<IRegion<EntryLocation3D>> getExistingRegion(EntryLocation3D key) {
+            return files.containsKey(key.getRegionKey()) ? Optional.of(getRegion(key)) : Optional.empty();
+        }
+
+        @Override public <R> Optional<R> fromExistingRegion(EntryLocation3D key, CheckedFunction<? super IRegion<EntryLocation3D>, R, IOException> func) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public <R> R fromRegion(EntryLocation3D key, CheckedFunction<? super IRegion<EntryLocation3D>, R, IOException> func) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void forRegion(EntryLocation3D key, CheckedConsumer<? super IRegion<EntryLocation3D>, IOException> cons) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void forExistingRegion(EntryLocation3D key, CheckedConsumer<? super IRegion<EntryLocation3D>, IOException> cons) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void forAllRegions(CheckedBiConsumer<RegionKey, ? super IRegion<EntryLocation3D>, IOException> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void close() {
+        }
+    }
+
+    // keeps its entries in memory, pending until closed like the buffered region writers
+    private static class FakeRegion implements IRegion<EntryLocation3D> {
+
+        private final FakeProvider provider;
+        private final RegionKey regionKey;
+        private final Map<Integer, ByteBuffer> pending = new ConcurrentHashMap<>();
+
+        FakeRegion(FakeProvider provider, RegionKey regionKey) {
+            this.provider = provider;
+            this.regionKey = regionKey;
+        }
+
+        @Override public void writeValue(EntryLocation3D key, ByteBuffer value) {
+            pending.put(key.getId(), value);
+        }
+
+        @Override public void writeSpecial(EntryLocation3D key, Object marker) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public Optional<ByteBuffer> readValue(EntryLocation3D key) {
+            ByteBuffer value = pending.get(key.getId());
+            return Optional.ofNullable(value != null ? value : provider.files.get(regionKey).get(key.getId()));
+        }
+
+        @Override public boolean hasValue(EntryLocation3D key) {
+            return readValue(key).isPresent();
+        }
+
+        @Override public void forEachKey(CheckedConsumer<? super EntryLocation3D, IOException> cons) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void close() throws IOException {
+            provider.closes.computeIfAbsent(regionKey, k -> new AtomicInteger()).incrementAndGet();
+            if (provider.failCloses) {
+                throw new IOException("Failed to write " + regionKey.getName());
+            }
+            provider.files.get(regionKey).putAll(pending);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package net.daporkchop.rocksmc.util;
+
+import cubicchunks.converter.lib.util.Compression;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ChunkCompressUtils} actually compresses at the requested level, and that everything it writes can be read back.
+ *
+ * @author DaPorkchop_
+ */
+public class ChunkCompressUtilsTest {
+    private static final byte[] DATA = data();
+
+    private static byte[] data() {
+        //compressible, but not so trivially that every level produces the same output
+        Random random = new Random(1234L);
+        byte[] data = new byte[1 << 16];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (random.nextInt(16) + (i >> 10));
+        }
+        return data;
+    }
+
+    @Test
+    public void testLevelsDiffer() {
+        ByteBuffer size = ChunkCompressUtils.compressAnvil(ByteBuffer.wrap(DATA), Compression.Level.SIZE);
+        ByteBuffer speed = ChunkCompressUtils.compressAnvil(ByteBuffer.wrap(DATA), Compression.Level.SPEED);
+        ByteBuffer store = ChunkCompressUtils.compressAnvil(ByteBuffer.wrap(DATA), Compression.Level.STORE);
+
+        assertNotEquals(size, speed);
+        assertNotEquals(size, store);
+        assertTrue(store.remaining() > DATA.length);
+        assertTrue(speed.remaining() > size.remaining());
+    }
+
+    @Test
+    public void testLevelIsNotSticky() {
+        ByteBuffer store = ChunkCompressUtils.compressAnvil(ByteBuffer.wrap(DATA), Compression.Level.STORE);
+        ChunkCompressUtils.compressAnvil(ByteBuffer.wrap(DATA), Compression.Level.SIZE);
+        assertEquals(store, ChunkCompressUtils.compressAnvil(ByteBuffer.wrap(DATA), Compression.Level.STORE));
+    }
+
+    @Test
+    public void testAnvilRoundTrip() {
+        for (Compression.Level level : Compression.Level.values()) {
+            ByteBuffer compressed = ChunkCompressUtils.compressAnvil(ByteBuffer.wrap(DATA), level);
+            assertEquals(level.name(), ByteBuffer.wrap(DATA), ChunkCompressUtils.decompressAnvil(compressed));
+        }
+    }
+
+    @Test
+    public void testCubicChunksRoundTrip() {
+        for (Compression.Level level : Compression.Level.values()) {
+            ByteBuffer compressed = ChunkCompressUtils.compressCubicChunks(ByteBuffer.wrap(DATA), level);
+            assertEquals(level.name(), ByteBuffer.wrap(DATA), ChunkCompressUtils.decompressCubicChunks(compressed));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.daporkchop.rocksmc.util;
+
+import com.google.common.primitives.UnsignedBytes;
+import cubicchunks.converter.lib.util.BoundingBox;
+import cubicchunks.converter.lib.util.Vector2i;
+import cubicchunks.converter.lib.util.Vector3i;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the ranges emitted by {@link MortonRanges} contain every position of the box, are in ascending key order and don't overlap.
+ *
+ * @author DaPorkchop_
+ */
+public class MortonRangesTest {
+    private static final Comparator<byte[]> KEY_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+
+    private static List<byte[][]> cubeRanges(BoundingBox box) {
+        List<byte[][]> ranges = new ArrayList<>();
+        MortonRanges.forEachCubeRange(box, (min, max) -> ranges.add(new byte[][]{ min, max }));
+        return ranges;
+    }
+
+    private static List<byte[][]> columnRanges(BoundingBox box) {
+        List<byte[][]> ranges = new ArrayList<>();
+        MortonRanges.forEachColumnRange(box, (min, max) -> ranges.add(new byte[][]{ min, max }));
+        return ranges;
+    }
+
+    private static void checkOrdered(List<byte[][]> ranges) {
+        assertFalse(ranges.isEmpty());
+        for (int i = 0; i < ranges.size(); i++) {
+            assertTrue(KEY_COMPARATOR.compare(ranges.get(i)[0], ranges.get(i)[1]) <= 0);
+            if (i > 0) {
+                assertTrue("ranges overlap or are out of order", KEY_COMPARATOR.compare(ranges.get(i - 1)[1], ranges.get(i)[0]) < 0);
+            }
+        }
+    }
+
+    private static boolean contains(List<byte[][]> ranges, byte[] key) {
+        for (byte[][] range : ranges) {
+            if (KEY_COMPARATOR.compare(range[0], key) <= 0 && KEY_COMPARATOR.compare(key, range[1]) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void checkCubes(BoundingBox box) {
+        List<byte[][]> ranges = cubeRanges(box);
+        checkOrdered(ranges);
+        Vector3i min = box.getMinPos();
+        Vector3i max = box.getMaxPos();
+        for (int x = min.getX(); x <= max.getX(); x++) {
+            for (int y = min.getY(); y <= max.getY(); y++) {
+                for (int z = min.getZ(); z <= max.getZ(); z++) {
+                    assertTrue(box + " misses " + x + ", " + y + ", " + z, contains(ranges, PositionSerializerUtils.writeVec3i(new Vector3i(x, y, z))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCubeBoxes() {
+        Random random = new Random(1234L);
+        for (int i = 0; i < 200; i++) {
+            int x = random.nextInt(200) - 100;
+            int y = random.nextInt(200) - 100;
+            int z = random.nextInt(200) - 100;
+            checkCubes(new BoundingBox(x, y, z, x + random.nextInt(20), y + random.nextInt(20), z + random.nextInt(20)));
+        }
+    }
+
+    @Test
+    public void testSingleCube() {
+        for (int[] pos : new int[][]{ { 0, 0, 0 }, { -1, -1, -1 }, { 5, -7, 123 } }) {
+            Vector3i cube = new Vector3i(pos[0], pos[1], pos[2]);
+            List<byte[][]> ranges = cubeRanges(new BoundingBox(cube, cube));
+            assertEquals(1, ranges.size());
+            assertArrayEquals(PositionSerializerUtils.writeVec3i(cube), ranges.get(0)[0]);
+            assertArrayEquals(PositionSerializerUtils.writeVec3i(cube), ranges.get(0)[1]);
+        }
+    }
+
+    @Test
+    public void testAlignedCellIsOneRange() {
+        assertEquals(1, cubeRanges(new BoundingBox(16, 32, -16, 31, 47, -1)).size());
+        assertEquals(1, columnRanges(new BoundingBox(-64, 0, 64, -1, 0, 127)).size());
+    }
+
+    @Test
+    public void testLargeBoxesStayFewRanges() {
+        //cells smaller than the precision limit aren't split, so the number of ranges doesn't grow with the box
+        List<byte[][]> ranges = cubeRanges(new BoundingBox(-100000, -1000, -100000, 100000, 1000, 100000));
+        checkOrdered(ranges);
+        assertTrue(ranges.size() < 1 << 16);
+        for (int[] pos : new int[][]{ { -100000, -1000, -100000 }, { 100000, 1000, 100000 }, { 0, 0, 0 }, { -1, 999, 12345 } }) {
+            assertTrue(contains(ranges, PositionSerializerUtils.writeVec3i(new Vector3i(pos[0], pos[1], pos[2]))));
+        }
+
+        ranges = cubeRanges(new BoundingBox(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(1, ranges.size());
+    }
+
+    @Test
+    public void testColumnAreas() {
+        Random random = new Random(1234L);
+        for (int i = 0; i < 500; i++) {
+            int x = random.nextInt(200) - 100;
+            int z = random.nextInt(200) - 100;
+            BoundingBox box = new BoundingBox(x, random.nextInt(), z, x + random.nextInt(40), 0, z + random.nextInt(40));
+            List<byte[][]> ranges = columnRanges(box);
+            checkOrdered(ranges);
+            for (int cx = box.getMinPos().getX(); cx <= box.getMaxPos().getX(); cx++) {
+                for (int cz = box.getMinPos().getZ(); cz <= box.getMaxPos().getZ(); cz++) {
+                    assertTrue(contains(ranges, PositionSerializerUtils.writeVec2i(new Vector2i(cx, cz))));
+                }
+            }
+        }
+    }
+}
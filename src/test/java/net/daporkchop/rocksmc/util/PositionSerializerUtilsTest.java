@@ -0,0 +1,169 @@
+package net.daporkchop.rocksmc.util;
+
+import cubicchunks.converter.lib.util.Vector2i;
+import cubicchunks.converter.lib.util.Vector3i;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link PositionSerializerUtils} produces the same keys as the original per-bit implementation, which existing databases were
+ * written with.
+ *
+ * @author DaPorkchop_
+ */
+public class PositionSerializerUtilsTest {
+    private static final int[] EDGES = {
+            Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Integer.MIN_VALUE + 2,
+            -65537, -65536, -65535, -257, -256, -255, -2, -1,
+            0, 1, 2, 255, 256, 257, 65535, 65536, 65537,
+            Integer.MAX_VALUE - 2, Integer.MAX_VALUE - 1, Integer.MAX_VALUE
+    };
+
+    @Test
+    public void testVec2iSmall() {
+        for (int x = -64; x <= 64; x++) {
+            for (int z = -64; z <= 64; z++) {
+                this.checkVec2i(x, z);
+            }
+        }
+    }
+
+    @Test
+    public void testVec2iEdges() {
+        for (int x : EDGES) {
+            for (int z : EDGES) {
+                this.checkVec2i(x, z);
+            }
+        }
+    }
+
+    @Test
+    public void testVec2iRandom() {
+        Random random = new Random(1234L);
+        for (int i = 0; i < 250000; i++) {
+            this.checkVec2i(random.nextInt(), random.nextInt());
+        }
+    }
+
+    @Test
+    public void testVec3iSmall() {
+        for (int x = -16; x <= 16; x++) {
+            for (int y = -16; y <= 16; y++) {
+                for (int z = -16; z <= 16; z++) {
+                    this.checkVec3i(x, y, z);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVec3iEdges() {
+        for (int x : EDGES) {
+            for (int y : EDGES) {
+                for (int z : EDGES) {
+                    this.checkVec3i(x, y, z);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVec3iRandom() {
+        Random random = new Random(5678L);
+        for (int i = 0; i < 250000; i++) {
+            this.checkVec3i(random.nextInt(), random.nextInt(), random.nextInt());
+        }
+    }
+
+    private void checkVec2i(int x, int z) {
+        Vector2i pos = new Vector2i(x, z);
+        byte[] expected = Loop.writeVec2i(pos);
+        byte[] actual = PositionSerializerUtils.writeVec2i(pos);
+        assertArrayEquals("write " + pos, expected, actual);
+        assertEquals("read " + pos, Loop.readVec2i(expected), PositionSerializerUtils.readVec2i(expected));
+        assertEquals("round trip " + pos, pos, PositionSerializerUtils.readVec2i(actual));
+    }
+
+    private void checkVec3i(int x, int y, int z) {
+        Vector3i pos = new Vector3i(x, y, z);
+        byte[] expected = Loop.writeVec3i(pos);
+        byte[] actual = PositionSerializerUtils.writeVec3i(pos);
+        assertArrayEquals("write " + pos, expected, actual);
+        assertEquals("read " + pos, Loop.readVec3i(expected), PositionSerializerUtils.readVec3i(expected));
+        assertEquals("round trip " + pos, pos, PositionSerializerUtils.readVec3i(actual));
+    }
+
+    /**
+     * The original implementation, which handles one bit at a time.
+     */
+    private static class Loop {
+        static Vector2i readVec2i(byte[] src) {
+            long l = ByteBuffer.wrap(src).getLong();
+            int x = 0;
+            int z = 0;
+            for (int i = 0; i < 32; i++) {
+                int bits = (int) (l >>> (i << 1)) & 0x3;
+                x |= (bits >> 1) << i;
+                z |= (bits & 1) << i;
+            }
+            return new Vector2i(x, z);
+        }
+
+        static byte[] writeVec2i(Vector2i pos) {
+            byte[] dst = new byte[8];
+
+            int x = pos.getX();
+            int z = pos.getY();
+            long l = 0L;
+            for (int i = 0; i < 32; i++) {
+                l |= (long) ((((x >>> i) & 1) << 1) | ((z >>> i) & 1)) << (i << 1);
+            }
+            ByteBuffer.wrap(dst).putLong(l);
+            return dst;
+        }
+
+        static Vector3i readVec3i(byte[] src) {
+            int startIndex = src.length - 1;
+            int x = readInterleavedIntBits(src, startIndex, 3, 2);
+            int y = readInterleavedIntBits(src, startIndex, 3, 1);
+            int z = readInterleavedIntBits(src, startIndex, 3, 0);
+            return new Vector3i(x, y, z);
+        }
+
+        static int readInterleavedIntBits(byte[] src, int startIndex, int nValues, int bitOffset) {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift++) {
+                int targetBitIndex = bitOffset + shift * nValues;
+                int targetByteIndex = startIndex - (targetBitIndex >>> 3);
+                int bit = (src[targetByteIndex] >>> (targetBitIndex & 0x7)) & 1;
+                value |= bit << shift;
+            }
+            return value;
+        }
+
+        static byte[] writeVec3i(Vector3i pos) {
+            int x = pos.getX();
+            int y = pos.getY();
+            int z = pos.getZ();
+            byte[] dst = new byte[12];
+            int startIndex = dst.length - 1;
+            writeInterleavedIntBits(dst, startIndex, 3, 2, x);
+            writeInterleavedIntBits(dst, startIndex, 3, 1, y);
+            writeInterleavedIntBits(dst, startIndex, 3, 0, z);
+            return dst;
+        }
+
+        static void writeInterleavedIntBits(byte[] dst, int startIndex, int nValues, int bitOffset, int value) {
+            for (int shift = 0; shift < 32; shift++) {
+                int bit = (value >>> shift) & 1;
+                int targetBitIndex = bitOffset + shift * nValues;
+                int targetByteIndex = startIndex - (targetBitIndex >>> 3);
+                dst[targetByteIndex] |= bit << (targetBitIndex & 0x7);
+            }
+        }
+    }
+}